@@ -0,0 +1,104 @@
+package test.flow.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import test.flow.support.CompiledFlow;
+import test.flow.support.FlowBuilder;
+import test.flow.support.FlowResults;
+import test.flow.support.state.AbstractState;
+
+/**
+ * Executes a batch of contexts through a flow with a decision and a few steps
+ * per branch, either one at a time with {@link CompiledFlow#start(Object)} or
+ * all together with {@link CompiledFlow#startAll(List)}. Scores are per
+ * context.
+ *
+ * @author Dave Syer
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(BatchExecutionBenchmark.BATCH)
+public class BatchExecutionBenchmark {
+
+	static final int BATCH = 1024;
+
+	@Param({ "4", "16" })
+	private int length;
+
+	private CompiledFlow<String, String> flow;
+
+	private List<String> contexts;
+
+	@Setup
+	public void setUp() {
+		FlowBuilder<String, String> builder = new FlowBuilder<String, String>("batch");
+		StubState decision = new StubState("decision") {
+			public String handle(String context) throws Exception {
+				return context;
+			}
+		};
+		builder.from(new StubState("input")).to(decision);
+		for (String branch : new String[] { "A", "B", "C" }) {
+			StubState previous = new StubState(branch + "0");
+			builder.from(decision).on(branch + "*").to(previous);
+			for (int i = 1; i < length; i++) {
+				StubState next = new StubState(branch + i);
+				builder.from(previous).on("FAILED").end(new StubState(branch + "-failed"));
+				builder.from(previous).to(next);
+				previous = next;
+			}
+			builder.from(previous).end(new StubState(branch + "-end"));
+		}
+		flow = builder.build();
+		contexts = new ArrayList<String>();
+		for (int i = 0; i < BATCH; i++) {
+			contexts.add("ABC".charAt(i % 3) + "-" + i);
+		}
+	}
+
+	@Benchmark
+	public void sequential(Blackhole blackhole) throws Exception {
+		for (String context : contexts) {
+			blackhole.consume(flow.start(context));
+		}
+	}
+
+	@Benchmark
+	public FlowResults<String, String> batch() throws Exception {
+		return flow.startAll(contexts);
+	}
+
+	private static class StubState extends AbstractState<String, String> {
+
+		public StubState(String name) {
+			super(name);
+		}
+
+		public String handle(String context) throws Exception {
+			return "COMPLETED";
+		}
+
+	}
+
+}
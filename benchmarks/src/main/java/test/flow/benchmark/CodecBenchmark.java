@@ -0,0 +1,99 @@
+package test.flow.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.batch.core.ExitStatus;
+
+import test.flow.FlowResult;
+import test.flow.support.codec.BinaryInput;
+import test.flow.support.codec.BinaryOutput;
+import test.flow.support.codec.FlowCodec;
+import test.job.ExitStatusCodec;
+
+/**
+ * Encodes and decodes a paused result of a job flow (a memento and an
+ * {@link ExitStatus}) with a {@link FlowCodec} and with Java serialization.
+ * The codec decodes from a direct buffer (as if from a memory mapped file).
+ * The memento is either a state name or a compact memento.
+ *
+ * @author Dave Syer
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	@Param({ "name", "compact" })
+	private String memento;
+
+	private FlowResult<Object, ExitStatus> result;
+
+	private FlowCodec<ExitStatus> codec;
+
+	private BinaryOutput output;
+
+	private ByteBuffer encoded;
+
+	private byte[] serialized;
+
+	@Setup
+	public void setUp() throws Exception {
+		Object value = "name".equals(memento) ? "step1" : ((long) "job".hashCode() << 32) | 3;
+		result = new FlowResult<Object, ExitStatus>(value, null, ExitStatus.COMPLETED, false);
+		codec = new FlowCodec<ExitStatus>(new ExitStatusCodec());
+		output = new BinaryOutput();
+		byte[] bytes = codec.encode(result);
+		encoded = ByteBuffer.allocateDirect(bytes.length);
+		encoded.put(bytes).flip();
+		serialized = javaSerialize();
+	}
+
+	@Benchmark
+	public int codecEncode() {
+		output.reset();
+		codec.write(result, output);
+		return output.size();
+	}
+
+	@Benchmark
+	public Object codecDecode() {
+		return codec.read(new BinaryInput(encoded.duplicate()), null);
+	}
+
+	@Benchmark
+	public byte[] javaSerialize() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream stream = new ObjectOutputStream(bytes);
+		stream.writeObject(new Object[] { result.getMemento(), result.getEvent(), result.isComplete() });
+		stream.close();
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public Object javaDeserialize() throws Exception {
+		ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(serialized));
+		Object[] values = (Object[]) stream.readObject();
+		return new FlowResult<Object, ExitStatus>(values[0], null, (ExitStatus) values[1], (Boolean) values[2]);
+	}
+
+}
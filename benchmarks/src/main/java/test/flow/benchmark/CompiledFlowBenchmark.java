@@ -0,0 +1,93 @@
+package test.flow.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import test.flow.FlowResult;
+import test.flow.support.CompiledFlow;
+import test.flow.support.SimpleFlow;
+import test.flow.support.Transition;
+import test.flow.support.state.AbstractState;
+
+/**
+ * Compares execution of a {@link SimpleFlow} with its {@link CompiledFlow} for
+ * a linear chain of states, where each step has a wildcard transition to the
+ * next and a couple of alternative exits.
+ *
+ * @author Dave Syer
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiledFlowBenchmark {
+
+	@Param({ "4", "16", "64" })
+	private int length;
+
+	private SimpleFlow<Object, String> simple;
+
+	private CompiledFlow<Object, String> compiled;
+
+	private final Object context = new Object();
+
+	@Setup
+	public void setUp() throws Exception {
+		List<Transition<Object, String>> transitions = new ArrayList<Transition<Object, String>>();
+		StubState failed = new StubState("failed");
+		StubState previous = new StubState("step0");
+		for (int i = 1; i < length; i++) {
+			StubState next = new StubState("step" + i);
+			transitions.add(Transition.create(previous, "FAILED", "failed"));
+			transitions.add(Transition.create(previous, "STOPPED", "failed"));
+			transitions.add(Transition.<Object, String> create(previous, next.getName()));
+			previous = next;
+		}
+		transitions.add(Transition.<Object, String> create(previous, "end"));
+		transitions.add(Transition.<Object, String> createEnd(new StubState("end")));
+		transitions.add(Transition.<Object, String> createEnd(failed));
+		simple = new SimpleFlow<Object, String>("linear");
+		simple.setTransitions(transitions);
+		simple.afterPropertiesSet();
+		compiled = simple.compile();
+	}
+
+	@Benchmark
+	public FlowResult<Object, String> simple() throws Exception {
+		return simple.start(context);
+	}
+
+	@Benchmark
+	public FlowResult<Object, String> compiled() throws Exception {
+		return compiled.start(context);
+	}
+
+	private static class StubState extends AbstractState<Object, String> {
+
+		public StubState(String name) {
+			super(name);
+		}
+
+		public String handle(Object context) throws Exception {
+			return "COMPLETED";
+		}
+
+	}
+
+}
@@ -0,0 +1,95 @@
+package test.flow.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import test.flow.FlowResult;
+import test.flow.support.CompiledFlow;
+import test.flow.support.SimpleFlow;
+import test.flow.support.Transition;
+import test.flow.support.state.AbstractState;
+
+/**
+ * A single decision state with a wide fan-out of exact-match (enum)
+ * transitions, resumed with an event that selects the last one in order of
+ * precedence.
+ *
+ * @author Dave Syer
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecisionDispatchBenchmark {
+
+	@Param({ "2", "8", "32" })
+	private int fanOut;
+
+	private SimpleFlow<Object, Code> simple;
+
+	private CompiledFlow<Object, Code> compiled;
+
+	private Code event;
+
+	private final Object context = new Object();
+
+	@Setup
+	public void setUp() throws Exception {
+		List<Transition<Object, Code>> transitions = new ArrayList<Transition<Object, Code>>();
+		CodeState decision = new CodeState("decision");
+		for (int i = 0; i < fanOut; i++) {
+			Code code = Code.values()[i];
+			transitions.add(Transition.create(decision, code, code.name()));
+			transitions.add(Transition.<Object, Code> createEnd(new CodeState(code.name())));
+		}
+		simple = new SimpleFlow<Object, Code>("decision");
+		simple.setTransitions(transitions);
+		simple.afterPropertiesSet();
+		compiled = simple.compile();
+		// Templates sort in reverse order so the first is the last to be tried
+		event = Code.values()[0];
+	}
+
+	@Benchmark
+	public FlowResult<Object, Code> simple() throws Exception {
+		return simple.resume("decision", context, event);
+	}
+
+	@Benchmark
+	public FlowResult<Object, Code> compiled() throws Exception {
+		return compiled.resume("decision", context, event);
+	}
+
+	public static enum Code {
+		C00, C01, C02, C03, C04, C05, C06, C07, C08, C09, C10, C11, C12, C13, C14, C15, C16, C17, C18, C19, C20, C21, C22, C23, C24, C25, C26, C27, C28, C29, C30, C31;
+	}
+
+	private static class CodeState extends AbstractState<Object, Code> {
+
+		public CodeState(String name) {
+			super(name);
+		}
+
+		public Code handle(Object context) throws Exception {
+			return Code.C00;
+		}
+
+	}
+
+}
@@ -0,0 +1,87 @@
+package test.flow.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import test.flow.FlowExecutionException;
+import test.flow.FlowResult;
+import test.flow.support.CompiledFlow;
+import test.flow.support.FlowBuilder;
+import test.flow.support.state.AbstractState;
+
+/**
+ * Executes a flow where the event from the first state has no matching
+ * transition, as for an event stream where that is an expected outcome. The
+ * flow either throws an exception (the default) or returns a failed result
+ * (see {@link CompiledFlow#isFailureResults()}).
+ *
+ * @author Dave Syer
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FailureBenchmark {
+
+	private CompiledFlow<String, String> exceptions;
+
+	private CompiledFlow<String, String> results;
+
+	@Setup
+	public void setUp() {
+		exceptions = createFlow(false);
+		results = createFlow(true);
+	}
+
+	@Benchmark
+	public Object exceptions() {
+		try {
+			return exceptions.start("UNKNOWN");
+		}
+		catch (FlowExecutionException e) {
+			return e;
+		}
+	}
+
+	@Benchmark
+	public Object results() throws Exception {
+		FlowResult<String, String> result = results.start("UNKNOWN");
+		return result.isFailed() ? result.getFailure().getKind() : result;
+	}
+
+	private static CompiledFlow<String, String> createFlow(boolean failureResults) {
+		FlowBuilder<String, String> builder = new FlowBuilder<String, String>("failure");
+		builder.failureResults(failureResults);
+		StubState decision = new StubState("decision");
+		for (String event : new String[] { "A", "B", "C" }) {
+			builder.from(decision).on(event).end(new StubState(event.toLowerCase()));
+		}
+		return builder.build();
+	}
+
+	private static class StubState extends AbstractState<String, String> {
+
+		public StubState(String name) {
+			super(name);
+		}
+
+		public String handle(String context) throws Exception {
+			return context;
+		}
+
+	}
+
+}
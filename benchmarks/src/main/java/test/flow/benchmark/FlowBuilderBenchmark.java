@@ -0,0 +1,74 @@
+package test.flow.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import test.flow.support.CompiledFlow;
+import test.flow.support.FlowBuilder;
+import test.flow.support.state.AbstractState;
+
+/**
+ * Builds (and so compiles) a flow with a decision state fanning out to a
+ * number of linear branches, each with exact-match and wildcard exits, to
+ * measure the cost of creating flows at runtime.
+ *
+ * @author Dave Syer
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowBuilderBenchmark {
+
+	@Param({ "2", "8" })
+	private int branches;
+
+	@Param({ "4", "16" })
+	private int length;
+
+	@Benchmark
+	public CompiledFlow<Object, String> build() {
+		FlowBuilder<Object, String> builder = new FlowBuilder<Object, String>("built");
+		StubState decision = new StubState("decision");
+		StubState failed = new StubState("failed");
+		for (int i = 0; i < branches; i++) {
+			StubState previous = new StubState("branch" + i + "-0");
+			builder.from(decision).on("BRANCH" + i + "*").to(previous);
+			for (int j = 1; j < length; j++) {
+				StubState next = new StubState("branch" + i + "-" + j);
+				builder.from(previous).on("FAILED").to(failed);
+				builder.from(previous).to(next);
+				previous = next;
+			}
+			builder.from(previous).end(new StubState("branch" + i + "-end"));
+		}
+		builder.from(decision).end(failed);
+		return builder.build();
+	}
+
+	private static class StubState extends AbstractState<Object, String> {
+
+		public StubState(String name) {
+			super(name);
+		}
+
+		public String handle(Object context) throws Exception {
+			return "COMPLETED";
+		}
+
+	}
+
+}
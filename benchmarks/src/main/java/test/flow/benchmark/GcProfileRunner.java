@@ -0,0 +1,29 @@
+package test.flow.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks with the JMH GC profiler, so the results include the
+ * allocation rate and bytes allocated per operation as well as the scores.
+ * Accepts the same command line as the benchmarks jar, e.g.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar test.flow.benchmark.GcProfileRunner CompiledFlowBenchmark
+ * </pre>
+ *
+ * @author Dave Syer
+ *
+ */
+public class GcProfileRunner {
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+
+}
@@ -0,0 +1,80 @@
+package test.flow.benchmark;
+
+import static test.issue.Action.APPROVED;
+import static test.issue.Action.REJECTED;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import test.flow.support.FlowBuilder;
+import test.issue.Action;
+import test.issue.Issue;
+import test.issue.Status;
+import test.issue.tracker.FlowIssueTracker;
+import test.issue.tracker.IssueState;
+
+/**
+ * The issue tracker flow (the same as in the tests for
+ * {@link FlowIssueTracker}), taking a new issue through a typical lifecycle:
+ * it is opened, rejected as unclear, revised, accepted, resolved and closed.
+ * Every step after the first resumes the flow using the status of the issue
+ * as the memento.
+ *
+ * @author Dave Syer
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IssueTrackerBenchmark {
+
+	private FlowIssueTracker tracker;
+
+	@Setup
+	public void setUp() {
+
+		IssueState accepted = new IssueState(Status.ACCEPTED);
+		IssueState closed = new IssueState(Status.CLOSED);
+		IssueState created = new IssueState(Status.CREATED);
+		IssueState resolved = new IssueState(Status.RESOLVED);
+		IssueState revised = new IssueState(Status.REVISED);
+		IssueState unclear = new IssueState(Status.UNCLEAR);
+		IssueState unresolved = new IssueState(Status.ACCEPTED);
+
+		FlowBuilder<Issue, Action> builder = new FlowBuilder<Issue, Action>("issues");
+		builder.from(created).on(APPROVED).to(accepted).on(APPROVED).to(resolved).on(APPROVED).to(closed);
+		builder.from(created).on(REJECTED).to(unclear).on(APPROVED).to(revised).on(APPROVED).to(accepted);
+		builder.from(accepted).on(REJECTED).to(unclear);
+		builder.from(resolved).on(REJECTED).to(unresolved).on(APPROVED).to(resolved);
+		builder.from(revised).on(REJECTED).to(unclear);
+
+		tracker = new FlowIssueTracker(builder.build());
+
+	}
+
+	@Benchmark
+	public Status lifecycle() {
+		Issue issue = new Issue(123L, "Not working");
+		tracker.open(issue);
+		tracker.reject(issue);
+		tracker.approve(issue);
+		tracker.approve(issue);
+		tracker.approve(issue);
+		tracker.approve(issue);
+		return issue.getStatus();
+	}
+
+}
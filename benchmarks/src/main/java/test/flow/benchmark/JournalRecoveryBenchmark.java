@@ -0,0 +1,129 @@
+package test.flow.benchmark;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.serializer.Deserializer;
+import org.springframework.core.serializer.Serializer;
+
+import test.flow.support.repository.JournalFlowExecutionRepository;
+
+/**
+ * Opens a {@link JournalFlowExecutionRepository} holding a large number of
+ * paused executions, each of which has been through a few transitions (like
+ * an issue going from CREATED to ACCEPTED to RESOLVED). Either the whole
+ * history is replayed from the journal, or the journal has been compacted to a
+ * snapshot and only a short tail of changes after it is replayed. Setting up
+ * the journal takes a while (and a couple of GB of disk for 10M executions).
+ *
+ * @author Dave Syer
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class JournalRecoveryBenchmark {
+
+	private static final String[] STATES = { "CREATED", "ACCEPTED", "RESOLVED" };
+
+	@Param({ "10000000" })
+	private int executions;
+
+	@Param({ "journal", "snapshot" })
+	private String recovery;
+
+	private File directory;
+
+	private File file;
+
+	@Setup
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("journal").toFile();
+		file = new File(directory, "issues");
+		JournalFlowExecutionRepository<String> repository = create();
+		repository.setSyncOnWrite(false);
+		repository.setCompactionThreshold(0);
+		for (String state : STATES) {
+			for (long id = 0; id < executions; id++) {
+				repository.save(id, state, "APPROVED");
+			}
+		}
+		if ("snapshot".equals(recovery)) {
+			repository.compact();
+			// A tail of recent changes
+			for (long id = 0; id < executions / 100; id++) {
+				repository.save(id, "CLOSED", "APPROVED");
+			}
+		}
+		repository.close();
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File child : directory.listFiles()) {
+			child.delete();
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	public int recover() {
+		JournalFlowExecutionRepository<String> repository = create();
+		try {
+			return repository.size();
+		}
+		finally {
+			repository.close();
+		}
+	}
+
+	private JournalFlowExecutionRepository<String> create() {
+		JournalFlowExecutionRepository<String> repository = new JournalFlowExecutionRepository<String>(file);
+		repository.setSerializer(new StringsSerializer());
+		repository.setDeserializer(new StringsSerializer());
+		return repository;
+	}
+
+	/**
+	 * Writes the memento and event as plain strings (much smaller than Java
+	 * serialization), to keep the size of the journal down.
+	 */
+	private static class StringsSerializer implements Serializer<Object>, Deserializer<Object> {
+
+		public void serialize(Object object, OutputStream outputStream) throws IOException {
+			Object[] values = (Object[]) object;
+			DataOutputStream output = new DataOutputStream(outputStream);
+			output.writeUTF((String) values[0]);
+			output.writeUTF((String) values[1]);
+			output.flush();
+		}
+
+		public Object deserialize(InputStream inputStream) throws IOException {
+			DataInputStream input = new DataInputStream(inputStream);
+			return new Object[] { input.readUTF(), input.readUTF() };
+		}
+
+	}
+
+}
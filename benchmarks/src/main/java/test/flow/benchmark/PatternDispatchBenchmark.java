@@ -0,0 +1,98 @@
+package test.flow.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import test.flow.support.match.PatternAutomaton;
+import test.flow.support.match.PatternMatcher;
+
+/**
+ * Selects the first of a growing list of glob patterns that matches an exit
+ * code, three ways: a regex per pattern (how {@link PatternMatcher} used to
+ * work), the glob matcher per pattern, and a single {@link PatternAutomaton}.
+ * The exit code only matches the last pattern, which is the worst case for a
+ * scan.
+ *
+ * @author Dave Syer
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatternDispatchBenchmark {
+
+	@Param({ "2", "8", "32" })
+	private int patterns;
+
+	private String[] regexes;
+
+	private PatternMatcher[] matchers;
+
+	private PatternAutomaton automaton;
+
+	private final String value = "COMPLETED WITH SKIPS";
+
+	@Setup
+	public void setUp() {
+		List<PatternMatcher> list = new ArrayList<PatternMatcher>();
+		for (int i = 1; i < patterns; i++) {
+			list.add(new PatternMatcher("*FAIL" + i + "*"));
+		}
+		list.add(new PatternMatcher("*WITH*"));
+		Collections.sort(list, new Comparator<PatternMatcher>() {
+			public int compare(PatternMatcher o1, PatternMatcher o2) {
+				return o1.compareTo(o2);
+			}
+		});
+		matchers = list.toArray(new PatternMatcher[list.size()]);
+		regexes = new String[matchers.length];
+		for (int i = 0; i < matchers.length; i++) {
+			regexes[i] = matchers[i].getPattern().replace("?", ".").replace("*", ".*?");
+		}
+		automaton = PatternAutomaton.create(list);
+	}
+
+	@Benchmark
+	public int regex() {
+		for (int i = 0; i < regexes.length; i++) {
+			if (value.matches(regexes[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Benchmark
+	public int scan() {
+		for (int i = 0; i < matchers.length; i++) {
+			if (matchers[i].match(value)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Benchmark
+	public int automaton() {
+		return automaton.match(value);
+	}
+
+}
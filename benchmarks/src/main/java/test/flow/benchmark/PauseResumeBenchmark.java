@@ -0,0 +1,128 @@
+package test.flow.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import test.flow.Flow;
+import test.flow.FlowResult;
+import test.flow.support.CompiledFlow;
+import test.flow.support.SimpleFlow;
+import test.flow.support.Transition;
+import test.flow.support.state.AbstractState;
+import test.flow.support.state.PauseAdapter;
+import test.flow.support.state.PauseState;
+
+/**
+ * A flow that pauses a number of times before it ends, started and then
+ * resumed with the memento from each result until it completes. Compares a
+ * {@link SimpleFlow} with its {@link CompiledFlow}, with and without compact
+ * mementos.
+ *
+ * @author Dave Syer
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PauseResumeBenchmark {
+
+	@Param({ "1", "8" })
+	private int pauses;
+
+	private final Object context = new Object();
+
+	private SimpleFlow<Object, String> simple;
+
+	private CompiledFlow<Object, String> compiled;
+
+	private CompiledFlow<Object, String> compact;
+
+	@Setup
+	public void setUp() throws Exception {
+		List<Transition<Object, String>> transitions = new ArrayList<Transition<Object, String>>();
+		StubState previous = new StubState("step0");
+		for (int i = 1; i <= pauses; i++) {
+			WaitState wait = new WaitState("wait" + i);
+			StubState next = new StubState("step" + i);
+			transitions.add(Transition.<Object, String> create(previous, wait.getName()));
+			transitions.add(Transition.create(wait, "FAILED", "failed"));
+			transitions.add(Transition.create(wait, "COMPLETED", next.getName()));
+			previous = next;
+		}
+		transitions.add(Transition.<Object, String> createEnd(previous));
+		transitions.add(Transition.<Object, String> createEnd(new StubState("failed")));
+		simple = new SimpleFlow<Object, String>("pauses");
+		simple.setTransitions(transitions);
+		simple.afterPropertiesSet();
+		compiled = simple.compile();
+		SimpleFlow<Object, String> flow = new SimpleFlow<Object, String>("pauses");
+		flow.setCompactMementos(true);
+		flow.setTransitions(transitions);
+		flow.afterPropertiesSet();
+		compact = flow.compile();
+	}
+
+	@Benchmark
+	public FlowResult<Object, String> simple() throws Exception {
+		return cycle(simple);
+	}
+
+	@Benchmark
+	public FlowResult<Object, String> compiled() throws Exception {
+		return cycle(compiled);
+	}
+
+	@Benchmark
+	public FlowResult<Object, String> compact() throws Exception {
+		return cycle(compact);
+	}
+
+	private FlowResult<Object, String> cycle(Flow<Object, String> flow) throws Exception {
+		FlowResult<Object, String> result = flow.start(context);
+		while (!result.isComplete()) {
+			result = flow.resume(result.getMemento(), context, "COMPLETED");
+		}
+		return result;
+	}
+
+	private static class WaitState extends PauseState<Object, String> {
+
+		public WaitState(String name) {
+			super(name, new PauseAdapter<Object, String>() {
+				public String pause(Object context) {
+					return "PAUSED";
+				}
+			});
+		}
+
+	}
+
+	private static class StubState extends AbstractState<Object, String> {
+
+		public StubState(String name) {
+			super(name);
+		}
+
+		public String handle(Object context) throws Exception {
+			return "COMPLETED";
+		}
+
+	}
+
+}
@@ -0,0 +1,131 @@
+package test.flow.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import test.flow.Flow;
+import test.flow.FlowResult;
+import test.flow.support.CompiledFlow;
+import test.flow.support.FlowBuilder;
+import test.flow.support.state.AbstractState;
+import test.flow.support.state.SplitState;
+
+/**
+ * A flow with a {@link SplitState} into a number of linear subflows, each of
+ * which burns some CPU in every step, run with different kinds of
+ * {@link TaskExecutor}: synchronous, a thread pool, and a new thread per
+ * subflow. The flow is executed synchronously and asynchronously (where the
+ * caller does not wait in the split).
+ *
+ * @author Dave Syer
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SplitBenchmark {
+
+	@Param({ "sync", "pool", "thread" })
+	private String executor;
+
+	@Param({ "4" })
+	private int branches;
+
+	/**
+	 * CPU cost of each step in a subflow.
+	 */
+	@Param({ "100" })
+	private int work;
+
+	private final Object context = new Object();
+
+	private CompiledFlow<Object, String> flow;
+
+	private ThreadPoolTaskExecutor pool;
+
+	@Setup
+	public void setUp() {
+		List<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		for (int i = 0; i < branches; i++) {
+			FlowBuilder<Object, String> builder = new FlowBuilder<Object, String>("branch" + i);
+			WorkState step2 = new WorkState("step2", work);
+			builder.from(new WorkState("step1", work)).to(step2);
+			builder.from(step2).end(new WorkState("step3", work));
+			flows.add(builder.build());
+		}
+		SplitState<Object, String> split = new SplitState<Object, String>("split", flows);
+		split.setTaskExecutor(createTaskExecutor());
+		FlowBuilder<Object, String> builder = new FlowBuilder<Object, String>("split");
+		builder.from(split).end(new WorkState("end", work));
+		flow = builder.build();
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	@Benchmark
+	public FlowResult<Object, String> start() throws Exception {
+		return flow.start(context);
+	}
+
+	@Benchmark
+	public FlowResult<Object, String> startAsync() throws Exception {
+		return flow.startAsync(context).get();
+	}
+
+	private TaskExecutor createTaskExecutor() {
+		if ("pool".equals(executor)) {
+			pool = new ThreadPoolTaskExecutor();
+			pool.setCorePoolSize(branches);
+			pool.afterPropertiesSet();
+			return pool;
+		}
+		if ("thread".equals(executor)) {
+			return new SimpleAsyncTaskExecutor();
+		}
+		return new SyncTaskExecutor();
+	}
+
+	private static class WorkState extends AbstractState<Object, String> {
+
+		private final int work;
+
+		public WorkState(String name, int work) {
+			super(name);
+			this.work = work;
+		}
+
+		public String handle(Object context) throws Exception {
+			Blackhole.consumeCPU(work);
+			return "COMPLETED";
+		}
+
+	}
+
+}
@@ -0,0 +1,228 @@
+package test.flow.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import test.flow.FlowResult;
+import test.flow.stream.FlowProcessor;
+import test.flow.support.CompiledFlow;
+import test.flow.support.FlowBuilder;
+import test.flow.support.state.AbstractState;
+
+/**
+ * Streams a batch of contexts through a flow to a slow consumer that requests
+ * one result at a time, either with a hand-written loop over
+ * {@link CompiledFlow#start(Object)} or through a {@link FlowProcessor} with
+ * different levels of concurrency. The states in the flow wait (as if for
+ * I/O) and the consumer burns CPU. The sample time is the latency for the
+ * whole batch.
+ *
+ * @author Dave Syer
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamingBenchmark {
+
+	private static final int BATCH = 1024;
+
+	@Param({ "1", "4" })
+	private int concurrency;
+
+	/**
+	 * Time (microseconds) that each state in the flow spends waiting, e.g. for
+	 * I/O.
+	 */
+	@Param({ "50" })
+	private int wait;
+
+	/**
+	 * CPU cost of consuming each result.
+	 */
+	@Param({ "2000" })
+	private int consumer;
+
+	private CompiledFlow<Integer, String> flow;
+
+	private ExecutorService executor;
+
+	@Setup
+	public void setUp() {
+		FlowBuilder<Integer, String> builder = new FlowBuilder<Integer, String>("stream");
+		WaitState step2 = new WaitState("step2", wait);
+		builder.from(new WaitState("step1", wait)).to(step2);
+		builder.from(step2).end(new WaitState("step3", wait));
+		flow = builder.build();
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Benchmark
+	public long loop() throws Exception {
+		long count = 0;
+		for (int i = 0; i < BATCH; i++) {
+			FlowResult<Integer, String> result = flow.start(i);
+			Blackhole.consumeCPU(consumer);
+			count += result.getContext();
+		}
+		return count;
+	}
+
+	@Benchmark
+	public long processor() throws Exception {
+		FlowProcessor<Integer, String> processor = new FlowProcessor<Integer, String>(flow);
+		processor.setTaskExecutor(new TaskExecutorAdapter(executor));
+		processor.setConcurrency(concurrency);
+		processor.setMaxInFlight(2 * concurrency);
+		new RangePublisher(BATCH).subscribe(processor);
+		SlowSubscriber subscriber = new SlowSubscriber(consumer);
+		processor.subscribe(subscriber);
+		return subscriber.await();
+	}
+
+	private static class WaitState extends AbstractState<Integer, String> {
+
+		private final long nanos;
+
+		public WaitState(String name, int micros) {
+			super(name);
+			this.nanos = TimeUnit.MICROSECONDS.toNanos(micros);
+		}
+
+		public String handle(Integer context) throws Exception {
+			LockSupport.parkNanos(nanos);
+			return "COMPLETED";
+		}
+
+	}
+
+	/**
+	 * Publishes the integers from 0 to count-1.
+	 */
+	private static class RangePublisher implements Publisher<Integer> {
+
+		private final int count;
+
+		public RangePublisher(int count) {
+			this.count = count;
+		}
+
+		public void subscribe(final Subscriber<? super Integer> subscriber) {
+			subscriber.onSubscribe(new Subscription() {
+
+				private final AtomicLong demand = new AtomicLong();
+
+				private final AtomicInteger wip = new AtomicInteger();
+
+				private volatile boolean cancelled;
+
+				private int next;
+
+				public void request(long n) {
+					demand.addAndGet(n);
+					if (wip.getAndIncrement() != 0) {
+						return;
+					}
+					do {
+						while (!cancelled && next < count && demand.get() > 0) {
+							demand.decrementAndGet();
+							subscriber.onNext(next++);
+						}
+						if (!cancelled && next == count) {
+							cancelled = true;
+							subscriber.onComplete();
+						}
+					}
+					while (wip.decrementAndGet() != 0);
+				}
+
+				public void cancel() {
+					cancelled = true;
+				}
+
+			});
+		}
+
+	}
+
+	/**
+	 * Requests one result at a time and burns some CPU on each one.
+	 */
+	private static class SlowSubscriber implements Subscriber<FlowResult<Integer, String>> {
+
+		private final CountDownLatch latch = new CountDownLatch(1);
+
+		private final int work;
+
+		private Subscription subscription;
+
+		private long count;
+
+		private volatile Throwable error;
+
+		public SlowSubscriber(int work) {
+			this.work = work;
+		}
+
+		public long await() throws Exception {
+			latch.await();
+			if (error != null) {
+				throw new IllegalStateException(error);
+			}
+			return count;
+		}
+
+		public void onSubscribe(Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(1);
+		}
+
+		public void onNext(FlowResult<Integer, String> result) {
+			Blackhole.consumeCPU(work);
+			count += result.getContext();
+			subscription.request(1);
+		}
+
+		public void onError(Throwable throwable) {
+			error = throwable;
+			latch.countDown();
+		}
+
+		public void onComplete() {
+			latch.countDown();
+		}
+
+	}
+
+}
@@ -0,0 +1,122 @@
+package test.flow.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import test.flow.Flow;
+import test.flow.FlowResult;
+import test.flow.support.CompiledFlow;
+import test.flow.support.FlowBuilder;
+import test.flow.support.state.AbstractState;
+import test.flow.support.state.SplitState;
+import test.flow.support.task.VirtualThreadTaskExecutor;
+
+/**
+ * A wide {@link SplitState} where every flow waits (as if for I/O), executed
+ * with a fixed pool of platform threads or with a virtual thread per flow.
+ * Virtual threads need Java 21, so on older versions the "virtual" runs fail
+ * in setup. Run with {@link GcProfileRunner} to compare memory as well as
+ * throughput.
+ *
+ * @author Dave Syer
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WideSplitBenchmark {
+
+	private static final int POOL_SIZE = 16;
+
+	@Param({ "pool", "virtual" })
+	private String executor;
+
+	@Param({ "16", "64", "256" })
+	private int branches;
+
+	/**
+	 * Time (microseconds) that each flow spends waiting.
+	 */
+	@Param({ "1000" })
+	private int wait;
+
+	private final Object context = new Object();
+
+	private CompiledFlow<Object, String> flow;
+
+	private ThreadPoolTaskExecutor pool;
+
+	@Setup
+	public void setUp() {
+		List<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		for (int i = 0; i < branches; i++) {
+			FlowBuilder<Object, String> builder = new FlowBuilder<Object, String>("branch" + i);
+			builder.end(new WaitState("wait", wait));
+			flows.add(builder.build());
+		}
+		SplitState<Object, String> split = new SplitState<Object, String>("split", flows);
+		split.setTaskExecutor(createTaskExecutor());
+		FlowBuilder<Object, String> builder = new FlowBuilder<Object, String>("split");
+		builder.end(split);
+		flow = builder.build();
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	@Benchmark
+	public FlowResult<Object, String> split() throws Exception {
+		return flow.start(context);
+	}
+
+	private TaskExecutor createTaskExecutor() {
+		if ("virtual".equals(executor)) {
+			return new VirtualThreadTaskExecutor();
+		}
+		pool = new ThreadPoolTaskExecutor();
+		pool.setCorePoolSize(POOL_SIZE);
+		pool.afterPropertiesSet();
+		return pool;
+	}
+
+	private static class WaitState extends AbstractState<Object, String> {
+
+		private final long nanos;
+
+		public WaitState(String name, int micros) {
+			super(name);
+			this.nanos = TimeUnit.MICROSECONDS.toNanos(micros);
+		}
+
+		public String handle(Object context) throws Exception {
+			LockSupport.parkNanos(nanos);
+			return "COMPLETED";
+		}
+
+	}
+
+}
@@ -0,0 +1,96 @@
+package test.flow.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import test.flow.FlowResult;
+import test.flow.support.CompiledFlow;
+import test.flow.support.SimpleFlow;
+import test.flow.support.Transition;
+import test.flow.support.state.AbstractState;
+
+/**
+ * A linear flow where every step has a number of glob-pattern transitions
+ * (and only the least specific one matches), comparing a {@link SimpleFlow}
+ * with its {@link CompiledFlow}. Where {@link PatternDispatchBenchmark}
+ * measures the matching on its own, this includes everything else that
+ * happens in a flow.
+ *
+ * @author Dave Syer
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WildcardFlowBenchmark {
+
+	private static final int LENGTH = 8;
+
+	@Param({ "2", "8", "32" })
+	private int patterns;
+
+	private final Object context = new Object();
+
+	private SimpleFlow<Object, String> simple;
+
+	private CompiledFlow<Object, String> compiled;
+
+	@Setup
+	public void setUp() throws Exception {
+		List<Transition<Object, String>> transitions = new ArrayList<Transition<Object, String>>();
+		StubState previous = new StubState("step0");
+		for (int i = 1; i < LENGTH; i++) {
+			StubState next = new StubState("step" + i);
+			for (int j = 1; j < patterns; j++) {
+				transitions.add(Transition.create(previous, "*FAIL" + j + "?", "failed"));
+			}
+			transitions.add(Transition.create(previous, "COMPLETED*", next.getName()));
+			previous = next;
+		}
+		transitions.add(Transition.<Object, String> createEnd(previous));
+		transitions.add(Transition.<Object, String> createEnd(new StubState("failed")));
+		simple = new SimpleFlow<Object, String>("wildcards");
+		simple.setTransitions(transitions);
+		simple.afterPropertiesSet();
+		compiled = simple.compile();
+	}
+
+	@Benchmark
+	public FlowResult<Object, String> simple() throws Exception {
+		return simple.start(context);
+	}
+
+	@Benchmark
+	public FlowResult<Object, String> compiled() throws Exception {
+		return compiled.start(context);
+	}
+
+	private static class StubState extends AbstractState<Object, String> {
+
+		public StubState(String name) {
+			super(name);
+		}
+
+		public String handle(Object context) throws Exception {
+			return "COMPLETED WITH SKIPS";
+		}
+
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow;
+
+import org.springframework.util.concurrent.ListenableFuture;
+
+/**
+ * A {@link Flow} that can also be executed without blocking the caller. The
+ * flow moves on to the next state when the last one completes, so a thread is
+ * only needed while a state is actually doing some work.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public interface AsyncFlow<T, S> extends Flow<T, S> {
+
+	/**
+	 * Start the flow and return immediately. The result is the same as from
+	 * {@link #start(Object)}, except that a failure is signalled through the
+	 * future (as a {@link FlowExecutionException}).
+	 * 
+	 * @param context the business context for the flow
+	 * 
+	 * @return a future for the {@link FlowResult}
+	 */
+	ListenableFuture<FlowResult<T, S>> startAsync(T context);
+
+	/**
+	 * Resume a flow that was paused and return immediately. The result is the
+	 * same as from {@link #resume(Object, Object, Object)}, except that a
+	 * failure is signalled through the future (as a
+	 * {@link FlowExecutionException}).
+	 * 
+	 * @param memento a memento of the state of the flow when it paused
+	 * @param context the business context for the flow
+	 * @param event the event that triggered this operation
+	 * 
+	 * @return a future for the {@link FlowResult}
+	 */
+	ListenableFuture<FlowResult<T, S>> resumeAsync(Object memento, T context, S event);
+
+}
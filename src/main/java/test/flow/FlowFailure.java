@@ -0,0 +1,148 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow;
+
+/**
+ * The reason that a flow execution failed, carried by a {@link FlowResult}
+ * instead of being thrown, for flows that treat failures as an expected
+ * outcome. It is cheap to create: the message is only built on demand, and
+ * there is no stack trace unless {@link #toException()} is called.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class FlowFailure {
+
+	/**
+	 * The kind of failure.
+	 */
+	public static enum Kind {
+
+		/**
+		 * There was no transition out of the state for its event.
+		 */
+		NO_TRANSITION,
+
+		/**
+		 * The state threw an exception.
+		 */
+		STATE_EXCEPTION;
+
+	}
+
+	private final Kind kind;
+
+	private final String flowName;
+
+	private final String stateName;
+
+	private final int stateIndex;
+
+	private final Object event;
+
+	private final Throwable cause;
+
+	/**
+	 * @param kind the kind of failure
+	 * @param flowName the name of the flow
+	 * @param stateName the name of the state that failed
+	 * @param stateIndex the index of the state in the flow (or -1 if the flow
+	 * does not have one)
+	 * @param event the event with no transition (if any)
+	 * @param cause the exception thrown by the state (if any)
+	 */
+	public FlowFailure(Kind kind, String flowName, String stateName, int stateIndex, Object event, Throwable cause) {
+		this.kind = kind;
+		this.flowName = flowName;
+		this.stateName = stateName;
+		this.stateIndex = stateIndex;
+		this.event = event;
+		this.cause = cause;
+	}
+
+	/**
+	 * @return the kind of failure
+	 */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the name of the flow that failed
+	 */
+	public String getFlowName() {
+		return flowName;
+	}
+
+	/**
+	 * @return the name of the state that failed
+	 */
+	public String getStateName() {
+		return stateName;
+	}
+
+	/**
+	 * @return the index of the state that failed in its flow, or -1 if the
+	 * flow does not have one
+	 */
+	public int getStateIndex() {
+		return stateIndex;
+	}
+
+	/**
+	 * @return the event that had no transition, or null if the state threw
+	 * an exception
+	 */
+	public Object getEvent() {
+		return event;
+	}
+
+	/**
+	 * @return the exception thrown by the state, or null if there was none
+	 */
+	public Throwable getCause() {
+		return cause;
+	}
+
+	/**
+	 * @return a message describing the failure, the same as in the
+	 * {@link FlowExecutionException} thrown by a flow that does not return
+	 * failures as results
+	 */
+	public String getMessage() {
+		if (kind == Kind.NO_TRANSITION) {
+			return String.format("Next state not found in flow=%s for step=%s with exit status=%s", flowName,
+					stateName, event);
+		}
+		return String.format("Ended flow=%s at state=%s with exception", flowName, stateName);
+	}
+
+	/**
+	 * Convert this failure into the exception that would have been thrown by
+	 * a flow that does not return failures as results.
+	 * 
+	 * @return an exception
+	 */
+	public FlowExecutionException toException() {
+		return new FlowExecutionException(getMessage(), cause);
+	}
+
+	@Override
+	public String toString() {
+		return "FlowFailure: kind=" + kind + ", state=" + stateName;
+	}
+
+}
@@ -32,6 +32,8 @@ public class FlowResult<T, S> {
 
 	private final boolean complete;
 
+	private final FlowFailure failure;
+
 	/**
 	 * @param memento an identifier for the current state of the flow
 	 * @param event an event that may trigger a change in the flow
@@ -41,6 +43,22 @@ public class FlowResult<T, S> {
 		this.context = context;
 		this.event = event;
 		this.complete = complete;
+		this.failure = null;
+	}
+
+	/**
+	 * Create a result for a failed execution.
+	 * 
+	 * @param memento an identifier for the state of the flow that failed
+	 * @param event the last event (if any)
+	 * @param failure the reason for the failure
+	 */
+	public FlowResult(Object memento, T context, S event, FlowFailure failure) {
+		this.memento = memento;
+		this.context = context;
+		this.event = event;
+		this.complete = false;
+		this.failure = failure;
 	}
 
 	public FlowResult(Object memento, T context, S event) {
@@ -84,8 +102,25 @@ public class FlowResult<T, S> {
 		return complete;
 	}
 
+	/**
+	 * @return true if the flow failed (in which case it is not complete)
+	 */
+	public boolean isFailed() {
+		return failure != null;
+	}
+
+	/**
+	 * @return the reason that the flow failed, or null if it did not
+	 */
+	public FlowFailure getFailure() {
+		return failure;
+	}
+
 	@Override
 	public String toString() {
+		if (failure != null) {
+			return String.format("FlowExecution: name=%s, status=%s, failure=%s", memento, event, failure);
+		}
 		return String.format("FlowExecution: name=%s, status=%s", memento, event);
 	}
 
@@ -0,0 +1,513 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.stream;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.reactivestreams.Processor;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.util.Assert;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+
+import test.flow.AsyncFlow;
+import test.flow.Flow;
+import test.flow.FlowResult;
+
+/**
+ * A reactive streams {@link Processor} that starts a {@link Flow} for each
+ * context it receives and publishes the results. Executions run in a
+ * {@link TaskExecutor} (and if the flow is an {@link AsyncFlow} they only hold
+ * on to a thread until they reach an asynchronous state), with at most
+ * {@link #setConcurrency(int) concurrency} of them at once. Results are
+ * published in the order in which they finish.<br/>
+ * <br/>
+ * 
+ * Contexts are only requested from upstream when there is demand downstream,
+ * but then as many as will fit are requested (so executions can run ahead of a
+ * slow subscriber). The total number of contexts in flight (requested,
+ * waiting, executing, or finished but not yet delivered) never exceeds
+ * {@link #setMaxInFlight(int) maxInFlight}, so a slow subscriber slows down
+ * the source instead of letting results pile up.<br/>
+ * <br/>
+ * 
+ * If {@link #setSeparatePaused(boolean) separatePaused} is set, results that
+ * are not complete (i.e. the flow paused) are published to
+ * {@link #getPaused()} instead of to the subscriber of this processor, e.g. so
+ * that they can be stored and resumed later. Paused results that are not
+ * consumed count as in flight, so the paused output needs a subscriber as
+ * well.<br/>
+ * <br/>
+ * 
+ * Each output accepts a single subscriber. A failed execution (unless the
+ * flow returns failures as results, in which case they are published to the
+ * main output like any other), or an error from upstream, terminates both
+ * outputs with that error and cancels the upstream subscription. Cancelling
+ * the main output cancels upstream as well, whereas cancelling the paused
+ * output just discards paused results from then on.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class FlowProcessor<T, S> implements Processor<T, FlowResult<T, S>> {
+
+	private final Flow<T, S> flow;
+
+	private TaskExecutor taskExecutor = new SyncTaskExecutor();
+
+	private int concurrency = 1;
+
+	private int maxInFlight = 16;
+
+	private boolean separatePaused = false;
+
+	private final Output results = new Output();
+
+	private final Output paused = new Output();
+
+	/**
+	 * Counter for the serialized drain loop (see {@link #drain()}).
+	 */
+	private final AtomicInteger wip = new AtomicInteger();
+
+	// The remaining fields are all guarded by this
+
+	private Subscription upstream;
+
+	private boolean cancelled;
+
+	private long outstanding;
+
+	private final Queue<T> pending = new ArrayDeque<T>();
+
+	private int running;
+
+	private boolean done;
+
+	private Throwable error;
+
+	/**
+	 * @param flow the flow to execute
+	 */
+	public FlowProcessor(Flow<T, S> flow) {
+		this.flow = flow;
+	}
+
+	/**
+	 * The executor for the flow executions. Defaults to a synchronous executor,
+	 * which runs each execution in the thread that pulled the context, so
+	 * executions only overlap if they wait for asynchronous states.
+	 * 
+	 * @param taskExecutor the task executor to set
+	 */
+	public void setTaskExecutor(TaskExecutor taskExecutor) {
+		this.taskExecutor = taskExecutor;
+	}
+
+	/**
+	 * The maximum number of executions that run at the same time. Default 1.
+	 * 
+	 * @param concurrency the concurrency to set
+	 */
+	public synchronized void setConcurrency(int concurrency) {
+		Assert.isTrue(concurrency > 0, "Concurrency must be positive");
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * The maximum number of contexts in flight (requested from upstream but
+	 * not yet delivered as a result). Default 16.
+	 * 
+	 * @param maxInFlight the maximum to set
+	 */
+	public synchronized void setMaxInFlight(int maxInFlight) {
+		Assert.isTrue(maxInFlight > 0, "Maximum in flight must be positive");
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Flag to say that paused results should be published to
+	 * {@link #getPaused()}. Default false, in which case all results go to the
+	 * subscriber of this processor.
+	 * 
+	 * @param separatePaused the flag to set
+	 */
+	public synchronized void setSeparatePaused(boolean separatePaused) {
+		this.separatePaused = separatePaused;
+	}
+
+	/**
+	 * @return a publisher for the paused results if
+	 * {@link #setSeparatePaused(boolean) separatePaused} is set
+	 */
+	public Publisher<FlowResult<T, S>> getPaused() {
+		return paused;
+	}
+
+	/**
+	 * @see Publisher#subscribe(Subscriber)
+	 */
+	public void subscribe(Subscriber<? super FlowResult<T, S>> subscriber) {
+		results.subscribe(subscriber);
+	}
+
+	/**
+	 * @see Subscriber#onSubscribe(Subscription)
+	 */
+	public void onSubscribe(Subscription subscription) {
+		boolean accepted;
+		synchronized (this) {
+			accepted = upstream == null && !cancelled;
+			if (accepted) {
+				upstream = subscription;
+			}
+		}
+		if (!accepted) {
+			subscription.cancel();
+			return;
+		}
+		drain();
+	}
+
+	/**
+	 * @see Subscriber#onNext(Object)
+	 */
+	public void onNext(T context) {
+		synchronized (this) {
+			if (cancelled) {
+				return;
+			}
+			outstanding--;
+			pending.add(context);
+		}
+		drain();
+	}
+
+	/**
+	 * @see Subscriber#onError(Throwable)
+	 */
+	public void onError(Throwable throwable) {
+		fail(throwable, false);
+	}
+
+	/**
+	 * @see Subscriber#onComplete()
+	 */
+	public void onComplete() {
+		synchronized (this) {
+			done = true;
+			outstanding = 0;
+		}
+		drain();
+	}
+
+	private void execute(final T context) {
+		try {
+			taskExecutor.execute(new Runnable() {
+				public void run() {
+					if (flow instanceof AsyncFlow) {
+						// Only holds on to the thread until an asynchronous state is reached
+						((AsyncFlow<T, S>) flow).startAsync(context).addCallback(
+								new ListenableFutureCallback<FlowResult<T, S>>() {
+									public void onSuccess(FlowResult<T, S> result) {
+										complete(result);
+									}
+
+									public void onFailure(Throwable e) {
+										fail(e, true);
+									}
+								});
+						return;
+					}
+					FlowResult<T, S> result;
+					try {
+						result = flow.start(context);
+					}
+					catch (Throwable e) {
+						fail(e, true);
+						return;
+					}
+					complete(result);
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			// e.g. TaskRejectedException
+			fail(e, true);
+		}
+	}
+
+	private void complete(FlowResult<T, S> result) {
+		synchronized (this) {
+			running--;
+			Output output = separatePaused && !result.isComplete() && !result.isFailed() ? paused : results;
+			if (!cancelled && !output.cancelled) {
+				output.buffer.add(result);
+			}
+		}
+		drain();
+	}
+
+	private void fail(Throwable e, boolean execution) {
+		synchronized (this) {
+			if (execution) {
+				running--;
+			}
+			if (error == null) {
+				error = e;
+			}
+			if (!execution) {
+				done = true;
+				outstanding = 0;
+			}
+		}
+		drain();
+	}
+
+	/**
+	 * Make progress with whatever can be done (deliver results, start
+	 * executions, request more contexts, signal termination). Only one thread
+	 * at a time runs the loop, and a call from another thread while it is
+	 * running makes it go round again, so signals to subscribers are never
+	 * concurrent.
+	 */
+	private void drain() {
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+		int missed = 1;
+		do {
+			// Delivering results frees up room for more, so go round again
+			while (drainOnce()) {
+			}
+			missed = wip.addAndGet(-missed);
+		}
+		while (missed != 0);
+	}
+
+	/**
+	 * @return true if any results were delivered
+	 */
+	private boolean drainOnce() {
+
+		List<T> starts = new ArrayList<T>();
+		List<FlowResult<T, S>> resultsToSend = new ArrayList<FlowResult<T, S>>();
+		List<FlowResult<T, S>> pausedToSend = new ArrayList<FlowResult<T, S>>();
+		Subscription subscription;
+		long request = 0;
+		boolean cancel = false;
+		boolean terminate = false;
+		Throwable failure;
+
+		synchronized (this) {
+
+			subscription = upstream;
+
+			if (results.cancelled && !cancelled) {
+				cancelled = true;
+				cancel = true;
+			}
+			if (results.failure != null && error == null) {
+				error = results.failure;
+			}
+			if (paused.failure != null && error == null) {
+				error = paused.failure;
+			}
+			failure = error;
+
+			if (failure != null || cancelled) {
+				if (!cancelled) {
+					cancelled = true;
+					cancel = true;
+				}
+				pending.clear();
+				results.buffer.clear();
+				paused.buffer.clear();
+				// Outputs that are still subscribed get a terminal signal
+				terminate = true;
+			}
+			else {
+
+				results.poll(resultsToSend);
+				paused.poll(pausedToSend);
+
+				while (running < concurrency && !pending.isEmpty()) {
+					running++;
+					starts.add(pending.poll());
+				}
+
+				long inProgress = outstanding + pending.size() + running;
+				if (subscription != null && !done) {
+					// Results about to be sent are still in flight
+					long free = maxInFlight - inProgress - results.buffer.size() - paused.buffer.size()
+							- resultsToSend.size() - pausedToSend.size();
+					boolean demand = results.demand > 0 || separatePaused && paused.demand > 0;
+					request = demand ? free : 0;
+					if (request > 0) {
+						outstanding += request;
+					}
+				}
+
+				terminate = done && inProgress == 0 && results.buffer.isEmpty() && paused.buffer.isEmpty();
+
+			}
+
+		}
+
+		if (cancel && subscription != null) {
+			subscription.cancel();
+		}
+		if (request > 0) {
+			subscription.request(request);
+		}
+		for (T context : starts) {
+			execute(context);
+		}
+		results.send(resultsToSend);
+		paused.send(pausedToSend);
+		if (terminate) {
+			results.terminate(failure);
+			paused.terminate(failure);
+		}
+
+		return !resultsToSend.isEmpty() || !pausedToSend.isEmpty();
+
+	}
+
+	/**
+	 * One of the outputs of the processor. Only ever signals its subscriber
+	 * from the drain loop.
+	 */
+	private class Output implements Publisher<FlowResult<T, S>> {
+
+		// All fields guarded by the processor
+
+		private boolean subscribed;
+
+		private Subscriber<? super FlowResult<T, S>> subscriber;
+
+		private final Queue<FlowResult<T, S>> buffer = new ArrayDeque<FlowResult<T, S>>();
+
+		private long demand;
+
+		private boolean cancelled;
+
+		private Throwable failure;
+
+		private boolean terminated;
+
+		public void subscribe(final Subscriber<? super FlowResult<T, S>> subscriber) {
+
+			boolean accepted;
+			synchronized (FlowProcessor.this) {
+				accepted = !subscribed;
+				subscribed = true;
+			}
+
+			if (!accepted) {
+				// A refused subscriber must not touch the state of the accepted one
+				subscriber.onSubscribe(new Subscription() {
+
+					public void request(long n) {
+					}
+
+					public void cancel() {
+					}
+
+				});
+				subscriber.onError(new IllegalStateException("Only one subscriber is allowed"));
+				return;
+			}
+
+			subscriber.onSubscribe(new Subscription() {
+
+				public void request(long n) {
+					synchronized (FlowProcessor.this) {
+						if (n <= 0) {
+							failure = new IllegalArgumentException("Request must be positive (rule 3.9): " + n);
+						}
+						else {
+							demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+						}
+					}
+					drain();
+				}
+
+				public void cancel() {
+					synchronized (FlowProcessor.this) {
+						cancelled = true;
+						buffer.clear();
+					}
+					drain();
+				}
+
+			});
+
+			synchronized (FlowProcessor.this) {
+				this.subscriber = subscriber;
+			}
+			drain();
+
+		}
+
+		/**
+		 * Take as many buffered results as there is demand for.
+		 */
+		private void poll(List<FlowResult<T, S>> items) {
+			if (subscriber == null || cancelled) {
+				return;
+			}
+			while (demand > 0 && !buffer.isEmpty()) {
+				items.add(buffer.poll());
+				if (demand != Long.MAX_VALUE) {
+					demand--;
+				}
+			}
+		}
+
+		private void send(List<FlowResult<T, S>> items) {
+			for (FlowResult<T, S> item : items) {
+				subscriber.onNext(item);
+			}
+		}
+
+		private void terminate(Throwable failure) {
+			Subscriber<? super FlowResult<T, S>> subscriber;
+			synchronized (FlowProcessor.this) {
+				if (this.subscriber == null || cancelled || terminated) {
+					return;
+				}
+				terminated = true;
+				subscriber = this.subscriber;
+			}
+			if (failure != null) {
+				subscriber.onError(failure);
+			}
+			else {
+				subscriber.onComplete();
+			}
+		}
+
+	}
+
+}
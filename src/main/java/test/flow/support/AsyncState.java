@@ -0,0 +1,50 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support;
+
+import org.springframework.util.concurrent.ListenableFuture;
+
+import test.flow.AsyncFlow;
+
+/**
+ * A {@link State} that can signal its outcome asynchronously, so that an
+ * {@link AsyncFlow} does not need to hold on to a thread while it waits. It is
+ * still a {@link State}, so it can be used in any flow, but then
+ * {@link #handle(Object)} is expected to wait for the outcome.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public interface AsyncState<T, S> extends State<T, S> {
+
+	/**
+	 * Start handling the business or processing logic and return without
+	 * waiting for it to finish. Implementations should not block. An
+	 * exception can be thrown directly or signalled through the future, with
+	 * the same effect.
+	 * 
+	 * @param context the context passed in by the caller, encapsulating
+	 * business state.
+	 * 
+	 * @return a future for the status of the flow execution
+	 * 
+	 * @throws Exception if anything goes wrong
+	 * 
+	 * @see State#handle(Object)
+	 */
+	ListenableFuture<S> handleAsync(T context) throws Exception;
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import test.flow.FlowExecutionException;
+import test.flow.FlowResult;
+
+/**
+ * Delivers one event to a large number of paused executions of a
+ * {@link CompiledFlow}, e.g. to close all the issues that have been resolved
+ * for a week. The executions are pulled from an iterator in chunks, and the
+ * executions in a chunk that are paused in the same state are resumed
+ * together with
+ * {@link CompiledFlow#resumeAll(Object, Iterator, Object, FlowResultCallback)},
+ * so the transition is resolved once per group. Up to
+ * {@link #setParallelism(int) parallelism} chunks are processed at once, and
+ * no more are pulled from the iterator until one of them is finished, so the
+ * memory used does not depend on the number of executions. The results are
+ * passed to a callback as they are ready, which has to be thread safe if the
+ * parallelism is more than one.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class BulkResumer<T, S> {
+
+	private final CompiledFlow<T, S> flow;
+
+	private TaskExecutor taskExecutor = new SyncTaskExecutor();
+
+	private int parallelism = 1;
+
+	private int chunkSize = 1000;
+
+	/**
+	 * @param flow the flow to resume
+	 */
+	public BulkResumer(CompiledFlow<T, S> flow) {
+		this.flow = flow;
+	}
+
+	/**
+	 * The task executor for processing chunks. Default is synchronous (in the
+	 * calling thread). If the task executor rejects a chunk it is processed in
+	 * the calling thread.
+	 * 
+	 * @param taskExecutor the task executor to set
+	 */
+	public void setTaskExecutor(TaskExecutor taskExecutor) {
+		this.taskExecutor = taskExecutor;
+	}
+
+	/**
+	 * The maximum number of chunks to process at once. Default 1.
+	 * 
+	 * @param parallelism the parallelism to set
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * The number of executions in a chunk. Default 1000.
+	 * 
+	 * @param chunkSize the chunk size to set
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Resume executions that are all paused in the same state.
+	 * 
+	 * @param memento a memento of the state of the flow when they paused
+	 * @param contexts the business contexts to resume
+	 * @param event the event that triggered this operation
+	 * @param callback a callback for the results
+	 * @return the number of executions resumed
+	 * @throws FlowExecutionException if the memento is not from this flow
+	 */
+	public int resume(Object memento, Iterator<? extends T> contexts, S event, FlowResultCallback<T, S> callback)
+			throws FlowExecutionException {
+		Execution execution = new Execution(event, callback);
+		while (contexts.hasNext() && execution.isRunning()) {
+			List<T> chunk = new ArrayList<T>(chunkSize);
+			while (contexts.hasNext() && chunk.size() < chunkSize) {
+				chunk.add(contexts.next());
+			}
+			execution.submit(Collections.singletonMap(memento, chunk));
+		}
+		return execution.await();
+	}
+
+	/**
+	 * Resume executions that are paused in any state. Each execution is
+	 * represented by the result from when it paused (the memento and the
+	 * context are used, and the event is replaced by the one provided).
+	 * 
+	 * @param executions the results of the executions when they paused
+	 * @param event the event that triggered this operation
+	 * @param callback a callback for the results
+	 * @return the number of executions resumed
+	 * @throws FlowExecutionException if one of the mementos is not from this
+	 * flow
+	 */
+	public int resume(Iterator<? extends FlowResult<T, S>> executions, S event, FlowResultCallback<T, S> callback)
+			throws FlowExecutionException {
+		Execution execution = new Execution(event, callback);
+		while (executions.hasNext() && execution.isRunning()) {
+			Map<Object, List<T>> groups = new LinkedHashMap<Object, List<T>>();
+			for (int i = 0; i < chunkSize && executions.hasNext(); i++) {
+				FlowResult<T, S> paused = executions.next();
+				List<T> group = groups.get(paused.getMemento());
+				if (group == null) {
+					group = new ArrayList<T>();
+					groups.put(paused.getMemento(), group);
+				}
+				group.add(paused.getContext());
+			}
+			execution.submit(groups);
+		}
+		return execution.await();
+	}
+
+	/**
+	 * The state of one call to resume: the chunks in flight and the first
+	 * error (after which no more chunks are submitted).
+	 */
+	private class Execution {
+
+		private final S event;
+
+		private final FlowResultCallback<T, S> callback;
+
+		private final Semaphore permits = new Semaphore(parallelism);
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		private volatile Throwable error;
+
+		public Execution(S event, FlowResultCallback<T, S> callback) {
+			this.event = event;
+			this.callback = callback;
+		}
+
+		public boolean isRunning() {
+			return error == null;
+		}
+
+		public void submit(final Map<Object, List<T>> groups) throws FlowExecutionException {
+			acquire(1);
+			Runnable task = new Runnable() {
+				public void run() {
+					try {
+						for (Map.Entry<Object, List<T>> group : groups.entrySet()) {
+							count.addAndGet(flow.resumeAll(group.getKey(), group.getValue().iterator(), event,
+									callback));
+						}
+					}
+					catch (Throwable e) {
+						if (error == null) {
+							error = e;
+						}
+					}
+					finally {
+						permits.release();
+					}
+				}
+			};
+			try {
+				taskExecutor.execute(task);
+			}
+			catch (TaskRejectedException e) {
+				task.run();
+			}
+		}
+
+		public int await() throws FlowExecutionException {
+			acquire(parallelism);
+			permits.release(parallelism);
+			Throwable error = this.error;
+			if (error instanceof FlowExecutionException) {
+				throw (FlowExecutionException) error;
+			}
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			}
+			if (error instanceof Error) {
+				throw (Error) error;
+			}
+			return count.get();
+		}
+
+		private void acquire(int permits) throws FlowExecutionException {
+			try {
+				this.permits.acquire(permits);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new FlowExecutionException("Interrupted while resuming executions", e);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,960 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import test.flow.AsyncFlow;
+import test.flow.Flow;
+import test.flow.FlowExecutionException;
+import test.flow.FlowFailure;
+import test.flow.FlowFailure.Kind;
+import test.flow.FlowResult;
+import test.flow.support.match.EqualsMatcher;
+import test.flow.support.match.Matcher;
+import test.flow.support.match.PatternAutomaton;
+import test.flow.support.match.PatternMatcher;
+
+/**
+ * A {@link Flow} compiled from the transitions of a {@link SimpleFlow} into an
+ * integer-indexed graph. Each state is assigned a dense id and the transitions
+ * out of each state are stored in flat arrays (an offsets array indexed by
+ * state id, plus parallel matcher and target arrays), in the order of
+ * precedence defined by {@link Transition#compareTo(Transition)}. Execution
+ * steps from state to state by index, with no map lookups and no iterators.
+ * The semantics are the same as the {@link SimpleFlow} it was compiled from,
+ * including mementos, which are state names by default, or compact
+ * {@link Long} values if {@link #isCompactMementos() compactMementos} is set
+ * (either kind can be used to resume).<br/>
+ * <br/>
+ * 
+ * Exact-match transitions (plain {@link EqualsMatcher} instances) out of a
+ * state are also indexed in a hash table from template to position (an
+ * {@link EnumMap} if the templates are all from the same enum), so selecting
+ * among them is a single lookup. The remaining matchers are only scanned up to
+ * the position of the exact match, which preserves the precedence of
+ * {@link Transition#compareTo(Transition)}. In the same way, glob patterns
+ * (plain {@link PatternMatcher} instances) out of a state are compiled into a
+ * single {@link PatternAutomaton}, so an event is matched against all of them
+ * in one pass over its characters.<br/>
+ * <br/>
+ * 
+ * Instances are immutable: the whole structure is built in the constructor and
+ * held in final fields, so a compiled flow is safely published to other
+ * threads however it is shared, and can be executed concurrently (as long as
+ * the states themselves are thread safe).<br/>
+ * <br/>
+ * 
+ * A compiled flow can also be executed asynchronously (see {@link AsyncFlow}).
+ * Ordinary states are handled in the calling thread, but when an
+ * {@link AsyncState} returns an outcome that is not ready yet, execution
+ * carries on in whichever thread completes it.
+ *
+ * @author Dave Syer
+ *
+ * @see SimpleFlow#compile()
+ */
+public class CompiledFlow<T, S> implements AsyncFlow<T, S>, MementoStateLocator<T, S> {
+
+	/**
+	 * Target index signalling the end of the flow.
+	 */
+	private static final int END = -1;
+
+	/**
+	 * Target index signalling that no transition matched.
+	 */
+	private static final int NONE = -2;
+
+	/**
+	 * The number of exact-match transitions out of a state needed before they
+	 * are indexed (a hash lookup on fewer than this is slower than a scan).
+	 */
+	private static final int MIN_EXACT_MATCHES = 2;
+
+	/**
+	 * The number of glob patterns out of a state needed before they are
+	 * compiled into an automaton.
+	 */
+	private static final int MIN_PATTERNS = 2;
+
+	private final String name;
+
+	private final boolean compactMementos;
+
+	private final boolean failureResults;
+
+	/**
+	 * Hash of the structure of the flow, part of a compact memento.
+	 */
+	private final int version;
+
+	private final int start;
+
+	private final State<T, S>[] states;
+
+	private final String[] names;
+
+	private final Map<String, Integer> index;
+
+	private final int[] offsets;
+
+	private final Matcher<S>[] matchers;
+
+	private final int[] targets;
+
+	/**
+	 * The triggers by state name, worked out by the flow that was compiled.
+	 */
+	private final Map<String, Collection<String>> triggers;
+
+	/**
+	 * Flags for positions that are dispatched through {@link #exact} and so do
+	 * not need to be scanned.
+	 */
+	private final boolean[] indexed;
+
+	/**
+	 * Per state: a map from exact-match template to the position of its first
+	 * transition, or null if there are not enough exact matches to be worth
+	 * it.
+	 */
+	private final Map<Object, Integer>[] exact;
+
+	/**
+	 * Per state: an automaton for the glob patterns, or null if there are not
+	 * enough of them to be worth it.
+	 */
+	private final PatternAutomaton[] automata;
+
+	/**
+	 * Per state: the positions of the patterns in the automaton.
+	 */
+	private final int[][] patterns;
+
+	/**
+	 * Create a compiled flow from the analysed transitions of a flow.
+	 *
+	 * @param name the name of the flow
+	 * @param startState the state to start in
+	 * @param stateMap the states by name
+	 * @param transitionMap the transitions by originating state name, in order
+	 * of precedence
+	 * @param triggers the triggers by originating state name, with wildcards
+	 * already replaced (see {@link SimpleFlow#getTriggers(String)})
+	 * @param compactMementos true if the mementos should be compact (see
+	 * {@link #isCompactMementos()})
+	 * @param failureResults true if failures should be returned as results
+	 * (see {@link #isFailureResults()})
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	CompiledFlow(String name, State<T, S> startState, Map<String, State<T, S>> stateMap,
+			Map<String, SortedSet<Transition<T, S>>> transitionMap, Map<String, Collection<String>> triggers,
+			boolean compactMementos, boolean failureResults) {
+
+		this.name = name;
+		this.triggers = triggers;
+		this.compactMementos = compactMementos;
+		this.failureResults = failureResults;
+
+		// Ids in order of name, so they are the same every time the flow is built
+		int count = stateMap.size();
+		states = new State[count];
+		names = new String[count];
+		Map<String, Integer> index = new HashMap<String, Integer>();
+		int id = 0;
+		for (String stateName : new TreeSet<String>(stateMap.keySet())) {
+			State<T, S> state = stateMap.get(stateName);
+			states[id] = state;
+			names[id] = state.getName();
+			index.put(state.getName(), id);
+			id++;
+		}
+		this.index = index;
+		start = index.get(startState.getName());
+
+		int size = 0;
+		for (SortedSet<Transition<T, S>> set : transitionMap.values()) {
+			size += set.size();
+		}
+		offsets = new int[count + 1];
+		matchers = new Matcher[size];
+		targets = new int[size];
+
+		int position = 0;
+		for (id = 0; id < count; id++) {
+			offsets[id] = position;
+			SortedSet<Transition<T, S>> set = transitionMap.get(names[id]);
+			if (set == null) {
+				continue;
+			}
+			for (Transition<T, S> transition : set) {
+				matchers[position] = transition.getMatcher();
+				targets[position] = transition.isEnd() ? END : index.get(transition.getNext());
+				position++;
+			}
+		}
+		offsets[count] = position;
+
+		version = computeVersion();
+
+		indexed = new boolean[size];
+		exact = new Map[count];
+		automata = new PatternAutomaton[count];
+		patterns = new int[count][];
+		for (id = 0; id < count; id++) {
+			exact[id] = createExactMatchTable(offsets[id], offsets[id + 1]);
+			createPatternAutomaton(id);
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see test.flow.Flow#getName()
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @see Flow#start(Object)
+	 */
+	public FlowResult<T, S> start(T context) throws FlowExecutionException {
+		return handle(start, context);
+	}
+
+	/**
+	 * @see Flow#resume(Object, Object, Object)
+	 */
+	public FlowResult<T, S> resume(Object memento, T context, S event) throws FlowExecutionException {
+
+		int current = indexOf(memento);
+
+		int next = nextState(current, event);
+		if (next == NONE) {
+			return fail(current, context, event, null);
+		}
+		if (next == END) {
+			// There is no next state so return unmodified (but converting the
+			// memento to the form used by this flow)
+			return new FlowResult<T, S>(getMemento(current), context, event);
+		}
+
+		return handle(next, context);
+
+	}
+
+	/**
+	 * Flag to say that the mementos in results from this flow are compact: a
+	 * {@link Long} with a hash of the structure of the flow in the high 32 bits
+	 * and the index of the state in the low 32 bits. Otherwise (the default)
+	 * they are state names, as for {@link SimpleFlow}. Either kind of memento
+	 * can be used to resume, but a compact memento only from a flow with the
+	 * same structure (states and transitions) as the one that created it.
+	 * 
+	 * @return true if the mementos are compact
+	 */
+	public boolean isCompactMementos() {
+		return compactMementos;
+	}
+
+	/**
+	 * Flag to say that the flow signals an expected failure (no transition
+	 * for an event, or an exception in a state) by returning a
+	 * {@link FlowResult} that {@link FlowResult#isFailed() failed}, instead of
+	 * throwing a {@link FlowExecutionException}. This is much cheaper if
+	 * failures are common, since the failure has no stack trace and its
+	 * message is only created if it is needed. A memento that does not
+	 * identify a state of this flow is still an exception. Default false.
+	 * 
+	 * @return true if failures are returned as results
+	 */
+	public boolean isFailureResults() {
+		return failureResults;
+	}
+
+	/**
+	 * @see AsyncFlow#startAsync(Object)
+	 */
+	public ListenableFuture<FlowResult<T, S>> startAsync(T context) {
+		SettableListenableFuture<FlowResult<T, S>> result = new SettableListenableFuture<FlowResult<T, S>>();
+		handleAsync(start, context, result);
+		return result;
+	}
+
+	/**
+	 * @see AsyncFlow#resumeAsync(Object, Object, Object)
+	 */
+	public ListenableFuture<FlowResult<T, S>> resumeAsync(Object memento, T context, S event) {
+
+		SettableListenableFuture<FlowResult<T, S>> result = new SettableListenableFuture<FlowResult<T, S>>();
+
+		int current;
+		try {
+			current = indexOf(memento);
+		}
+		catch (FlowExecutionException e) {
+			result.setException(e);
+			return result;
+		}
+		int next = nextState(current, event);
+		if (next == NONE) {
+			fail(current, context, event, null, result);
+			return result;
+		}
+		if (next == END) {
+			// There is no next state so return unmodified
+			result.set(new FlowResult<T, S>(getMemento(current), context, event));
+			return result;
+		}
+
+		handleAsync(next, context, result);
+		return result;
+
+	}
+
+	/**
+	 * Resume a batch of executions that are paused in the same state, with
+	 * the same event, and with the same results as calling
+	 * {@link #resume(Object, Object, Object)} for each context in turn. The
+	 * state and the transition out of it are only resolved once for the whole
+	 * batch. The contexts are pulled from the iterator one at a time and each
+	 * result is passed to the callback before the next context is handled. An
+	 * exception in one of the executions does not affect the others.
+	 *
+	 * @param memento a memento of the state of the flow when they paused
+	 * @param contexts the business contexts to resume
+	 * @param event the event that triggered this operation
+	 * @param callback a callback for the results
+	 * @return the number of executions resumed
+	 * @throws FlowExecutionException if the memento is not from this flow
+	 */
+	public int resumeAll(Object memento, Iterator<? extends T> contexts, S event, FlowResultCallback<T, S> callback)
+			throws FlowExecutionException {
+
+		int current = indexOf(memento);
+		int next = nextState(current, event);
+		Object unchanged = getMemento(current);
+
+		int count = 0;
+		while (contexts.hasNext()) {
+			T context = contexts.next();
+			count++;
+			FlowResult<T, S> result;
+			try {
+				if (next == NONE) {
+					result = fail(current, context, event, null);
+				}
+				else if (next == END) {
+					// There is no next state so return unmodified
+					result = new FlowResult<T, S>(unchanged, context, event);
+				}
+				else {
+					result = handle(next, context);
+				}
+			}
+			catch (FlowExecutionException e) {
+				callback.onFailure(context, e);
+				continue;
+			}
+			callback.onResult(result);
+		}
+		return count;
+
+	}
+
+	/**
+	 * Start a batch of executions, with the same results as calling
+	 * {@link #start(Object)} for each context in turn, but with the states
+	 * executed "state-major": all the contexts that are in the same state are
+	 * handled together, before any of them moves on. Executions drop out of the
+	 * batch when they pause, end or fail, and an exception in one of them does
+	 * not affect the others. The states are called in a different order than
+	 * for sequential execution, so they should not depend on one context being
+	 * finished before the next starts.
+	 *
+	 * @param contexts the business contexts to execute
+	 * @return the results, in the same order as the contexts
+	 */
+	public FlowResults<T, S> startAll(List<T> contexts) {
+
+		if (!(contexts instanceof RandomAccess)) {
+			// The contexts are accessed by index (e.g. not cheap for a LinkedList)
+			contexts = new ArrayList<T>(contexts);
+		}
+
+		int size = contexts.size();
+		int[] current = new int[size];
+		Object[] events = new Object[size];
+		boolean[] complete = new boolean[size];
+		FlowExecutionException[] errors = new FlowExecutionException[size];
+		FlowFailure[] failures = new FlowFailure[failureResults ? size : 0];
+
+		// Executions waiting in each state: a linked list through the links array
+		int[] heads = new int[states.length];
+		int[] links = new int[size];
+		Arrays.fill(heads, END);
+
+		// States with executions waiting, in the order that they were reached
+		int[] queue = new int[states.length + 1];
+		boolean[] queued = new boolean[states.length];
+		int first = 0;
+		int last = 0;
+
+		for (int i = size - 1; i >= 0; i--) {
+			current[i] = start;
+			links[i] = heads[start];
+			heads[start] = i;
+		}
+		if (size > 0) {
+			queue[last++] = start;
+			queued[start] = true;
+		}
+
+		while (first != last) {
+
+			int id = queue[first];
+			first = (first + 1) % queue.length;
+			queued[id] = false;
+
+			State<T, S> state = states[id];
+			int i = heads[id];
+			heads[id] = END;
+
+			while (i != END) {
+
+				int link = links[i];
+
+				S event;
+				try {
+					event = state.handle(contexts.get(i));
+				}
+				catch (Exception e) {
+					FlowFailure failure = failure(id, null, e);
+					if (failureResults) {
+						failures[i] = failure;
+					}
+					else {
+						errors[i] = failure.toException();
+					}
+					i = link;
+					continue;
+				}
+				events[i] = event;
+
+				if (!state.isPause()) {
+					int next = nextState(id, event);
+					if (next == NONE) {
+						FlowFailure failure = failure(id, event, null);
+						if (failureResults) {
+							failures[i] = failure;
+						}
+						else {
+							errors[i] = failure.toException();
+						}
+					}
+					else if (next == END) {
+						complete[i] = true;
+					}
+					else {
+						current[i] = next;
+						links[i] = heads[next];
+						heads[next] = i;
+						if (!queued[next]) {
+							queue[last] = next;
+							last = (last + 1) % queue.length;
+							queued[next] = true;
+						}
+					}
+				}
+
+				i = link;
+
+			}
+
+		}
+
+		return new FlowResults<T, S>(this, contexts, current, events, complete, errors, failures);
+
+	}
+
+	/**
+	 * An unmodifiable copy of the names of states in this flow.
+	 *
+	 * @see StateLocator#getStateNames()
+	 */
+	public Collection<String> getStateNames() {
+		Collection<String> values = new HashSet<String>();
+		Collections.addAll(values, names);
+		return Collections.unmodifiableCollection(values);
+	}
+
+	/**
+	 * Get the state with the given name if it exists, otherwise null.
+	 *
+	 * @see StateLocator#getState(String)
+	 */
+	public State<T, S> getState(String stateName) {
+		Integer id = index.get(stateName);
+		return id == null ? null : states[id];
+	}
+
+	/**
+	 * @see StateLocator#getTriggers(String)
+	 * @see SimpleFlow#getTriggers(String)
+	 */
+	public Collection<String> getTriggers(String stateName) throws FlowDefinitionException {
+
+		Integer id = index.get(stateName);
+
+		if (id == null || offsets[id] == offsets[id + 1]) {
+			throw new FlowDefinitionException(String.format("No transitions found in flow=%s for state=%s",
+					getName(), stateName));
+		}
+
+		return new HashSet<String>(triggers.get(stateName));
+
+	}
+
+	/**
+	 * @see MementoStateLocator#getStateName(Object)
+	 */
+	public String getStateName(Object memento) throws FlowDefinitionException {
+		try {
+			return names[indexOf(memento)];
+		}
+		catch (FlowExecutionException e) {
+			throw new FlowDefinitionException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Index the exact-match transitions in the range provided, marking them as
+	 * {@link #indexed} if a table is created.
+	 * 
+	 * @param from the first position (inclusive)
+	 * @param to the last position (exclusive)
+	 * @return a map from template to position, or null if there are fewer than
+	 * {@link #MIN_EXACT_MATCHES} exact matches
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Map<Object, Integer> createExactMatchTable(int from, int to) {
+
+		Class<?> enumType = null;
+		int count = 0;
+		for (int i = from; i < to; i++) {
+			Object template = getExactTemplate(matchers[i]);
+			if (template == null) {
+				continue;
+			}
+			Class<?> type = template instanceof Enum ? ((Enum<?>) template).getDeclaringClass() : null;
+			enumType = count == 0 || enumType == type ? type : null;
+			count++;
+		}
+
+		if (count < MIN_EXACT_MATCHES) {
+			return null;
+		}
+
+		Map<Object, Integer> table = enumType != null ? new EnumMap(enumType) : new HashMap<Object, Integer>();
+		for (int i = from; i < to; i++) {
+			Object template = getExactTemplate(matchers[i]);
+			if (template == null) {
+				continue;
+			}
+			// Only the first in order of precedence can ever be selected
+			if (!table.containsKey(template)) {
+				table.put(template, i);
+			}
+			indexed[i] = true;
+		}
+		return table;
+
+	}
+
+	/**
+	 * Compile the glob patterns out of the state with the given id into an
+	 * automaton, marking them as {@link #indexed} if successful.
+	 * 
+	 * @param id the id of the state
+	 */
+	private void createPatternAutomaton(int id) {
+
+		List<PatternMatcher> globs = new ArrayList<PatternMatcher>();
+		List<Integer> positions = new ArrayList<Integer>();
+		for (int i = offsets[id]; i < offsets[id + 1]; i++) {
+			if (matchers[i].getClass() == PatternMatcher.class && ((PatternMatcher) matchers[i]).isGlob()) {
+				globs.add((PatternMatcher) matchers[i]);
+				positions.add(i);
+			}
+		}
+
+		if (globs.size() < MIN_PATTERNS) {
+			return;
+		}
+
+		PatternAutomaton automaton = PatternAutomaton.create(globs);
+		if (automaton == null) {
+			// Too complicated: fall back to matching one at a time
+			return;
+		}
+
+		automata[id] = automaton;
+		patterns[id] = new int[positions.size()];
+		for (int k = 0; k < patterns[id].length; k++) {
+			patterns[id][k] = positions.get(k);
+			indexed[positions.get(k)] = true;
+		}
+
+	}
+
+	/**
+	 * @param id the index of a state
+	 * @return the memento for a result in that state
+	 */
+	Object getMemento(int id) {
+		if (compactMementos) {
+			return ((long) version << 32) | id;
+		}
+		return names[id];
+	}
+
+	/**
+	 * Locate the state for a memento, which is either compact, or (for
+	 * compatibility) a state name.
+	 * 
+	 * @param memento a memento from a previous result
+	 * @return the index of the state
+	 * @throws FlowExecutionException if there is no such state
+	 */
+	private int indexOf(Object memento) throws FlowExecutionException {
+		if (memento instanceof Long) {
+			long value = (Long) memento;
+			int id = (int) value;
+			if ((int) (value >>> 32) != version || id < 0 || id >= states.length) {
+				throw new FlowExecutionException(String.format("Memento is not from this version of flow=%s: [%s]",
+						name, memento));
+			}
+			return id;
+		}
+		Integer id = index.get(memento);
+		if (id == null) {
+			throw new FlowExecutionException("No state with that name: [" + memento + "]");
+		}
+		return id;
+	}
+
+	/**
+	 * A hash of the name of the flow, the state names and the transitions, so
+	 * that a compact memento from a different flow is unlikely to be
+	 * accepted. Only uses string hash codes, so it is the same in every JVM.
+	 */
+	private int computeVersion() {
+		int hash = name == null ? 0 : name.hashCode();
+		for (int id = 0; id < states.length; id++) {
+			hash = 31 * hash + names[id].hashCode();
+			for (int i = offsets[id]; i < offsets[id + 1]; i++) {
+				hash = 31 * hash + String.valueOf(matchers[i]).hashCode();
+				hash = 31 * hash + targets[i];
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * @param matcher a matcher
+	 * @return the template if the matcher is a plain {@link EqualsMatcher} (not
+	 * a subclass, which might override the equality test), otherwise null
+	 */
+	private static Object getExactTemplate(Matcher<?> matcher) {
+		if (matcher.getClass() == EqualsMatcher.class) {
+			return ((EqualsMatcher<?>) matcher).getTemplate();
+		}
+		return null;
+	}
+
+	/**
+	 * Execute states starting at the one provided until the flow pauses or
+	 * ends.
+	 *
+	 * @param current the index of the state to start in
+	 * @param context the business context
+	 * @return a token for the execution when it pauses or ends
+	 * @throws FlowExecutionException
+	 */
+	private FlowResult<T, S> handle(int current, T context) throws FlowExecutionException {
+
+		S event = null;
+		boolean pause = false;
+
+		while (true) {
+
+			State<T, S> state = states[current];
+
+			try {
+				event = state.handle(context);
+			}
+			catch (Exception e) {
+				return fail(current, context, null, e);
+			}
+
+			pause = state.isPause();
+			if (pause) {
+				break;
+			}
+
+			int next = nextState(current, event);
+			if (next == NONE) {
+				return fail(current, context, event, null);
+			}
+			if (next == END) {
+				break;
+			}
+			current = next;
+
+		}
+
+		// If we are not paused then we must be complete.
+		return new FlowResult<T, S>(getMemento(current), context, event, !pause);
+
+	}
+
+	/**
+	 * Execute states starting at the one provided until the flow pauses or
+	 * ends, or an {@link AsyncState} returns an outcome that is not ready yet,
+	 * in which case execution carries on in a callback.
+	 *
+	 * @param current the index of the state to start in
+	 * @param context the business context
+	 * @param result the result to set when the flow pauses or ends
+	 */
+	private void handleAsync(int current, T context, SettableListenableFuture<FlowResult<T, S>> result) {
+
+		while (current != END) {
+
+			State<T, S> state = states[current];
+
+			S event;
+			try {
+				if (state instanceof AsyncState) {
+					ListenableFuture<S> future = ((AsyncState<T, S>) state).handleAsync(context);
+					if (!future.isDone()) {
+						future.addCallback(new Continuation(current, context, result));
+						return;
+					}
+					event = getNow(future);
+				}
+				else {
+					event = state.handle(context);
+				}
+			}
+			catch (Exception e) {
+				fail(current, context, null, e, result);
+				return;
+			}
+
+			current = proceed(current, context, event, result);
+
+		}
+
+	}
+
+	/**
+	 * Move on from a state that has been handled, setting the result if the
+	 * flow pauses, ends or fails.
+	 *
+	 * @return the index of the next state, or {@link #END} if the result was
+	 * set
+	 */
+	private int proceed(int current, T context, S event, SettableListenableFuture<FlowResult<T, S>> result) {
+
+		boolean pause = states[current].isPause();
+		int next = END;
+		if (!pause) {
+			next = nextState(current, event);
+			if (next == NONE) {
+				fail(current, context, event, null, result);
+				return END;
+			}
+		}
+
+		if (next == END) {
+			// If we are not paused then we must be complete.
+			result.set(new FlowResult<T, S>(getMemento(current), context, event, !pause));
+		}
+		return next;
+
+	}
+
+	/**
+	 * @param future a future that is done
+	 * @return its value
+	 * @throws Exception the cause of the failure if the future failed
+	 */
+	private static <S> S getNow(Future<S> future) throws Exception {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Callback to carry on with an asynchronous execution when an
+	 * {@link AsyncState} completes.
+	 */
+	private class Continuation implements ListenableFutureCallback<S> {
+
+		private final int current;
+
+		private final T context;
+
+		private final SettableListenableFuture<FlowResult<T, S>> result;
+
+		public Continuation(int current, T context, SettableListenableFuture<FlowResult<T, S>> result) {
+			this.current = current;
+			this.context = context;
+			this.result = result;
+		}
+
+		public void onSuccess(S event) {
+			int next = proceed(current, context, event, result);
+			if (next != END) {
+				handleAsync(next, context, result);
+			}
+		}
+
+		public void onFailure(Throwable e) {
+			fail(current, context, null, e, result);
+		}
+
+	}
+
+	/**
+	 * Signal a failure, either as a result or by throwing an exception,
+	 * depending on {@link #isFailureResults()}.
+	 *
+	 * @param current the index of the state that failed
+	 * @param context the business context
+	 * @param event the event with no transition (if any)
+	 * @param cause the exception thrown by the state, or null if there was no
+	 * transition for the event
+	 * @return a failed result
+	 * @throws FlowExecutionException if failures are not results
+	 */
+	private FlowResult<T, S> fail(int current, T context, S event, Throwable cause) throws FlowExecutionException {
+		FlowFailure failure = failure(current, event, cause);
+		if (!failureResults) {
+			throw failure.toException();
+		}
+		return new FlowResult<T, S>(getMemento(current), context, event, failure);
+	}
+
+	/**
+	 * Signal a failure in an asynchronous execution.
+	 *
+	 * @see #fail(int, Object, Object, Throwable)
+	 */
+	private void fail(int current, T context, S event, Throwable cause,
+			SettableListenableFuture<FlowResult<T, S>> result) {
+		try {
+			result.set(fail(current, context, event, cause));
+		}
+		catch (FlowExecutionException e) {
+			result.setException(e);
+		}
+	}
+
+	/**
+	 * Describe a failure in a state. Messages (and exceptions) for failures
+	 * are always built from one of these, whether or not it is returned. There
+	 * is always at least one transition out of a state (the states of a
+	 * {@link SimpleFlow} come from its transitions), so with no cause the event
+	 * did not match any of them.
+	 */
+	private FlowFailure failure(int current, S event, Throwable cause) {
+		return new FlowFailure(cause == null ? Kind.NO_TRANSITION : Kind.STATE_EXCEPTION, name, names[current],
+				current, event, cause);
+	}
+
+	/**
+	 * Determine the index of the next state from here given the event.
+	 *
+	 * @return the index of the next state (or {@link #END}), or {@link #NONE}
+	 * if no transition matches
+	 */
+	private int nextState(int current, S event) {
+
+		int end = offsets[current + 1];
+
+		// The exact match (if any) bounds the scan of the other matchers
+		int best = end;
+		Map<Object, Integer> table = exact[current];
+		if (table != null && event != null) {
+			Integer position = table.get(event);
+			if (position != null) {
+				best = position;
+			}
+		}
+		PatternAutomaton automaton = automata[current];
+		if (automaton != null && event instanceof String) {
+			int match = automaton.match((String) event);
+			if (match >= 0 && patterns[current][match] < best) {
+				best = patterns[current][match];
+			}
+		}
+
+		for (int i = offsets[current]; i < best; i++) {
+			if (!indexed[i] && matchers[i].match(event)) {
+				return targets[i];
+			}
+		}
+
+		if (best < end) {
+			return targets[best];
+		}
+
+		return NONE;
+
+	}
+
+}
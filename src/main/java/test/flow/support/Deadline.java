@@ -0,0 +1,141 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import test.flow.support.state.SplitState;
+
+/**
+ * A point in time by which an execution should be finished. The current
+ * deadline is held in a thread local, so that everything executed within a
+ * {@link #call(Deadline, Callable) call} can see how much of the budget is
+ * left: in particular a {@link SplitState} never waits beyond the current
+ * deadline, and passes it on (possibly shortened by its own timeouts) to the
+ * flows that it starts in other threads.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public final class Deadline {
+
+	private static final ThreadLocal<Deadline> current = new ThreadLocal<Deadline>();
+
+	/**
+	 * The deadline in terms of {@link System#nanoTime()}.
+	 */
+	private final long nanos;
+
+	private Deadline(long nanos) {
+		this.nanos = nanos;
+	}
+
+	/**
+	 * @param timeout the time from now until the deadline
+	 * @param unit the unit of the timeout
+	 * @return a deadline
+	 */
+	public static Deadline in(long timeout, TimeUnit unit) {
+		return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	/**
+	 * @return the deadline for the current thread, or null if there is none
+	 */
+	public static Deadline current() {
+		return current.get();
+	}
+
+	/**
+	 * Call the callback with the deadline as the current one, and then
+	 * restore the previous one.
+	 * 
+	 * @param deadline the deadline (can be null for none)
+	 * @param callback the callback
+	 * @return the result of the callback
+	 * @throws Exception if the callback throws it
+	 */
+	public static <V> V call(Deadline deadline, Callable<V> callback) throws Exception {
+		Deadline previous = set(deadline);
+		try {
+			return callback.call();
+		}
+		finally {
+			set(previous);
+		}
+	}
+
+	/**
+	 * Run the callback with the deadline as the current one, and then restore
+	 * the previous one.
+	 * 
+	 * @param deadline the deadline (can be null for none)
+	 * @param callback the callback
+	 */
+	public static void run(Deadline deadline, Runnable callback) {
+		Deadline previous = set(deadline);
+		try {
+			callback.run();
+		}
+		finally {
+			set(previous);
+		}
+	}
+
+	private static Deadline set(Deadline deadline) {
+		Deadline previous = current.get();
+		if (deadline == null) {
+			current.remove();
+		}
+		else {
+			current.set(deadline);
+		}
+		return previous;
+	}
+
+	/**
+	 * @param other another deadline (or null)
+	 * @return whichever of this and the other deadline is earlier
+	 */
+	public Deadline min(Deadline other) {
+		if (other == null || nanos - other.nanos <= 0) {
+			return this;
+		}
+		return other;
+	}
+
+	/**
+	 * @param unit the unit to use
+	 * @return the time left until the deadline (negative if it has passed)
+	 */
+	public long remaining(TimeUnit unit) {
+		return unit.convert(nanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return true if the deadline has passed
+	 */
+	public boolean isExpired() {
+		return nanos - System.nanoTime() <= 0;
+	}
+
+	@Override
+	public String toString() {
+		return "Deadline: remaining=" + remaining(TimeUnit.MILLISECONDS) + "ms";
+	}
+
+}
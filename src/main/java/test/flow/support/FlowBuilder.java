@@ -13,8 +13,11 @@ import test.flow.support.match.Matcher;
 import test.flow.support.match.PatternMatcher;
 
 /**
- * Builder for {@link SimpleFlow} instances providing a convenient fluent API
- * for programmatically creating a flow. Not thread safe.
+ * Builder for {@link Flow} instances providing a convenient fluent API for
+ * programmatically creating a flow. The builder itself is not thread safe, but
+ * the flows it builds are: they are compiled eagerly (see
+ * {@link CompiledFlow}), so they are immutable and can be shared between
+ * threads.
  * 
  * @author Dave Syer
  * 
@@ -47,6 +50,10 @@ public class FlowBuilder<T, S> {
 
 	private Current in;
 
+	private boolean compactMementos = false;
+
+	private boolean failureResults = false;
+
 	public FlowBuilder(String name) {
 		this.name = name;
 	}
@@ -64,6 +71,28 @@ public class FlowBuilder<T, S> {
 		this.name = name;
 	}
 
+	/**
+	 * Use compact mementos in the flow results (see
+	 * {@link CompiledFlow#isCompactMementos()}). By default the memento is
+	 * the name of the last state.
+	 * 
+	 * @param compactMementos true to use compact mementos
+	 */
+	public void compactMementos(boolean compactMementos) {
+		this.compactMementos = compactMementos;
+	}
+
+	/**
+	 * Return expected failures (no transition for an event, or an exception
+	 * in a state) as results instead of throwing exceptions (see
+	 * {@link CompiledFlow#isFailureResults()}).
+	 * 
+	 * @param failureResults true to return failures as results
+	 */
+	public void failureResults(boolean failureResults) {
+		this.failureResults = failureResults;
+	}
+
 	/**
 	 * Set up an end state, from which there can be no further transitions. A
 	 * single state flow can be set up by calling this method only, followed by
@@ -214,17 +243,20 @@ public class FlowBuilder<T, S> {
 
 	/**
 	 * Build a flow from the accumulated state. May be called repeatedly and the
-	 * result will be a different instance of {@link Flow}.
+	 * result will be a different instance of {@link Flow}. The result is fully
+	 * initialized and immutable, so it is safe to share between threads.
 	 * 
 	 * @return a finished {@link Flow} built from the accumulated state
 	 */
-	public Flow<T, S> build() {
+	public CompiledFlow<T, S> build() {
 
 		if (in == Current.FROM || in == Current.ON) {
 			throw new FlowDefinitionException("Illegal ordering. Waiting for end() or to() before build().");
 		}
 
 		SimpleFlow<T, S> flow = new SimpleFlow<T, S>(name);
+		flow.setCompactMementos(compactMementos);
+		flow.setFailureResults(failureResults);
 
 		in = Current.BUILD;
 		transitions.addAll(getMissingEnds());
@@ -237,7 +269,7 @@ public class FlowBuilder<T, S> {
 			throw new FlowDefinitionException("Could not build flow", e);
 		}
 
-		return flow;
+		return flow.compile();
 
 	}
 
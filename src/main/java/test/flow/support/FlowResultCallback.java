@@ -0,0 +1,42 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support;
+
+import test.flow.FlowExecutionException;
+import test.flow.FlowResult;
+
+/**
+ * Receives the results of a batch of executions one at a time as they are
+ * ready (see {@link CompiledFlow#resumeAll(Object, java.util.Iterator, Object, FlowResultCallback)}
+ * ), so that the whole batch never has to be held in memory.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public interface FlowResultCallback<T, S> {
+
+	/**
+	 * @param result the result of an execution that paused or ended
+	 */
+	void onResult(FlowResult<T, S> result);
+
+	/**
+	 * @param context the context of an execution that failed
+	 * @param e the reason that it failed
+	 */
+	void onFailure(T context, FlowExecutionException e);
+
+}
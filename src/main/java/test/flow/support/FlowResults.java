@@ -0,0 +1,143 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support;
+
+import java.util.List;
+
+import test.flow.FlowExecutionException;
+import test.flow.FlowFailure;
+import test.flow.FlowResult;
+
+/**
+ * The results of executing a batch of contexts through a flow (see
+ * {@link CompiledFlow#startAll(List)}), stored in parallel arrays indexed by
+ * the position of the context in the batch. A {@link FlowResult} for one of
+ * the contexts is only created on demand with {@link #get(int)}.<br/>
+ * <br/>
+ *
+ * An execution that fails does not stop the others in the batch: the
+ * exception is recorded and rethrown by {@link #get(int)} (or recorded as a
+ * {@link FlowFailure} if the flow returns failures as results).
+ *
+ * @author Dave Syer
+ *
+ */
+public class FlowResults<T, S> {
+
+	private final CompiledFlow<T, S> flow;
+
+	private final List<T> contexts;
+
+	private final int[] states;
+
+	private final Object[] events;
+
+	private final boolean[] complete;
+
+	private final FlowExecutionException[] errors;
+
+	private final FlowFailure[] failures;
+
+	FlowResults(CompiledFlow<T, S> flow, List<T> contexts, int[] states, Object[] events, boolean[] complete,
+			FlowExecutionException[] errors, FlowFailure[] failures) {
+		this.flow = flow;
+		this.contexts = contexts;
+		this.states = states;
+		this.events = events;
+		this.complete = complete;
+		this.errors = errors;
+		this.failures = failures;
+	}
+
+	/**
+	 * @return the number of contexts in the batch
+	 */
+	public int size() {
+		return states.length;
+	}
+
+	/**
+	 * @param index the position of a context in the batch
+	 * @return the context
+	 */
+	public T getContext(int index) {
+		return contexts.get(index);
+	}
+
+	/**
+	 * @param index the position of a context in the batch
+	 * @return the memento for the last state handled
+	 */
+	public Object getMemento(int index) {
+		return flow.getMemento(states[index]);
+	}
+
+	/**
+	 * @param index the position of a context in the batch
+	 * @return the last event (including one that had no transition), or null
+	 * if the last state threw an exception
+	 */
+	@SuppressWarnings("unchecked")
+	public S getEvent(int index) {
+		return (S) events[index];
+	}
+
+	/**
+	 * @param index the position of a context in the batch
+	 * @return true if the execution completed (false if it paused or failed)
+	 */
+	public boolean isComplete(int index) {
+		return complete[index];
+	}
+
+	/**
+	 * @param index the position of a context in the batch
+	 * @return the exception that ended the execution, or null if it succeeded
+	 */
+	public FlowExecutionException getException(int index) {
+		return errors[index];
+	}
+
+	/**
+	 * @param index the position of a context in the batch
+	 * @return the reason that the execution failed if the flow returns
+	 * failures as results (see {@link CompiledFlow#isFailureResults()}),
+	 * otherwise null
+	 */
+	public FlowFailure getFailure(int index) {
+		return failures.length == 0 ? null : failures[index];
+	}
+
+	/**
+	 * The result for one of the contexts, the same as would have been returned
+	 * by {@link CompiledFlow#start(Object)}.
+	 *
+	 * @param index the position of a context in the batch
+	 * @return the result
+	 * @throws FlowExecutionException if the execution failed
+	 */
+	public FlowResult<T, S> get(int index) throws FlowExecutionException {
+		if (errors[index] != null) {
+			throw errors[index];
+		}
+		FlowFailure failure = getFailure(index);
+		if (failure != null) {
+			return new FlowResult<T, S>(getMemento(index), getContext(index), getEvent(index), failure);
+		}
+		return new FlowResult<T, S>(getMemento(index), getContext(index), getEvent(index), complete[index]);
+	}
+
+}
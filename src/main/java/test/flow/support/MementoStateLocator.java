@@ -0,0 +1,34 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support;
+
+/**
+ * A {@link StateLocator} that can also find the state that an execution
+ * paused or ended in from its memento.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public interface MementoStateLocator<T, S> extends StateLocator<T, S> {
+
+	/**
+	 * @param memento a memento from the result of an execution of this flow
+	 * @return the name of the {@link State} that the memento refers to
+	 * @throws FlowDefinitionException if there is no such state
+	 */
+	String getStateName(Object memento) throws FlowDefinitionException;
+
+}
@@ -18,6 +18,7 @@ package test.flow.support;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -25,7 +26,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.batch.core.JobExecutionException;
 import org.springframework.beans.factory.InitializingBean;
@@ -46,18 +46,22 @@ import test.flow.FlowResult;
  * @author Dave Syer
  * 
  */
-public class SimpleFlow<T, S> implements Flow<T, S>, StateLocator<T, S> {
+public class SimpleFlow<T, S> implements Flow<T, S>, MementoStateLocator<T, S> {
 
-	private State<T, S> startState;
-
-	private Map<String, SortedSet<Transition<T, S>>> transitionMap = new ConcurrentHashMap<String, SortedSet<Transition<T, S>>>();
-
-	private Map<String, State<T, S>> stateMap = new ConcurrentHashMap<String, State<T, S>>();
+	/**
+	 * Everything needed for execution, built in one go from the transitions
+	 * and replaced (never modified) if they are initialized again.
+	 */
+	private volatile Definition<T, S> definition;
 
 	private Collection<Transition<T, S>> transitions = new HashSet<Transition<T, S>>();
 
 	private final String name;
 
+	private boolean compactMementos = false;
+
+	private boolean failureResults = false;
+
 	/**
 	 * @param string
 	 */
@@ -81,7 +85,11 @@ public class SimpleFlow<T, S> implements Flow<T, S>, StateLocator<T, S> {
 	 */
 	public Collection<String> getStateNames() {
 		Collection<String> values = new HashSet<String>();
-		for (State<T, S> state : stateMap.values()) {
+		Definition<T, S> definition = this.definition;
+		if (definition == null) {
+			return Collections.unmodifiableCollection(values);
+		}
+		for (State<T, S> state : definition.stateMap.values()) {
 			values.add(state.getName());
 		}
 		return Collections.unmodifiableCollection(values);
@@ -96,23 +104,56 @@ public class SimpleFlow<T, S> implements Flow<T, S>, StateLocator<T, S> {
 		this.transitions = new LinkedHashSet<Transition<T, S>>(transitions);
 	}
 
+	/**
+	 * Flag to say that the {@link #compile() compiled} flow should use compact
+	 * mementos (see {@link CompiledFlow#isCompactMementos()}). This flow
+	 * always uses state names. Default false.
+	 * 
+	 * @param compactMementos the flag to set
+	 */
+	public void setCompactMementos(boolean compactMementos) {
+		this.compactMementos = compactMementos;
+	}
+
+	/**
+	 * Flag to say that the {@link #compile() compiled} flow should return
+	 * expected failures as results instead of throwing exceptions (see
+	 * {@link CompiledFlow#isFailureResults()}). This flow always throws
+	 * exceptions. Default false.
+	 * 
+	 * @param failureResults the flag to set
+	 */
+	public void setFailureResults(boolean failureResults) {
+		this.failureResults = failureResults;
+	}
+
 	/**
 	 * Locate start step and pre-populate data structures needed for execution.
 	 * 
 	 * @see InitializingBean#afterPropertiesSet()
 	 */
 	public void afterPropertiesSet() throws Exception {
-		initializeTransitions();
+		definition = initializeTransitions();
+	}
+
+	/**
+	 * The compiled form of this flow: a {@link Flow} with the same semantics,
+	 * but optimized for execution. It is created once when the transitions are
+	 * initialized, so if the transitions change this method should only be
+	 * called after {@link #afterPropertiesSet()}.
+	 * 
+	 * @return a compiled version of this flow
+	 */
+	public CompiledFlow<T, S> compile() {
+		return getDefinition().compiled;
 	}
 
 	/**
 	 * @see Flow#start(T)
 	 */
 	public FlowResult<T, S> start(T context) throws FlowExecutionException {
-		if (startState == null) {
-			initializeTransitions();
-		}
-		return handle(startState, context);
+		Definition<T, S> definition = getDefinition();
+		return handle(definition, definition.startState, context);
 	}
 
 	/**
@@ -121,22 +162,20 @@ public class SimpleFlow<T, S> implements Flow<T, S>, StateLocator<T, S> {
 	public FlowResult<T, S> resume(Object memento, T context, S event)
 			throws FlowExecutionException {
 
-		if (startState == null) {
-			initializeTransitions();
-		}
+		Definition<T, S> definition = getDefinition();
 
-		State<T, S> state = getState((String) memento);
+		State<T, S> state = definition.stateMap.get(memento);
 		if (state == null) {
 			throw new FlowExecutionException("No state with that name: [" + memento + "]");
 		}
-		state = nextState(state, event);
+		state = nextState(definition, state, event);
 
 		if (state == null) {
 			// There is no next state so return unmodified
 			return new FlowResult<T, S>(memento, context, event);
 		}
 
-		return handle(state, context);
+		return handle(definition, state, context);
 
 	}
 
@@ -146,7 +185,8 @@ public class SimpleFlow<T, S> implements Flow<T, S>, StateLocator<T, S> {
 	 * @see Flow#getState(String)
 	 */
 	public State<T, S> getState(String stateName) {
-		return stateMap.get(stateName);
+		Definition<T, S> definition = this.definition;
+		return definition == null ? null : definition.stateMap.get(stateName);
 	}
 
 	/**
@@ -160,13 +200,18 @@ public class SimpleFlow<T, S> implements Flow<T, S>, StateLocator<T, S> {
 	public Collection<String> getTriggers(String stateName)
 			throws FlowDefinitionException {
 
-		Set<Transition<T, S>> set = transitionMap.get(stateName);
+		Definition<T, S> definition = this.definition;
+		Set<Transition<T, S>> set = definition == null ? null : definition.transitionMap.get(stateName);
 
 		if (set == null) {
 			throw new FlowDefinitionException(String.format(
 					"No transitions found in flow=%s for state=%s", getName(), stateName));
 		}
 
+		return getTriggers(set);
+	}
+
+	private Collection<String> getTriggers(Set<Transition<T, S>> set) {
 		Set<String> triggers = new HashSet<String>();
 		for (Transition<T, S> stateTransition : set) {
 			String pattern = stateTransition.getMatcher().toString();
@@ -177,6 +222,20 @@ public class SimpleFlow<T, S> implements Flow<T, S>, StateLocator<T, S> {
 		return getConcretePatterns(triggers);
 	}
 
+	/**
+	 * The mementos from this flow are state names, so this is the same as the
+	 * memento if there is such a state.
+	 * 
+	 * @see MementoStateLocator#getStateName(Object)
+	 */
+	public String getStateName(Object memento) throws FlowDefinitionException {
+		if (!(memento instanceof String) || getState((String) memento) == null) {
+			throw new FlowDefinitionException(String.format("No state in flow=%s for memento=[%s]", getName(),
+					memento));
+		}
+		return (String) memento;
+	}
+
 	private Collection<String> getConcretePatterns(Set<String> patterns) {
 
 		Set<String> triggers = new HashSet<String>();
@@ -228,13 +287,13 @@ public class SimpleFlow<T, S> implements Flow<T, S>, StateLocator<T, S> {
 	/**
 	 * Convenience method for handling a flow event.
 	 * 
+	 * @param definition the current definition of the flow
 	 * @param state start in this state
-	 * @param event pass in this status
 	 * @param context and this context
 	 * @return a token for the execution when it pauses or ends
 	 * @throws FlowExecutionException
 	 */
-	private FlowResult<T, S> handle(State<T, S> state, T context)
+	private FlowResult<T, S> handle(Definition<T, S> definition, State<T, S> state, T context)
 			throws FlowExecutionException {
 
 		String stateName = state.getName();
@@ -256,7 +315,7 @@ public class SimpleFlow<T, S> implements Flow<T, S>, StateLocator<T, S> {
 			}
 
 			pause = state.isPause();
-			state = pause ? null : nextState(state, event);
+			state = pause ? null : nextState(definition, state, event);
 
 		}
 
@@ -271,11 +330,11 @@ public class SimpleFlow<T, S> implements Flow<T, S>, StateLocator<T, S> {
 	 * @return the next {@link State} (or null if this is the end)
 	 * @throws JobExecutionException
 	 */
-	private State<T, S> nextState(State<T, S> state, S event)
+	private State<T, S> nextState(Definition<T, S> definition, State<T, S> state, S event)
 			throws FlowExecutionException {
 
 		String stateName = state.getName();
-		Set<Transition<T, S>> set = transitionMap.get(stateName);
+		Set<Transition<T, S>> set = definition.transitionMap.get(stateName);
 
 		if (set == null) {
 			throw new FlowExecutionException(String.format(
@@ -301,26 +360,48 @@ public class SimpleFlow<T, S> implements Flow<T, S>, StateLocator<T, S> {
 		}
 
 		// This should not happen if initializeTransitions is called
-		Assert.state(stateMap.containsKey(next), String.format(
+		Assert.state(definition.stateMap.containsKey(next), String.format(
 				"Next state not specified in flow=%s for next=%s", getName(), next));
 
-		return stateMap.get(next);
+		return definition.stateMap.get(next);
+
+	}
 
+	/**
+	 * The current definition, initializing it from the transitions if that has
+	 * not happened yet. Concurrent callers all see the same fully built
+	 * instance.
+	 */
+	private Definition<T, S> getDefinition() {
+		Definition<T, S> definition = this.definition;
+		if (definition == null) {
+			synchronized (this) {
+				definition = this.definition;
+				if (definition == null) {
+					definition = initializeTransitions();
+					this.definition = definition;
+				}
+			}
+		}
+		return definition;
 	}
 
 	/**
 	 * Analyse the transitions provided and generate all the information needed to execute
-	 * the flow.
+	 * the flow. Nothing is shared until it is complete, so this can be called while
+	 * the flow is executing.
+	 * 
+	 * @return a new definition of the flow
 	 */
-	private void initializeTransitions() {
+	private Definition<T, S> initializeTransitions() {
 
 		if (transitions.isEmpty()) {
 			throw new FlowDefinitionException("There are no transitions in this flow.");
 		}
 
-		startState = null;
-		transitionMap.clear();
-		stateMap.clear();
+		State<T, S> startState = null;
+		Map<String, SortedSet<Transition<T, S>>> transitionMap = new HashMap<String, SortedSet<Transition<T, S>>>();
+		Map<String, State<T, S>> stateMap = new HashMap<String, State<T, S>>();
 		boolean hasEndState = false;
 
 		for (Transition<T, S> stepTransition : transitions) {
@@ -388,6 +469,38 @@ public class SimpleFlow<T, S> implements Flow<T, S>, StateLocator<T, S> {
 			startState = transitions.iterator().next().getState();
 		}
 
+		Map<String, Collection<String>> triggers = new HashMap<String, Collection<String>>();
+		for (Map.Entry<String, SortedSet<Transition<T, S>>> entry : transitionMap.entrySet()) {
+			triggers.put(entry.getKey(), getTriggers(entry.getValue()));
+		}
+
+		return new Definition<T, S>(startState, stateMap, transitionMap, new CompiledFlow<T, S>(name,
+				startState, stateMap, transitionMap, triggers, compactMementos, failureResults));
+
+	}
+
+	/**
+	 * Immutable holder for the analysed transitions, so they can be published
+	 * to executing threads all at once.
+	 */
+	private static class Definition<T, S> {
+
+		private final State<T, S> startState;
+
+		private final Map<String, State<T, S>> stateMap;
+
+		private final Map<String, SortedSet<Transition<T, S>>> transitionMap;
+
+		private final CompiledFlow<T, S> compiled;
+
+		public Definition(State<T, S> startState, Map<String, State<T, S>> stateMap,
+				Map<String, SortedSet<Transition<T, S>>> transitionMap, CompiledFlow<T, S> compiled) {
+			this.startState = startState;
+			this.stateMap = stateMap;
+			this.transitionMap = transitionMap;
+			this.compiled = compiled;
+		}
+
 	}
 
 }
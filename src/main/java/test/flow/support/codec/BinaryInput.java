@@ -0,0 +1,108 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads values written by a {@link BinaryOutput} directly from a
+ * {@link ByteBuffer} (e.g. a region of a memory mapped file), advancing its
+ * position, without copying the bytes anywhere else first. Not thread safe.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class BinaryInput {
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * @param buffer the buffer to read from (starting at its position)
+	 */
+	public BinaryInput(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * @return the buffer (with its position after the values read so far)
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	public int readByte() {
+		return buffer.get() & 0xff;
+	}
+
+	public int readInt() {
+		return buffer.getInt();
+	}
+
+	public int readVarInt() {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	public long readVarLong() {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	public String readString() {
+		int length = readVarInt();
+		if (buffer.hasArray()) {
+			int offset = buffer.arrayOffset() + buffer.position();
+			buffer.position(buffer.position() + length);
+			return new String(buffer.array(), offset, length, BinaryOutput.UTF8);
+		}
+		// Decode ASCII directly, and anything else via a view of the bytes
+		int start = buffer.position();
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			byte b = buffer.get(start + i);
+			if (b < 0) {
+				ByteBuffer slice = buffer.duplicate();
+				slice.limit(start + length);
+				buffer.position(start + length);
+				return BinaryOutput.UTF8.decode(slice).toString();
+			}
+			chars[i] = (char) b;
+		}
+		buffer.position(start + length);
+		return new String(chars);
+	}
+
+	public byte[] readBytes() {
+		byte[] value = new byte[readVarInt()];
+		buffer.get(value);
+		return value;
+	}
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A growable buffer for writing values in a compact binary form: integers as
+ * varints (7 bits per byte, low bits first) and strings as UTF-8 prefixed by
+ * their length. Not thread safe, but can be {@link #reset()} and reused.
+ * 
+ * @author Dave Syer
+ * 
+ * @see BinaryInput
+ */
+public class BinaryOutput {
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private byte[] bytes;
+
+	private int size;
+
+	public BinaryOutput() {
+		this(64);
+	}
+
+	/**
+	 * @param capacity the initial capacity
+	 */
+	public BinaryOutput(int capacity) {
+		bytes = new byte[capacity];
+	}
+
+	public BinaryOutput writeByte(int value) {
+		ensure(1);
+		bytes[size++] = (byte) value;
+		return this;
+	}
+
+	/**
+	 * Write a fixed size (4 byte) integer, for values that are not usually
+	 * small.
+	 */
+	public BinaryOutput writeInt(int value) {
+		ensure(4);
+		bytes[size++] = (byte) (value >>> 24);
+		bytes[size++] = (byte) (value >>> 16);
+		bytes[size++] = (byte) (value >>> 8);
+		bytes[size++] = (byte) value;
+		return this;
+	}
+
+	/**
+	 * Write an unsigned varint (1 byte for values less than 128, up to 5 bytes
+	 * for negative values).
+	 */
+	public BinaryOutput writeVarInt(int value) {
+		ensure(5);
+		while ((value & ~0x7f) != 0) {
+			bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		bytes[size++] = (byte) value;
+		return this;
+	}
+
+	/**
+	 * Write an unsigned varint (up to 10 bytes).
+	 */
+	public BinaryOutput writeVarLong(long value) {
+		ensure(10);
+		while ((value & ~0x7fL) != 0) {
+			bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		bytes[size++] = (byte) value;
+		return this;
+	}
+
+	/**
+	 * Write a string as UTF-8 prefixed by its length (in bytes) as a varint.
+	 */
+	public BinaryOutput writeString(String value) {
+		int length = value.length();
+		ensure(5 + length);
+		int start = size;
+		// Optimistically assume ASCII, which is one byte per character
+		bytes[size++] = (byte) length;
+		if (length < 0x80) {
+			for (int i = 0; i < length; i++) {
+				char c = value.charAt(i);
+				if (c >= 0x80) {
+					size = start;
+					return writeBytes(value.getBytes(UTF8));
+				}
+				bytes[size++] = (byte) c;
+			}
+			return this;
+		}
+		size = start;
+		return writeBytes(value.getBytes(UTF8));
+	}
+
+	/**
+	 * Write bytes prefixed by their length as a varint.
+	 */
+	public BinaryOutput writeBytes(byte[] value) {
+		writeVarInt(value.length);
+		ensure(value.length);
+		System.arraycopy(value, 0, bytes, size, value.length);
+		size += value.length;
+		return this;
+	}
+
+	/**
+	 * @return the number of bytes written
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Discard everything written so far (but keep the capacity).
+	 */
+	public void reset() {
+		size = 0;
+	}
+
+	/**
+	 * @return a copy of the bytes written
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(bytes, size);
+	}
+
+	/**
+	 * @return a buffer wrapping the bytes written (not a copy, so only valid
+	 * until the next change)
+	 */
+	public ByteBuffer toByteBuffer() {
+		return ByteBuffer.wrap(bytes, 0, size);
+	}
+
+	private void ensure(int count) {
+		if (size + count > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(size + count, 2 * bytes.length));
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.codec;
+
+/**
+ * An {@link EventCodec} for enum events, which are encoded by ordinal (so
+ * usually in a single byte). The ordinals are part of the format, so new
+ * constants should only be added at the end of the enum.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class EnumCodec<E extends Enum<E>> implements EventCodec<E> {
+
+	private final E[] values;
+
+	/**
+	 * @param type the enum type
+	 */
+	public EnumCodec(Class<E> type) {
+		this.values = type.getEnumConstants();
+	}
+
+	public void write(E event, BinaryOutput output) {
+		output.writeVarInt(event.ordinal());
+	}
+
+	public E read(BinaryInput input) {
+		int ordinal = input.readVarInt();
+		if (ordinal < 0 || ordinal >= values.length) {
+			throw new IllegalArgumentException("No enum constant with ordinal=" + ordinal + " in "
+					+ values.getClass().getComponentType().getName());
+		}
+		return values[ordinal];
+	}
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.codec;
+
+/**
+ * Strategy for encoding the events of a flow (the <code>S</code> type
+ * parameter) in a {@link FlowCodec}. The value passed to {@link #write} is
+ * never null.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public interface EventCodec<S> {
+
+	/**
+	 * @param event the event to encode
+	 * @param output the output to write to
+	 */
+	void write(S event, BinaryOutput output);
+
+	/**
+	 * @param input the input to read from
+	 * @return the event
+	 */
+	S read(BinaryInput input);
+
+}
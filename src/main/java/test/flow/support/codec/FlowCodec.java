@@ -0,0 +1,229 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.springframework.core.serializer.DefaultDeserializer;
+import org.springframework.core.serializer.DefaultSerializer;
+import org.springframework.core.serializer.Deserializer;
+import org.springframework.core.serializer.Serializer;
+
+import test.flow.FlowFailure;
+import test.flow.FlowFailure.Kind;
+import test.flow.FlowResult;
+
+/**
+ * A compact binary encoding of {@link FlowResult} (and so of a paused
+ * execution, which is a result that is not complete), with the events
+ * encoded by a pluggable {@link EventCodec}. The context is not encoded: it
+ * is provided by the caller when a result is read.<br/>
+ * <br/>
+ * 
+ * The format starts with a version byte, followed by flags (complete, has an
+ * event, failed, and which of the failure's flow and state names are not
+ * null), the memento, the event and the failure (if any). Mementos
+ * that are state names are encoded as strings, and compact mementos (longs)
+ * as a fixed size int (the version of the flow) and a varint (the state
+ * index), so typically in 6 bytes. Any other memento is encoded with a
+ * fallback {@link Serializer} (Java serialization by default). The cause of a
+ * failure is not encoded.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class FlowCodec<S> {
+
+	/**
+	 * The version of the format written by this codec.
+	 */
+	public static final int VERSION = 1;
+
+	private static final int NULL = 0;
+
+	private static final int STRING = 1;
+
+	private static final int LONG = 2;
+
+	private static final int SERIALIZED = 3;
+
+	private static final int COMPLETE = 1;
+
+	private static final int EVENT = 2;
+
+	private static final int FAILURE = 4;
+
+	private static final int FLOW_NAME = 8;
+
+	private static final int STATE_NAME = 16;
+
+	private static final Kind[] KINDS = Kind.values();
+
+	private final EventCodec<S> events;
+
+	private Serializer<Object> serializer = new DefaultSerializer();
+
+	private Deserializer<Object> deserializer = new DefaultDeserializer();
+
+	/**
+	 * @param events the codec for events
+	 */
+	public FlowCodec(EventCodec<S> events) {
+		this.events = events;
+	}
+
+	/**
+	 * The serializer for mementos that are not strings or longs. Default is
+	 * Java serialization.
+	 * 
+	 * @param serializer the serializer to set
+	 */
+	public void setSerializer(Serializer<Object> serializer) {
+		this.serializer = serializer;
+	}
+
+	/**
+	 * The deserializer for mementos that are not strings or longs (the
+	 * opposite of the {@link #setSerializer(Serializer) serializer}).
+	 * 
+	 * @param deserializer the deserializer to set
+	 */
+	public void setDeserializer(Deserializer<Object> deserializer) {
+		this.deserializer = deserializer;
+	}
+
+	/**
+	 * @param result a result
+	 * @return the encoded result
+	 */
+	public byte[] encode(FlowResult<?, S> result) {
+		BinaryOutput output = new BinaryOutput();
+		write(result, output);
+		return output.toByteArray();
+	}
+
+	/**
+	 * @param buffer a buffer containing an encoded result (at its position)
+	 * @param context the context for the result
+	 * @return the result
+	 */
+	public <T> FlowResult<T, S> decode(ByteBuffer buffer, T context) {
+		return read(new BinaryInput(buffer), context);
+	}
+
+	public void write(FlowResult<?, S> result, BinaryOutput output) {
+		S event = result.getEvent();
+		FlowFailure failure = result.getFailure();
+		output.writeByte(VERSION);
+		int flags = (result.isComplete() ? COMPLETE : 0) | (event != null ? EVENT : 0);
+		if (failure != null) {
+			flags |= FAILURE | (failure.getFlowName() != null ? FLOW_NAME : 0)
+					| (failure.getStateName() != null ? STATE_NAME : 0);
+		}
+		output.writeByte(flags);
+		writeMemento(result.getMemento(), output);
+		if (event != null) {
+			events.write(event, output);
+		}
+		if (failure != null) {
+			output.writeVarInt(failure.getKind().ordinal());
+			if ((flags & FLOW_NAME) != 0) {
+				output.writeString(failure.getFlowName());
+			}
+			if ((flags & STATE_NAME) != 0) {
+				output.writeString(failure.getStateName());
+			}
+			output.writeVarInt(failure.getStateIndex());
+		}
+	}
+
+	public <T> FlowResult<T, S> read(BinaryInput input, T context) {
+		int version = input.readByte();
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported format version=" + version);
+		}
+		int flags = input.readByte();
+		Object memento = readMemento(input);
+		S event = (flags & EVENT) != 0 ? events.read(input) : null;
+		if ((flags & FAILURE) != 0) {
+			int ordinal = input.readVarInt();
+			if (ordinal >= KINDS.length) {
+				throw new IllegalArgumentException("Unknown failure kind=" + ordinal);
+			}
+			Kind kind = KINDS[ordinal];
+			String flowName = (flags & FLOW_NAME) != 0 ? input.readString() : null;
+			String stateName = (flags & STATE_NAME) != 0 ? input.readString() : null;
+			int stateIndex = input.readVarInt();
+			return new FlowResult<T, S>(memento, context, event, new FlowFailure(kind, flowName, stateName,
+					stateIndex, event, null));
+		}
+		return new FlowResult<T, S>(memento, context, event, (flags & COMPLETE) != 0);
+	}
+
+	public void writeMemento(Object memento, BinaryOutput output) {
+		if (memento == null) {
+			output.writeByte(NULL);
+		}
+		else if (memento instanceof String) {
+			output.writeByte(STRING);
+			output.writeString((String) memento);
+		}
+		else if (memento instanceof Long) {
+			long value = (Long) memento;
+			output.writeByte(LONG);
+			output.writeInt((int) (value >>> 32));
+			output.writeVarInt((int) value);
+		}
+		else {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try {
+				serializer.serialize(memento, bytes);
+			}
+			catch (IOException e) {
+				throw new IllegalArgumentException("Could not serialize memento=" + memento, e);
+			}
+			output.writeByte(SERIALIZED);
+			output.writeBytes(bytes.toByteArray());
+		}
+	}
+
+	public Object readMemento(BinaryInput input) {
+		int type = input.readByte();
+		if (type == NULL) {
+			return null;
+		}
+		if (type == STRING) {
+			return input.readString();
+		}
+		if (type == LONG) {
+			long high = input.readInt();
+			return (high << 32) | (input.readVarInt() & 0xffffffffL);
+		}
+		if (type == SERIALIZED) {
+			try {
+				return deserializer.deserialize(new ByteArrayInputStream(input.readBytes()));
+			}
+			catch (IOException e) {
+				throw new IllegalArgumentException("Could not deserialize memento", e);
+			}
+		}
+		throw new IllegalArgumentException("Unknown memento type=" + type);
+	}
+
+}
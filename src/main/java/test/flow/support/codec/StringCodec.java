@@ -0,0 +1,34 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.codec;
+
+/**
+ * An {@link EventCodec} for events that are plain strings (UTF-8).
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class StringCodec implements EventCodec<String> {
+
+	public void write(String event, BinaryOutput output) {
+		output.writeString(event);
+	}
+
+	public String read(BinaryInput input) {
+		return input.readString();
+	}
+
+}
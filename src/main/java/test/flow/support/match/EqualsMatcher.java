@@ -9,6 +9,15 @@ public class EqualsMatcher<S> implements Matcher<S> {
 		this.template = template;
 	}
 
+	/**
+	 * The template that values are compared with.
+	 * 
+	 * @return the template
+	 */
+	public S getTemplate() {
+		return template;
+	}
+
 	public boolean match(S value) {
 		return template.equals(value);
 	}
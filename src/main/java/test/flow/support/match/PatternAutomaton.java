@@ -0,0 +1,356 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.match;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A deterministic automaton that matches a value against several glob
+ * patterns (see {@link PatternMatcher#isGlob()}) in a single pass, and reports
+ * the first pattern in the list that matches. The automaton is built eagerly by
+ * subset construction over the characters that appear literally in the
+ * patterns, so matching is a table lookup per character with no allocation.
+ * Instances are immutable and thread safe.
+ *
+ * @author Dave Syer
+ *
+ */
+public class PatternAutomaton {
+
+	/**
+	 * Limit on the number of states in the automaton. Patterns with many
+	 * wildcards can (in principle) need exponentially many, in which case
+	 * {@link #create(List)} gives up.
+	 */
+	public static final int MAX_STATES = 1024;
+
+	private static final int DEAD = -1;
+
+	/**
+	 * Character class for line terminators, which wildcards do not match.
+	 */
+	private static final int TERMINATOR = 1;
+
+	private final Alphabet alphabet;
+
+	private final int classes;
+
+	private final int[] next;
+
+	private final int[] accept;
+
+	private PatternAutomaton(Alphabet alphabet, int[] next, int[] accept) {
+		this.alphabet = alphabet;
+		this.classes = alphabet.classes;
+		this.next = next;
+		this.accept = accept;
+	}
+
+	/**
+	 * Build an automaton for the patterns provided.
+	 *
+	 * @param matchers the patterns in order of precedence (all must be globs)
+	 * @return an automaton, or null if it would have more than
+	 * {@link #MAX_STATES} states
+	 *
+	 * @throws IllegalArgumentException if one of the patterns is not a glob
+	 */
+	public static PatternAutomaton create(List<PatternMatcher> matchers) {
+		return new Builder(matchers).build();
+	}
+
+	/**
+	 * Match the value against all the patterns at once.
+	 *
+	 * @param value the value to match
+	 * @return the index of the first pattern (in the order provided at
+	 * creation) that matches, or -1 if none do
+	 */
+	public int match(String value) {
+		int state = 0;
+		for (int i = 0, length = value.length(); i < length; i++) {
+			state = next[state * classes + alphabet.classOf(value.charAt(i))];
+			if (state == DEAD) {
+				return -1;
+			}
+		}
+		return accept[state];
+	}
+
+	/**
+	 * @return the number of states in the automaton
+	 */
+	public int size() {
+		return accept.length;
+	}
+
+	/**
+	 * Subset construction. The NFA has one state for each position in each
+	 * pattern (including the end), and an NFA state at a "*" is also in the
+	 * same set as the one after it (epsilon closure). Once a pattern reaches a
+	 * trailing "*" it is bound to match (unless a line terminator comes along,
+	 * but then nothing matches), so the states of all patterns with lower
+	 * precedence can be dropped. That keeps "contains" patterns like "*FAIL*"
+	 * from multiplying the number of states.
+	 */
+	private static class Builder {
+
+		private final String[] patterns;
+
+		private final int[] base;
+
+		private final int size;
+
+		private final Alphabet alphabet;
+
+		public Builder(List<PatternMatcher> matchers) {
+			patterns = new String[matchers.size()];
+			base = new int[patterns.length + 1];
+			TreeSet<Character> literals = new TreeSet<Character>();
+			for (int k = 0; k < patterns.length; k++) {
+				PatternMatcher matcher = matchers.get(k);
+				if (!matcher.isGlob()) {
+					throw new IllegalArgumentException("Not a glob pattern: " + matcher);
+				}
+				patterns[k] = matcher.getPattern();
+				base[k + 1] = base[k] + patterns[k].length() + 1;
+				for (char c : patterns[k].toCharArray()) {
+					if (c != '*' && c != '?') {
+						literals.add(c);
+					}
+				}
+			}
+			size = base[patterns.length];
+			alphabet = new Alphabet(literals);
+		}
+
+		public PatternAutomaton build() {
+
+			int classes = alphabet.classes;
+
+			Map<Key, Integer> ids = new HashMap<Key, Integer>();
+			List<long[]> sets = new ArrayList<long[]>();
+			List<int[]> rows = new ArrayList<int[]>();
+
+			long[] initial = new long[(size + 63) / 64];
+			for (int k = 0; k < patterns.length; k++) {
+				add(initial, k, 0);
+			}
+			prune(initial);
+			ids.put(new Key(initial), 0);
+			sets.add(initial);
+
+			for (int id = 0; id < sets.size(); id++) {
+				long[] set = sets.get(id);
+				int[] row = new int[classes];
+				for (int cls = 0; cls < classes; cls++) {
+					long[] target = step(set, cls);
+					if (isEmpty(target)) {
+						row[cls] = DEAD;
+						continue;
+					}
+					Key key = new Key(target);
+					Integer existing = ids.get(key);
+					if (existing == null) {
+						if (sets.size() >= MAX_STATES) {
+							return null;
+						}
+						existing = sets.size();
+						ids.put(key, existing);
+						sets.add(target);
+					}
+					row[cls] = existing;
+				}
+				rows.add(row);
+			}
+
+			int[] next = new int[sets.size() * classes];
+			int[] accept = new int[sets.size()];
+			for (int id = 0; id < sets.size(); id++) {
+				System.arraycopy(rows.get(id), 0, next, id * classes, classes);
+				accept[id] = accepting(sets.get(id));
+			}
+			return new PatternAutomaton(alphabet, next, accept);
+
+		}
+
+		/**
+		 * Add an NFA state and its epsilon closure.
+		 */
+		private void add(long[] set, int pattern, int position) {
+			String value = patterns[pattern];
+			while (true) {
+				int bit = base[pattern] + position;
+				set[bit >> 6] |= 1L << bit;
+				if (position < value.length() && value.charAt(position) == '*') {
+					position++;
+				}
+				else {
+					break;
+				}
+			}
+		}
+
+		private long[] step(long[] set, int cls) {
+			long[] result = new long[set.length];
+			for (int k = 0; k < patterns.length; k++) {
+				String value = patterns[k];
+				for (int position = 0; position < value.length(); position++) {
+					int bit = base[k] + position;
+					if ((set[bit >> 6] & (1L << bit)) == 0) {
+						continue;
+					}
+					char c = value.charAt(position);
+					if (c == '*') {
+						if (cls != TERMINATOR) {
+							add(result, k, position);
+						}
+					}
+					else if (c == '?') {
+						if (cls != TERMINATOR) {
+							add(result, k, position + 1);
+						}
+					}
+					else if (alphabet.classOf(c) == cls) {
+						add(result, k, position + 1);
+					}
+				}
+			}
+			prune(result);
+			return result;
+		}
+
+		private void prune(long[] set) {
+			for (int k = 0; k < patterns.length; k++) {
+				int bit = base[k] + patterns[k].length();
+				if (patterns[k].endsWith("*") && (set[bit >> 6] & (1L << bit)) != 0) {
+					for (bit = base[k + 1]; bit < size; bit++) {
+						set[bit >> 6] &= ~(1L << bit);
+					}
+					return;
+				}
+			}
+		}
+
+		private int accepting(long[] set) {
+			for (int k = 0; k < patterns.length; k++) {
+				int bit = base[k] + patterns[k].length();
+				if ((set[bit >> 6] & (1L << bit)) != 0) {
+					return k;
+				}
+			}
+			return -1;
+		}
+
+		private static boolean isEmpty(long[] set) {
+			for (long word : set) {
+				if (word != 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+	/**
+	 * Partition of the characters into classes that the automaton cannot
+	 * distinguish: one for each literal in the patterns, one for line
+	 * terminators and one for everything else.
+	 */
+	private static class Alphabet {
+
+		/**
+		 * Character class for anything that is not a literal in one of the
+		 * patterns.
+		 */
+		private static final int OTHER = 0;
+
+		private final int[] ascii = new int[128];
+
+		/**
+		 * Sorted non-ASCII literal characters (class is index + offset).
+		 */
+		private final char[] extended;
+
+		private final int offset;
+
+		private final int classes;
+
+		public Alphabet(Collection<Character> literals) {
+			List<Character> extended = new ArrayList<Character>();
+			int count = TERMINATOR + 1;
+			for (char c : literals) {
+				if (c < 128) {
+					ascii[c] = count++;
+				}
+				else {
+					extended.add(c);
+				}
+			}
+			ascii['\n'] = TERMINATOR;
+			ascii['\r'] = TERMINATOR;
+			this.offset = count;
+			this.extended = new char[extended.size()];
+			for (int i = 0; i < this.extended.length; i++) {
+				this.extended[i] = extended.get(i);
+			}
+			this.classes = count + this.extended.length;
+		}
+
+		public int classOf(char c) {
+			if (c < 128) {
+				return ascii[c];
+			}
+			int index = Arrays.binarySearch(extended, c);
+			if (index >= 0) {
+				return index + offset;
+			}
+			return PatternMatcher.isLineTerminator(c) ? TERMINATOR : OTHER;
+		}
+
+	}
+
+	private static class Key {
+
+		private final long[] bits;
+
+		private final int hash;
+
+		public Key(long[] bits) {
+			this.bits = bits;
+			this.hash = Arrays.hashCode(bits);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && Arrays.equals(bits, ((Key) obj).bits);
+		}
+
+	}
+
+}
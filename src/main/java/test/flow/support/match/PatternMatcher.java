@@ -15,21 +15,33 @@
  */
 package test.flow.support.match;
 
+import java.util.regex.Pattern;
+
 import org.springframework.util.StringUtils;
 
 
 /**
  * {@link Matcher} that identifies Strings based on a pattern containing
- * wildcards (*) and placeholders (?).
+ * wildcards (*) and placeholders (?). Neither of the wildcards matches a line
+ * terminator. Other characters are literals, unless they have a special meaning
+ * in a regular expression, in which case the pattern is treated as a regex
+ * (with the wildcards converted).
  * 
  * @author Dave Syer
  * 
  */
 public class PatternMatcher implements Matcher<String> {
 
+	private static final String REGEX_CHARACTERS = "\\^$.|+()[]{}\n\r\u0085\u2028\u2029";
+
 	private final String pattern;
 	private final String regex;
 
+	/**
+	 * Compiled regex, or null if the pattern only has wildcards and literals.
+	 */
+	private final Pattern compiled;
+
 	/**
 	 * Construct a pattern matcher from the pattern provided.
 	 * 
@@ -44,6 +56,7 @@ public class PatternMatcher implements Matcher<String> {
 			this.pattern = pattern;
 		}
 		regex = this.pattern.replace("?", ".").replace("*", ".*?");
+		compiled = isGlob(this.pattern) ? null : Pattern.compile(regex);
 	}
 
 	/**
@@ -54,6 +67,16 @@ public class PatternMatcher implements Matcher<String> {
 		return pattern;
 	}
 
+	/**
+	 * Flag to say that the pattern consists of literals and wildcards only (so
+	 * it can be matched without a regular expression).
+	 * 
+	 * @return true if the pattern is a plain glob
+	 */
+	public boolean isGlob() {
+		return compiled == null;
+	}
+
 	/**
 	 * Check if the provided value matches the pattern, signalling that the
 	 * next State should be executed.
@@ -62,7 +85,64 @@ public class PatternMatcher implements Matcher<String> {
 	 * @return true if the pattern matches this status
 	 */
 	public boolean match(String value) {
-		return value.matches(regex);
+		if (compiled != null) {
+			return compiled.matcher(value).matches();
+		}
+		return matchGlob(pattern, value);
+	}
+
+	/**
+	 * @param c a character
+	 * @return true if the character is one that a wildcard cannot match (the
+	 * same as "." in a regular expression)
+	 */
+	static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	private static boolean isGlob(String pattern) {
+		for (int i = 0; i < pattern.length(); i++) {
+			if (REGEX_CHARACTERS.indexOf(pattern.charAt(i)) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Match a glob pattern (without allocating), backtracking only to the last
+	 * "*" seen. That is enough because the literal segments between wildcards
+	 * can be matched greedily from the left.
+	 */
+	private static boolean matchGlob(String pattern, String value) {
+		int p = 0;
+		int v = 0;
+		int star = -1;
+		int mark = 0;
+		int length = pattern.length();
+		while (v < value.length()) {
+			char c = value.charAt(v);
+			char next = p < length ? pattern.charAt(p) : 0;
+			if (p < length && next == '*') {
+				star = p++;
+				mark = v;
+			}
+			else if (p < length && (next == '?' ? !isLineTerminator(c) : next == c)) {
+				p++;
+				v++;
+			}
+			else if (star >= 0 && !isLineTerminator(value.charAt(mark))) {
+				p = star + 1;
+				v = ++mark;
+			}
+			else {
+				return false;
+			}
+		}
+		while (p < length && pattern.charAt(p) == '*') {
+			p++;
+		}
+		return p == length;
 	}
 
 	/**
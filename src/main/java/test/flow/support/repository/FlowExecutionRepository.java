@@ -0,0 +1,68 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.repository;
+
+import test.flow.Flow;
+import test.flow.FlowResult;
+
+/**
+ * Stores the executions of a {@link Flow} that have paused, so that they can
+ * be resumed later (possibly in another process). An execution is identified
+ * by a long id chosen by the caller (e.g. the primary key of the business
+ * object), and what is stored is what is needed to
+ * {@link Flow#resume(Object, Object, Object) resume} it: the memento and the
+ * last event.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public interface FlowExecutionRepository<S> {
+
+	/**
+	 * Record a paused execution, replacing any previous record with the same
+	 * id.
+	 * 
+	 * @param id the id of the execution
+	 * @param memento the memento from the {@link FlowResult}
+	 * @param event the event from the {@link FlowResult}
+	 */
+	void save(long id, Object memento, S event);
+
+	/**
+	 * @param id the id of the execution
+	 * @return the paused execution (or null if there is none)
+	 */
+	PausedExecution<S> get(long id);
+
+	/**
+	 * Remove the record of an execution (e.g. because it completed).
+	 * 
+	 * @param id the id of the execution
+	 */
+	void remove(long id);
+
+	/**
+	 * @return the number of paused executions
+	 */
+	int size();
+
+	/**
+	 * @return a copy of the ids of the paused executions (in no particular
+	 * order)
+	 */
+	long[] getIds();
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.repository;
+
+import test.flow.support.MementoStateLocator;
+
+/**
+ * A {@link FlowExecutionRepository} that keeps a {@link WaitIndex} up to date
+ * as executions are saved and removed, so that the executions waiting for a
+ * trigger can be found without a scan. The index is built from the existing
+ * executions in the delegate when this repository is created.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class IndexedFlowExecutionRepository<S> implements FlowExecutionRepository<S> {
+
+	private final FlowExecutionRepository<S> delegate;
+
+	private final WaitIndex index;
+
+	/**
+	 * @param delegate the repository that stores the executions
+	 * @param locator the flow that the executions belong to
+	 */
+	public IndexedFlowExecutionRepository(FlowExecutionRepository<S> delegate, MementoStateLocator<?, S> locator) {
+		this.delegate = delegate;
+		this.index = new WaitIndex(locator);
+		for (long id : delegate.getIds()) {
+			PausedExecution<S> execution = delegate.get(id);
+			if (execution != null) {
+				index.paused(id, execution.getMemento());
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the executions in this repository
+	 */
+	public WaitIndex getWaitIndex() {
+		return index;
+	}
+
+	/**
+	 * @see WaitIndex#getWaiting(String, String)
+	 */
+	public long[] getWaiting(String state, String trigger) {
+		return index.getWaiting(state, trigger);
+	}
+
+	public void save(long id, Object memento, S event) {
+		delegate.save(id, memento, event);
+		index.paused(id, memento);
+	}
+
+	public PausedExecution<S> get(long id) {
+		return delegate.get(id);
+	}
+
+	public void remove(long id) {
+		delegate.remove(id);
+		index.removed(id);
+	}
+
+	public int size() {
+		return delegate.size();
+	}
+
+	public long[] getIds() {
+		return delegate.getIds();
+	}
+
+}
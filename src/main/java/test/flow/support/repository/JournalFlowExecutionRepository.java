@@ -0,0 +1,942 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.serializer.DefaultDeserializer;
+import org.springframework.core.serializer.DefaultSerializer;
+import org.springframework.core.serializer.Deserializer;
+import org.springframework.core.serializer.Serializer;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+
+import test.flow.FlowResult;
+import test.flow.support.codec.BinaryOutput;
+import test.flow.support.codec.FlowCodec;
+
+/**
+ * A {@link FlowExecutionRepository} that appends every change to a journal,
+ * which is memory mapped in fixed size regions, and keeps an index in memory
+ * from execution id to the position of the latest record. The index is
+ * rebuilt when the repository is opened, stopping at the first record in the
+ * journal that is incomplete or corrupt (each record has a checksum).<br/>
+ * <br/>
+ * 
+ * With {@link #setSyncOnWrite(boolean) sync on write} (the default) a change
+ * is durable when the method returns: the journal is forced to disk by a
+ * background thread, and all the writers that are waiting are released by
+ * the same force, so the cost of a disk sync is shared by all the changes in
+ * a batch. The memento and the event are stored with a {@link Serializer}
+ * (Java serialization by default).<br/>
+ * <br/>
+ * 
+ * The journal is a sequence of segments in the same directory as the
+ * {@link File} provided (with names that start with its name). When the
+ * current segment grows beyond the {@link #setCompactionThreshold(long)
+ * compaction threshold} a new one is started, and the latest record for each
+ * paused execution in the older segments is copied in the background to a
+ * snapshot, after which the older segments are deleted. Recovery loads the
+ * newest snapshot and replays only the segments that were started after it.
+ * Thread safe.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class JournalFlowExecutionRepository<S> implements FlowExecutionRepository<S>, Closeable, DisposableBean {
+
+	private static final int MAGIC = 0x464c4f57;
+
+	private static final int VERSION = 2;
+
+	/**
+	 * Magic number, version, region size and (for a snapshot) the id of the
+	 * first journal segment that it does not include.
+	 */
+	private static final int HEADER = 16;
+
+	/**
+	 * Length of the body and checksum.
+	 */
+	private static final int RECORD_HEADER = 8;
+
+	/**
+	 * Type and id.
+	 */
+	private static final int BODY_HEADER = 9;
+
+	private static final int END_OF_REGION = -1;
+
+	private static final byte PAUSE = 1;
+
+	private static final byte REMOVE = 2;
+
+	private static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+	private static final long DEFAULT_COMPACTION_THRESHOLD = 256 * 1024 * 1024;
+
+	private static final String JOURNAL = "journal";
+
+	private static final String SNAPSHOT = "snapshot";
+
+	/**
+	 * The bits of an index entry that hold the position in a segment (the rest
+	 * is the id of the segment).
+	 */
+	private static final int POSITION_BITS = 40;
+
+	private final File file;
+
+	private final Pattern names;
+
+	private final int regionSize;
+
+	/**
+	 * All the open segments (including snapshots) by id.
+	 */
+	private final Map<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+	/**
+	 * The journal segment that is being appended to.
+	 */
+	private Segment journal;
+
+	/**
+	 * The position in the log of all changes that corresponds to the start
+	 * (position zero) of the current journal segment.
+	 */
+	private long base;
+
+	private int nextId;
+
+	private final LongLongHashMap index = new LongLongHashMap(-1);
+
+	private final Object sync = new Object();
+
+	/**
+	 * Positions in the log of all changes (across segments) up to which
+	 * records have been written and forced to disk.
+	 */
+	private long written;
+
+	private long forced;
+
+	private volatile boolean closed;
+
+	private final Thread flusher;
+
+	private final Object compaction = new Object();
+
+	private final AtomicBoolean compacting = new AtomicBoolean();
+
+	private TaskExecutor taskExecutor = createTaskExecutor();
+
+	private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+	private Serializer<Object> serializer = new DefaultSerializer();
+
+	private Deserializer<Object> deserializer = new DefaultDeserializer();
+
+	private FlowCodec<S> codec;
+
+	private boolean syncOnWrite = true;
+
+	/**
+	 * Open (or create) a journal with the default region size (64MB).
+	 * 
+	 * @param file the base name of the journal files
+	 */
+	public JournalFlowExecutionRepository(File file) {
+		this(file, DEFAULT_REGION_SIZE);
+	}
+
+	/**
+	 * Open (or create) a journal. The region size is the unit that the
+	 * segment files grow by, and the largest record that they can hold. If
+	 * the journal already exists the region size is the one it was created
+	 * with.
+	 * 
+	 * @param file the base name of the journal files
+	 * @param regionSize the size of the mapped regions of the files
+	 */
+	public JournalFlowExecutionRepository(File file, int regionSize) {
+		this.file = file.getAbsoluteFile();
+		this.names = Pattern.compile(Pattern.quote(file.getName()) + "\\.(\\d+)\\.(" + JOURNAL + "|" + SNAPSHOT
+				+ ")(\\.tmp)?");
+		try {
+			this.regionSize = recover(regionSize);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Could not open journal=" + file, e);
+		}
+		written = forced = base + journal.position;
+		flusher = new Thread(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, "journal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	private static TaskExecutor createTaskExecutor() {
+		SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("journal-compaction-");
+		executor.setDaemon(true);
+		return executor;
+	}
+
+	/**
+	 * The serializer for mementos and events. Default is Java serialization.
+	 * 
+	 * @param serializer the serializer to set
+	 */
+	public void setSerializer(Serializer<Object> serializer) {
+		this.serializer = serializer;
+	}
+
+	/**
+	 * The deserializer for mementos and events (the opposite of the
+	 * {@link #setSerializer(Serializer) serializer}).
+	 * 
+	 * @param deserializer the deserializer to set
+	 */
+	public void setDeserializer(Deserializer<Object> deserializer) {
+		this.deserializer = deserializer;
+	}
+
+	/**
+	 * A codec for mementos and events, used instead of the
+	 * {@link #setSerializer(Serializer) serializer} if provided. The records
+	 * are much smaller, and are decoded directly from the journal without
+	 * being copied. Records written by the serializer (before the codec was
+	 * set) can still be read, as long as it is the default (Java
+	 * serialization).
+	 * 
+	 * @param codec the codec to set
+	 */
+	public void setCodec(FlowCodec<S> codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * Flag to say that a change should be durable before the method that makes
+	 * it returns. If false the journal is still forced to disk in the
+	 * background as soon as possible, but a change can be lost in a crash.
+	 * Default true.
+	 * 
+	 * @param syncOnWrite the flag to set
+	 */
+	public void setSyncOnWrite(boolean syncOnWrite) {
+		this.syncOnWrite = syncOnWrite;
+	}
+
+	/**
+	 * The size (in bytes) of the current journal segment that triggers a
+	 * {@link #compact() compaction} in the background. Zero or negative means
+	 * never. Default 256MB.
+	 * 
+	 * @param compactionThreshold the threshold to set
+	 */
+	public void setCompactionThreshold(long compactionThreshold) {
+		this.compactionThreshold = compactionThreshold;
+	}
+
+	/**
+	 * The task executor for compactions in the background. Default is a new
+	 * (daemon) thread for each one.
+	 * 
+	 * @param taskExecutor the task executor to set
+	 */
+	public void setTaskExecutor(TaskExecutor taskExecutor) {
+		this.taskExecutor = taskExecutor;
+	}
+
+	/**
+	 * @return the journal segment that is being appended to
+	 */
+	public synchronized File getFile() {
+		return journal.file;
+	}
+
+	public void save(long id, Object memento, S event) {
+		if (codec != null) {
+			BinaryOutput output = new BinaryOutput();
+			codec.write(new FlowResult<Object, S>(memento, null, event, false), output);
+			commit(append(PAUSE, id, output.toByteArray()));
+			return;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			serializer.serialize(new Object[] { memento, event }, bytes);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Could not serialize execution with id=" + id, e);
+		}
+		commit(append(PAUSE, id, bytes.toByteArray()));
+	}
+
+	public void remove(long id) {
+		long end = append(REMOVE, id, new byte[0]);
+		if (end > 0) {
+			commit(end);
+		}
+	}
+
+	public PausedExecution<S> get(long id) {
+		ByteBuffer buffer;
+		synchronized (this) {
+			long location = index.get(id);
+			if (location < 0) {
+				return null;
+			}
+			Segment segment = segments.get((int) (location >>> POSITION_BITS));
+			long position = location & ((1L << POSITION_BITS) - 1);
+			buffer = segment.region(position).duplicate();
+			buffer.position((int) (position % segment.regionSize));
+		}
+		int length = buffer.getInt();
+		buffer.position(buffer.position() + 4 + BODY_HEADER);
+		buffer.limit(buffer.position() + length - BODY_HEADER);
+		if (codec != null && buffer.get(buffer.position()) == FlowCodec.VERSION) {
+			// Read straight from the mapped region
+			FlowResult<Object, S> result = codec.decode(buffer, null);
+			return new PausedExecution<S>(id, result.getMemento(), result.getEvent());
+		}
+		byte[] payload = new byte[length - BODY_HEADER];
+		buffer.get(payload);
+		return decode(id, payload);
+	}
+
+	public synchronized int size() {
+		return index.size();
+	}
+
+	public synchronized long[] getIds() {
+		return index.keys();
+	}
+
+	/**
+	 * Wait until all the changes so far are durable.
+	 */
+	public void sync() {
+		long end;
+		synchronized (this) {
+			end = base + journal.position;
+		}
+		await(end);
+	}
+
+	/**
+	 * Start a new journal segment and copy the latest record for each paused
+	 * execution in the older segments to a new snapshot, then delete the older
+	 * segments. Changes can be made concurrently, and are recorded in the new
+	 * journal segment.
+	 */
+	public void compact() {
+		synchronized (compaction) {
+			try {
+				doCompact();
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("Could not compact journal=" + file, e);
+			}
+		}
+	}
+
+	public void close() {
+		if (closed) {
+			return;
+		}
+		synchronized (compaction) {
+			sync();
+			closed = true;
+			synchronized (sync) {
+				sync.notifyAll();
+			}
+			try {
+				flusher.join();
+				synchronized (this) {
+					for (Segment segment : segments.values()) {
+						segment.close();
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("Could not close journal=" + file, e);
+			}
+		}
+	}
+
+	/**
+	 * @see DisposableBean#destroy()
+	 */
+	public void destroy() {
+		close();
+	}
+
+	@SuppressWarnings("unchecked")
+	private PausedExecution<S> decode(long id, byte[] payload) {
+		try {
+			Object[] values = (Object[]) deserializer.deserialize(new ByteArrayInputStream(payload));
+			return new PausedExecution<S>(id, values[0], (S) values[1]);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Could not deserialize execution with id=" + id, e);
+		}
+	}
+
+	/**
+	 * Append a record to the journal and update the index.
+	 * 
+	 * @return the position in the log after the record, or -1 if there was
+	 * nothing to remove
+	 */
+	private long append(byte type, long id, byte[] payload) {
+
+		long end;
+		boolean compact;
+
+		synchronized (this) {
+
+			if (closed) {
+				throw new IllegalStateException("Journal is closed: " + file);
+			}
+			if (type == REMOVE && !index.containsKey(id)) {
+				return -1;
+			}
+
+			int length = BODY_HEADER + payload.length;
+			ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + length);
+			record.putInt(length).putInt(0).put(type).putLong(id).put(payload);
+			CRC32 crc = new CRC32();
+			crc.update(record.array(), RECORD_HEADER, length);
+			record.putInt(4, (int) crc.getValue());
+			record.flip();
+
+			long position = journal.write(record);
+			if (type == PAUSE) {
+				index.put(id, location(journal, position));
+			}
+			else {
+				index.remove(id);
+			}
+			end = base + journal.position;
+			compact = compactionThreshold > 0 && journal.position > compactionThreshold;
+
+		}
+
+		if (compact && compacting.compareAndSet(false, true)) {
+			taskExecutor.execute(new Runnable() {
+				public void run() {
+					try {
+						if (!closed) {
+							compact();
+						}
+					}
+					finally {
+						compacting.set(false);
+					}
+				}
+			});
+		}
+
+		return end;
+
+	}
+
+	/**
+	 * Tell the flusher about a change and (if syncing on write) wait for it
+	 * to be durable.
+	 */
+	private void commit(long end) {
+		synchronized (sync) {
+			if (end > written) {
+				written = end;
+				sync.notifyAll();
+			}
+		}
+		if (syncOnWrite) {
+			await(end);
+		}
+	}
+
+	private void await(long end) {
+		synchronized (sync) {
+			while (forced < end && !closed) {
+				try {
+					sync.wait();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted waiting for journal to sync", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The loop in the flusher thread: force everything written so far, then
+	 * release the writers that were waiting for it.
+	 */
+	private void flush() {
+		while (true) {
+			long start;
+			long end;
+			synchronized (sync) {
+				while (written == forced && !closed) {
+					try {
+						sync.wait();
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (written == forced) {
+					return;
+				}
+				start = forced;
+				end = written;
+			}
+			Segment segment;
+			long offset;
+			synchronized (this) {
+				// Anything before the current segment was forced when it was
+				// replaced
+				segment = journal;
+				offset = base;
+			}
+			if (end - offset > HEADER) {
+				segment.force(Math.max(start - offset, HEADER), end - offset);
+			}
+			synchronized (sync) {
+				forced = end;
+				sync.notifyAll();
+			}
+		}
+	}
+
+	private void doCompact() throws IOException {
+
+		List<Segment> old;
+		Segment snapshot;
+
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("Journal is closed: " + file);
+			}
+			old = new ArrayList<Segment>(segments.values());
+			// Start a new journal segment, making sure the old one is durable
+			// first
+			journal.force(HEADER, journal.position);
+			long end = base + journal.position;
+			journal = create(JOURNAL, 0);
+			base = end - HEADER;
+			snapshot = create(SNAPSHOT, journal.id);
+		}
+
+		ByteBuffer copy = ByteBuffer.allocate(regionSize);
+		Record record = new Record();
+		for (Segment segment : old) {
+			record.position = HEADER;
+			while (segment.read(record, false, segment.position)) {
+				if (record.type == PAUSE) {
+					copy.clear();
+					copy.limit(RECORD_HEADER + record.length);
+					ByteBuffer buffer = segment.region(record.position).duplicate();
+					buffer.position((int) (record.position % segment.regionSize));
+					buffer.limit(buffer.position() + copy.limit());
+					copy.put(buffer).flip();
+					synchronized (this) {
+						// Only copy the latest record (and not if it was
+						// removed since)
+						if (index.get(record.id) == location(segment, record.position)) {
+							index.put(record.id, location(snapshot, snapshot.write(copy)));
+						}
+					}
+				}
+				record.position += RECORD_HEADER + record.length;
+			}
+		}
+
+		snapshot.force(HEADER, snapshot.position);
+		snapshot.rename(file(snapshot.id, SNAPSHOT, false));
+
+		synchronized (this) {
+			for (Segment segment : old) {
+				segments.remove(segment.id);
+			}
+		}
+		for (Segment segment : old) {
+			segment.close();
+			segment.file.delete();
+		}
+
+	}
+
+	/**
+	 * Open the existing segments (if any), rebuild the index and get ready to
+	 * append to the last journal segment.
+	 * 
+	 * @return the region size
+	 */
+	private int recover(int regionSize) throws IOException {
+
+		File directory = file.getParentFile();
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return names.matcher(name).matches();
+			}
+		});
+
+		TreeMap<Integer, File> journals = new TreeMap<Integer, File>();
+		TreeMap<Integer, File> snapshots = new TreeMap<Integer, File>();
+		for (File candidate : files == null ? new File[0] : files) {
+			Matcher matcher = names.matcher(candidate.getName());
+			matcher.matches();
+			int id = Integer.parseInt(matcher.group(1));
+			nextId = Math.max(nextId, id + 1);
+			if (matcher.group(3) != null) {
+				// An incomplete snapshot
+				candidate.delete();
+			}
+			else if (JOURNAL.equals(matcher.group(2))) {
+				journals.put(id, candidate);
+			}
+			else {
+				snapshots.put(id, candidate);
+			}
+		}
+
+		Record record = new Record();
+
+		int first = 0;
+		if (!snapshots.isEmpty()) {
+			Segment snapshot = open(snapshots.lastEntry().getValue(), snapshots.lastKey());
+			regionSize = snapshot.regionSize;
+			first = snapshot.first;
+			long size = snapshot.channel.size();
+			record.position = HEADER;
+			while (snapshot.read(record, false, size)) {
+				index.put(record.id, location(snapshot, record.position));
+				record.position += RECORD_HEADER + record.length;
+			}
+			snapshot.position = record.position;
+			for (File other : snapshots.headMap(snapshots.lastKey()).values()) {
+				other.delete();
+			}
+		}
+		for (File other : journals.headMap(first).values()) {
+			// Already in the snapshot
+			other.delete();
+		}
+
+		for (Map.Entry<Integer, File> entry : journals.tailMap(first).entrySet()) {
+			Segment segment = open(entry.getValue(), entry.getKey());
+			regionSize = segment.regionSize;
+			long size = segment.channel.size();
+			record.position = HEADER;
+			while (segment.read(record, true, size)) {
+				if (record.type == PAUSE) {
+					index.put(record.id, location(segment, record.position));
+				}
+				else {
+					index.remove(record.id);
+				}
+				record.position += RECORD_HEADER + record.length;
+			}
+			segment.position = record.position;
+			journal = segment;
+		}
+
+		if (journal == null) {
+			journal = create(JOURNAL, 0, regionSize);
+		}
+		else {
+			// Anything after the last good record is discarded
+			journal.truncate();
+		}
+		base = -HEADER;
+		return regionSize;
+
+	}
+
+	private Segment create(String type, int first) throws IOException {
+		return create(type, first, regionSize);
+	}
+
+	private Segment create(String type, int first, int regionSize) throws IOException {
+		int id = nextId++;
+		Segment segment = new Segment(file(id, type, SNAPSHOT.equals(type)), id);
+		segment.create(regionSize, first);
+		segments.put(id, segment);
+		return segment;
+	}
+
+	private Segment open(File file, int id) throws IOException {
+		Segment segment = new Segment(file, id);
+		segment.open();
+		segments.put(id, segment);
+		return segment;
+	}
+
+	private File file(int id, String type, boolean temporary) {
+		return new File(file.getParentFile(), String.format("%s.%06d.%s%s", file.getName(), id, type,
+				temporary ? ".tmp" : ""));
+	}
+
+	private static long location(Segment segment, long position) {
+		return ((long) segment.id << POSITION_BITS) | position;
+	}
+
+	/**
+	 * The header of a record read from a segment.
+	 */
+	private static class Record {
+
+		private long position;
+
+		private int length;
+
+		private byte type;
+
+		private long id;
+
+		private byte[] body = new byte[256];
+
+		private final CRC32 crc = new CRC32();
+
+	}
+
+	/**
+	 * A file in the journal (either a segment of the log of changes or a
+	 * snapshot) made up of records in memory mapped regions.
+	 */
+	private static class Segment {
+
+		private final int id;
+
+		private File file;
+
+		private RandomAccessFile randomAccessFile;
+
+		private FileChannel channel;
+
+		private int regionSize;
+
+		/**
+		 * For a snapshot, the id of the first journal segment that is not
+		 * included.
+		 */
+		private int first;
+
+		private final List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+
+		/**
+		 * The position after the last record.
+		 */
+		private long position = HEADER;
+
+		public Segment(File file, int id) {
+			this.file = file;
+			this.id = id;
+		}
+
+		public void create(int regionSize, int first) throws IOException {
+			this.regionSize = regionSize;
+			this.first = first;
+			randomAccessFile = new RandomAccessFile(file, "rw");
+			channel = randomAccessFile.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.putInt(MAGIC).putInt(VERSION).putInt(regionSize).putInt(first).flip();
+			channel.write(header, 0);
+			channel.force(true);
+		}
+
+		public void open() throws IOException {
+			randomAccessFile = new RandomAccessFile(file, "rw");
+			channel = randomAccessFile.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			channel.read(header, 0);
+			header.flip();
+			if (header.remaining() < HEADER || header.getInt() != MAGIC) {
+				throw new IllegalStateException("Not a flow execution journal: " + file);
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IllegalStateException("Unsupported journal version=" + version + " in " + file);
+			}
+			regionSize = header.getInt();
+			first = header.getInt();
+		}
+
+		/**
+		 * Read the header of the record at the position (or the start of the
+		 * next region if there is no room for a record at the position).
+		 * 
+		 * @param record the record to read into (with its position set)
+		 * @param verify true if the checksum should be checked
+		 * @param limit the position to stop at
+		 * @return true if there is a complete record
+		 */
+		public boolean read(Record record, boolean verify, long limit) throws IOException {
+			while (record.position < limit) {
+				int offset = (int) (record.position % regionSize);
+				MappedByteBuffer buffer = region(record.position);
+				int length = buffer.getInt(offset);
+				if (length == END_OF_REGION) {
+					record.position += regionSize - offset;
+					continue;
+				}
+				if (length < BODY_HEADER || offset + RECORD_HEADER + length > regionSize) {
+					return false;
+				}
+				if (verify) {
+					if (record.body.length < length) {
+						record.body = new byte[Math.max(length, 2 * record.body.length)];
+					}
+					ByteBuffer body = buffer.duplicate();
+					body.position(offset + RECORD_HEADER);
+					body.get(record.body, 0, length);
+					record.crc.reset();
+					record.crc.update(record.body, 0, length);
+					if ((int) record.crc.getValue() != buffer.getInt(offset + 4)) {
+						return false;
+					}
+				}
+				record.length = length;
+				record.type = buffer.get(offset + RECORD_HEADER);
+				record.id = buffer.getLong(offset + RECORD_HEADER + 1);
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Write a record at the end of the segment, starting a new region if
+		 * it does not fit in the current one.
+		 * 
+		 * @param record a buffer containing the record
+		 * @return the position of the record
+		 */
+		public long write(ByteBuffer record) {
+			int total = record.remaining();
+			if (total > regionSize - HEADER - 4) {
+				throw new IllegalArgumentException("Record too large for journal region: " + total + " bytes");
+			}
+			int offset = (int) (position % regionSize);
+			if (offset + total > regionSize - 4) {
+				region(position).putInt(offset, END_OF_REGION);
+				position += regionSize - offset;
+				offset = 0;
+			}
+			ByteBuffer buffer = region(position).duplicate();
+			buffer.position(offset);
+			buffer.put(record);
+			long result = position;
+			position += total;
+			return result;
+		}
+
+		/**
+		 * Force the regions containing the range to disk.
+		 */
+		public void force(long start, long end) {
+			List<MappedByteBuffer> dirty = new ArrayList<MappedByteBuffer>();
+			synchronized (this) {
+				for (long region = start / regionSize; region <= (end - 1) / regionSize; region++) {
+					dirty.add(regions.get((int) region));
+				}
+			}
+			for (MappedByteBuffer buffer : dirty) {
+				buffer.force();
+			}
+		}
+
+		/**
+		 * Discard anything after the last record, so that a torn record
+		 * cannot be mistaken for a good one later.
+		 */
+		public void truncate() throws IOException {
+			ByteBuffer region = region(position).duplicate();
+			region.position((int) (position % regionSize));
+			byte[] zeros = new byte[4096];
+			while (region.hasRemaining()) {
+				region.put(zeros, 0, Math.min(zeros.length, region.remaining()));
+			}
+			int count = (int) (position / regionSize + 1);
+			synchronized (this) {
+				while (regions.size() > count) {
+					regions.remove(regions.size() - 1);
+				}
+			}
+			if (channel.size() > (long) count * regionSize) {
+				channel.truncate((long) count * regionSize);
+			}
+		}
+
+		public void rename(File target) throws IOException {
+			if (!file.renameTo(target)) {
+				throw new IOException("Could not rename " + file + " to " + target);
+			}
+			file = target;
+		}
+
+		public void close() throws IOException {
+			channel.close();
+			randomAccessFile.close();
+		}
+
+		/**
+		 * @return the region containing the position, mapping it if necessary
+		 */
+		public synchronized MappedByteBuffer region(long position) {
+			int region = (int) (position / regionSize);
+			while (regions.size() <= region) {
+				try {
+					regions.add(channel.map(MapMode.READ_WRITE, (long) regions.size() * regionSize, regionSize));
+				}
+				catch (IOException e) {
+					throw new IllegalStateException("Could not extend journal=" + file, e);
+				}
+			}
+			return regions.get(region);
+		}
+
+	}
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.repository;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive long values, with open addressing (linear probing), so
+ * that a large set of ids does not need a boxed {@link Long} and an entry
+ * object for each one. Not thread safe.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class LongHashSet {
+
+	private static final long EMPTY = 0L;
+
+	private long[] values;
+
+	private int mask;
+
+	private int size;
+
+	private boolean hasEmptyValue;
+
+	public LongHashSet() {
+		allocate(16);
+	}
+
+	public int size() {
+		return size + (hasEmptyValue ? 1 : 0);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public boolean contains(long value) {
+		if (value == EMPTY) {
+			return hasEmptyValue;
+		}
+		for (int slot = slot(value);; slot = (slot + 1) & mask) {
+			long current = values[slot];
+			if (current == value) {
+				return true;
+			}
+			if (current == EMPTY) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the value was not already present
+	 */
+	public boolean add(long value) {
+		if (value == EMPTY) {
+			boolean added = !hasEmptyValue;
+			hasEmptyValue = true;
+			return added;
+		}
+		for (int slot = slot(value);; slot = (slot + 1) & mask) {
+			long current = values[slot];
+			if (current == value) {
+				return false;
+			}
+			if (current == EMPTY) {
+				values[slot] = value;
+				if (++size > (mask + 1) / 2) {
+					resize();
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the value was present
+	 */
+	public boolean remove(long value) {
+		if (value == EMPTY) {
+			boolean removed = hasEmptyValue;
+			hasEmptyValue = false;
+			return removed;
+		}
+		for (int slot = slot(value);; slot = (slot + 1) & mask) {
+			long current = values[slot];
+			if (current == EMPTY) {
+				return false;
+			}
+			if (current == value) {
+				size--;
+				shift(slot);
+				return true;
+			}
+		}
+	}
+
+	public void clear() {
+		Arrays.fill(values, EMPTY);
+		size = 0;
+		hasEmptyValue = false;
+	}
+
+	/**
+	 * @return a copy of the values (in no particular order)
+	 */
+	public long[] toArray() {
+		long[] result = new long[size()];
+		int count = 0;
+		if (hasEmptyValue) {
+			result[count++] = EMPTY;
+		}
+		for (long value : values) {
+			if (value != EMPTY) {
+				result[count++] = value;
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		long[] values = toArray();
+		Arrays.sort(values);
+		return Arrays.toString(values);
+	}
+
+	/**
+	 * Close the gap left by a removed value, moving back any values further
+	 * along the probe sequence that would otherwise not be found.
+	 */
+	private void shift(int gap) {
+		for (int slot = (gap + 1) & mask;; slot = (slot + 1) & mask) {
+			long value = values[slot];
+			if (value == EMPTY) {
+				break;
+			}
+			int home = slot(value);
+			// Move the value if its home is not between the gap and its slot
+			if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+				values[gap] = value;
+				gap = slot;
+			}
+		}
+		values[gap] = EMPTY;
+	}
+
+	private void resize() {
+		long[] old = values;
+		allocate(values.length * 2);
+		size = 0;
+		for (long value : old) {
+			if (value != EMPTY) {
+				add(value);
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		values = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	private int slot(long value) {
+		long hash = value * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+}
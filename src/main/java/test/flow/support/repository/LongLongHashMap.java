@@ -0,0 +1,206 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.repository;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive long keys to primitive long values, with open
+ * addressing (linear probing), so that millions of entries do not need
+ * millions of boxed keys and entry objects. Not thread safe.
+ * 
+ * @author Dave Syer
+ * 
+ */
+class LongLongHashMap {
+
+	private static final long EMPTY = 0L;
+
+	private final long missing;
+
+	private long[] keys;
+
+	private long[] values;
+
+	private int mask;
+
+	private int size;
+
+	private boolean hasEmptyKey;
+
+	private long emptyKeyValue;
+
+	/**
+	 * @param missing the value returned for a key that is not present
+	 */
+	public LongLongHashMap(long missing) {
+		this.missing = missing;
+		allocate(16);
+	}
+
+	public int size() {
+		return size + (hasEmptyKey ? 1 : 0);
+	}
+
+	public long get(long key) {
+		if (key == EMPTY) {
+			return hasEmptyKey ? emptyKeyValue : missing;
+		}
+		for (int slot = slot(key);; slot = (slot + 1) & mask) {
+			long current = keys[slot];
+			if (current == key) {
+				return values[slot];
+			}
+			if (current == EMPTY) {
+				return missing;
+			}
+		}
+	}
+
+	public boolean containsKey(long key) {
+		if (key == EMPTY) {
+			return hasEmptyKey;
+		}
+		for (int slot = slot(key);; slot = (slot + 1) & mask) {
+			long current = keys[slot];
+			if (current == key) {
+				return true;
+			}
+			if (current == EMPTY) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * @return the previous value (or the missing value)
+	 */
+	public long put(long key, long value) {
+		if (key == EMPTY) {
+			long old = hasEmptyKey ? emptyKeyValue : missing;
+			hasEmptyKey = true;
+			emptyKeyValue = value;
+			return old;
+		}
+		for (int slot = slot(key);; slot = (slot + 1) & mask) {
+			long current = keys[slot];
+			if (current == key) {
+				long old = values[slot];
+				values[slot] = value;
+				return old;
+			}
+			if (current == EMPTY) {
+				keys[slot] = key;
+				values[slot] = value;
+				if (++size > (mask + 1) / 2) {
+					resize();
+				}
+				return missing;
+			}
+		}
+	}
+
+	/**
+	 * @return the previous value (or the missing value)
+	 */
+	public long remove(long key) {
+		if (key == EMPTY) {
+			long old = hasEmptyKey ? emptyKeyValue : missing;
+			hasEmptyKey = false;
+			return old;
+		}
+		for (int slot = slot(key);; slot = (slot + 1) & mask) {
+			long current = keys[slot];
+			if (current == EMPTY) {
+				return missing;
+			}
+			if (current == key) {
+				long old = values[slot];
+				size--;
+				shift(slot);
+				return old;
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the keys (in no particular order)
+	 */
+	public long[] keys() {
+		long[] result = new long[size()];
+		int count = 0;
+		if (hasEmptyKey) {
+			result[count++] = EMPTY;
+		}
+		for (long key : keys) {
+			if (key != EMPTY) {
+				result[count++] = key;
+			}
+		}
+		return result;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+		hasEmptyKey = false;
+	}
+
+	/**
+	 * Close the gap left by a removed entry, moving back any entries further
+	 * along the probe sequence that would otherwise not be found.
+	 */
+	private void shift(int gap) {
+		for (int slot = (gap + 1) & mask;; slot = (slot + 1) & mask) {
+			long key = keys[slot];
+			if (key == EMPTY) {
+				break;
+			}
+			int home = slot(key);
+			// Move the entry if its home is not between the gap and its slot
+			if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+				keys[gap] = key;
+				values[gap] = values[slot];
+				gap = slot;
+			}
+		}
+		keys[gap] = EMPTY;
+	}
+
+	private void resize() {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		allocate(keys.length * 2);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	private int slot(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+}
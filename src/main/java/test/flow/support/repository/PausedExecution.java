@@ -0,0 +1,64 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.repository;
+
+/**
+ * A paused flow execution, as stored in a {@link FlowExecutionRepository}.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class PausedExecution<S> {
+
+	private final long id;
+
+	private final Object memento;
+
+	private final S event;
+
+	public PausedExecution(long id, Object memento, S event) {
+		this.id = id;
+		this.memento = memento;
+		this.event = event;
+	}
+
+	/**
+	 * @return the id of the execution
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * @return the memento of the state where the execution paused
+	 */
+	public Object getMemento() {
+		return memento;
+	}
+
+	/**
+	 * @return the last event
+	 */
+	public S getEvent() {
+		return event;
+	}
+
+	@Override
+	public String toString() {
+		return "PausedExecution: id=" + id + ", memento=" + memento + ", event=" + event;
+	}
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.repository;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import test.flow.support.FlowDefinitionException;
+import test.flow.support.MementoStateLocator;
+import test.flow.support.StateLocator;
+
+/**
+ * An index of paused executions by the state that they paused in, so that the
+ * executions waiting for a given trigger in a given state can be found
+ * without a scan. The triggers for a state are the ones reported by
+ * {@link StateLocator#getTriggers(String)} (so for a transition with a
+ * pattern the trigger is the pattern, not the events that match it). The ids
+ * for each state are held in a {@link LongHashSet}.<br/>
+ * <br/>
+ * 
+ * Thread safe: changes for different executions can be made concurrently,
+ * but changes for the same execution should be made in the order that they
+ * happened (e.g. by the thread that resumed it).
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class WaitIndex {
+
+	private static final int STRIPES = 16;
+
+	private static final long[] NONE = new long[0];
+
+	private final MementoStateLocator<?, ?> locator;
+
+	private final ConcurrentMap<String, Waiters> waiters = new ConcurrentHashMap<String, Waiters>();
+
+	/**
+	 * The waiters for each state by number.
+	 */
+	private final List<Waiters> numbers = new CopyOnWriteArrayList<Waiters>();
+
+	/**
+	 * The number of the state that each execution is waiting in, split into
+	 * stripes by id (so that changes for different executions do not
+	 * contend).
+	 */
+	private final LongLongHashMap[] stripes = new LongLongHashMap[STRIPES];
+
+	/**
+	 * @param locator the flow that the executions belong to
+	 */
+	public WaitIndex(MementoStateLocator<?, ?> locator) {
+		this.locator = locator;
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new LongLongHashMap(-1);
+		}
+	}
+
+	/**
+	 * Record that an execution has paused (replacing any previous state that
+	 * it was waiting in).
+	 * 
+	 * @param id the id of the execution
+	 * @param memento the memento from the result of the execution
+	 * @throws FlowDefinitionException if there is no state for the memento
+	 */
+	public void paused(long id, Object memento) throws FlowDefinitionException {
+		Waiters target = getWaiters(locator.getStateName(memento));
+		LongLongHashMap stripe = stripe(id);
+		synchronized (stripe) {
+			long previous = stripe.put(id, target.number);
+			if (previous == target.number) {
+				return;
+			}
+			if (previous >= 0) {
+				numbers.get((int) previous).remove(id);
+			}
+			target.add(id);
+		}
+	}
+
+	/**
+	 * Record that an execution is no longer paused (e.g. because it
+	 * completed).
+	 * 
+	 * @param id the id of the execution
+	 */
+	public void removed(long id) {
+		LongLongHashMap stripe = stripe(id);
+		synchronized (stripe) {
+			long previous = stripe.remove(id);
+			if (previous >= 0) {
+				numbers.get((int) previous).remove(id);
+			}
+		}
+	}
+
+	/**
+	 * @param state the name of a state
+	 * @param trigger one of the triggers for the state
+	 * @return a copy of the ids of the executions waiting for the trigger in
+	 * the state (in no particular order)
+	 */
+	public long[] getWaiting(String state, String trigger) {
+		Waiters waiters = find(state, trigger);
+		return waiters == null ? NONE : waiters.toArray();
+	}
+
+	/**
+	 * @param state the name of a state
+	 * @param trigger one of the triggers for the state
+	 * @return the number of executions waiting for the trigger in the state
+	 */
+	public int getWaitingCount(String state, String trigger) {
+		Waiters waiters = find(state, trigger);
+		return waiters == null ? 0 : waiters.size();
+	}
+
+	/**
+	 * @param id the id of an execution
+	 * @param state the name of a state
+	 * @param trigger one of the triggers for the state
+	 * @return true if the execution is waiting for the trigger in the state
+	 */
+	public boolean isWaiting(long id, String state, String trigger) {
+		Waiters waiters = find(state, trigger);
+		return waiters != null && waiters.contains(id);
+	}
+
+	private Waiters find(String state, String trigger) {
+		Waiters waiters = this.waiters.get(state);
+		if (waiters == null || !waiters.triggers.contains(trigger)) {
+			return null;
+		}
+		return waiters;
+	}
+
+	private Waiters getWaiters(String state) {
+		Waiters result = waiters.get(state);
+		if (result != null) {
+			return result;
+		}
+		synchronized (numbers) {
+			result = waiters.get(state);
+			if (result == null) {
+				result = new Waiters(numbers.size(), getTriggers(state));
+				numbers.add(result);
+				waiters.put(state, result);
+			}
+			return result;
+		}
+	}
+
+	private Set<String> getTriggers(String state) {
+		try {
+			return new HashSet<String>(locator.getTriggers(state));
+		}
+		catch (FlowDefinitionException e) {
+			// No transitions, so nothing to wait for
+			return Collections.emptySet();
+		}
+	}
+
+	private LongLongHashMap stripe(long id) {
+		return stripes[(int) ((id ^ (id >>> 32)) & (STRIPES - 1))];
+	}
+
+	/**
+	 * The executions waiting in one state.
+	 */
+	private static class Waiters {
+
+		private final int number;
+
+		private final Set<String> triggers;
+
+		private final LongHashSet ids = new LongHashSet();
+
+		public Waiters(int number, Collection<String> triggers) {
+			this.number = number;
+			this.triggers = Collections.unmodifiableSet(new HashSet<String>(triggers));
+		}
+
+		public synchronized void add(long id) {
+			ids.add(id);
+		}
+
+		public synchronized void remove(long id) {
+			ids.remove(id);
+		}
+
+		public synchronized boolean contains(long id) {
+			return ids.contains(id);
+		}
+
+		public synchronized int size() {
+			return ids.size();
+		}
+
+		public synchronized long[] toArray() {
+			return ids.toArray();
+		}
+
+	}
+
+}
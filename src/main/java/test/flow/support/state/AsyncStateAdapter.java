@@ -0,0 +1,75 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+import java.util.concurrent.Callable;
+
+import org.springframework.core.task.AsyncListenableTaskExecutor;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import test.flow.support.AsyncState;
+import test.flow.support.State;
+
+/**
+ * An {@link AsyncState} that adapts a synchronous {@link State} by handing it
+ * off to a {@link AsyncListenableTaskExecutor}. Useful for states that block
+ * (e.g. for I/O), so that an asynchronous flow only ties up a thread from the
+ * executor while they are running. The name and pause flag are those of the
+ * delegate.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class AsyncStateAdapter<T, S> extends AbstractState<T, S> implements AsyncState<T, S> {
+
+	private final State<T, S> delegate;
+
+	private final AsyncListenableTaskExecutor taskExecutor;
+
+	/**
+	 * @param delegate the state to delegate to
+	 * @param taskExecutor the executor to run the delegate in
+	 */
+	public AsyncStateAdapter(State<T, S> delegate, AsyncListenableTaskExecutor taskExecutor) {
+		super(delegate.getName(), delegate.isPause());
+		this.delegate = delegate;
+		this.taskExecutor = taskExecutor;
+	}
+
+	/**
+	 * Call the delegate directly (in the current thread).
+	 * 
+	 * @see State#handle(Object)
+	 */
+	@Override
+	public S handle(T context) throws Exception {
+		return delegate.handle(context);
+	}
+
+	/**
+	 * Submit the delegate to the task executor.
+	 * 
+	 * @see AsyncState#handleAsync(Object)
+	 */
+	public ListenableFuture<S> handleAsync(final T context) {
+		return taskExecutor.submitListenable(new Callable<S>() {
+			public S call() throws Exception {
+				return delegate.handle(context);
+			}
+		});
+	}
+
+}
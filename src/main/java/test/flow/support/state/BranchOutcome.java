@@ -0,0 +1,75 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+import java.io.Serializable;
+
+/**
+ * The outcome of one of the flows in a {@link SplitState}, as recorded in a
+ * {@link SplitRepository}. Serializable as long as the memento and the event
+ * are.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class BranchOutcome<S> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Object memento;
+
+	private final S event;
+
+	private final boolean complete;
+
+	/**
+	 * @param memento the memento of the last state of the flow
+	 * @param event the last event
+	 * @param complete true if the flow completed (false if it paused)
+	 */
+	public BranchOutcome(Object memento, S event, boolean complete) {
+		this.memento = memento;
+		this.event = event;
+		this.complete = complete;
+	}
+
+	/**
+	 * @return the memento
+	 */
+	public Object getMemento() {
+		return memento;
+	}
+
+	/**
+	 * @return the event
+	 */
+	public S getEvent() {
+		return event;
+	}
+
+	/**
+	 * @return true if the flow completed
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	@Override
+	public String toString() {
+		return "BranchOutcome: memento=" + memento + ", event=" + event + ", complete=" + complete;
+	}
+
+}
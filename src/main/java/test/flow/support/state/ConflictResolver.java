@@ -0,0 +1,39 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+/**
+ * Strategy for merging two changes to the same key made by different flows
+ * in a split (see {@link CopyOnWriteSplitAdapter}).
+ * 
+ * @author Dave Syer
+ * 
+ */
+public interface ConflictResolver<K, V> {
+
+	/**
+	 * Resolve a conflict between two changes to the same key. A removal is
+	 * represented by a null value.
+	 * 
+	 * @param key the key that was changed
+	 * @param first the value from the flow that was aggregated first
+	 * @param second the value from the other flow
+	 * @return the value to keep (or null to remove the key)
+	 * @throws IllegalStateException if the conflict cannot be resolved
+	 */
+	V resolve(K key, V first, V second);
+
+}
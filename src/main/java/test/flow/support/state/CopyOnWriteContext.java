@@ -0,0 +1,227 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map that shares the data of a parent map and records its own changes in
+ * an overlay, for the contexts of the flows in a split (see
+ * {@link CopyOnWriteSplitAdapter}). Reads fall through to the parent unless
+ * the key has been changed, and writes and removals only touch the overlay,
+ * so a child costs memory in proportion to its changes, not to the size of
+ * the parent. The parent must not be changed while the children are in use.
+ * Not thread safe (like a {@link HashMap}), but different children of the
+ * same parent can be used in different threads.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class CopyOnWriteContext<K, V> extends AbstractMap<K, V> {
+
+	private final Map<K, V> parent;
+
+	private final Map<K, V> writes = new HashMap<K, V>();
+
+	private final Set<K> removals = new HashSet<K>();
+
+	private int size;
+
+	/**
+	 * @param parent the map to share
+	 */
+	public CopyOnWriteContext(Map<K, V> parent) {
+		this.parent = parent;
+		this.size = parent.size();
+	}
+
+	/**
+	 * @return the parent
+	 */
+	public Map<K, V> getParent() {
+		return parent;
+	}
+
+	/**
+	 * @return the entries that were added or changed in this map
+	 */
+	public Map<K, V> getWrites() {
+		return Collections.unmodifiableMap(writes);
+	}
+
+	/**
+	 * @return the keys that were removed from the parent in this map
+	 */
+	public Set<K> getRemovals() {
+		return Collections.unmodifiableSet(removals);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (writes.containsKey(key)) {
+			return true;
+		}
+		return !removals.contains(key) && parent.containsKey(key);
+	}
+
+	@Override
+	public V get(Object key) {
+		if (writes.containsKey(key)) {
+			return writes.get(key);
+		}
+		return removals.contains(key) ? null : parent.get(key);
+	}
+
+	@Override
+	public V put(K key, V value) {
+		boolean present = containsKey(key);
+		V old = get(key);
+		removals.remove(key);
+		writes.put(key, value);
+		if (!present) {
+			size++;
+		}
+		return old;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V remove(Object key) {
+		if (!containsKey(key)) {
+			return null;
+		}
+		V old = get(key);
+		writes.remove(key);
+		if (parent.containsKey(key)) {
+			removals.add((K) key);
+		}
+		size--;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		writes.clear();
+		removals.addAll(parent.keySet());
+		size = 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return new AbstractSet<Entry<K, V>>() {
+
+			@Override
+			public Iterator<Entry<K, V>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+		};
+	}
+
+	/**
+	 * Iterates over the changed entries, and then the ones in the parent that
+	 * were not changed. Removing an entry, or setting its value, changes this
+	 * map (never the parent). The changed keys are copied when the iteration
+	 * starts, so that the overlay can change underneath it.
+	 */
+	private class EntryIterator implements Iterator<Entry<K, V>> {
+
+		private final Iterator<K> written = new ArrayList<K>(writes.keySet()).iterator();
+
+		private final Iterator<Entry<K, V>> inherited = parent.entrySet().iterator();
+
+		private Entry<K, V> next;
+
+		private Entry<K, V> last;
+
+		public boolean hasNext() {
+			if (next != null) {
+				return true;
+			}
+			while (written.hasNext()) {
+				K key = written.next();
+				if (writes.containsKey(key)) {
+					next = new ContextEntry(key, writes.get(key));
+					return true;
+				}
+			}
+			while (inherited.hasNext()) {
+				Entry<K, V> entry = inherited.next();
+				if (!writes.containsKey(entry.getKey()) && !removals.contains(entry.getKey())) {
+					next = new ContextEntry(entry.getKey(), entry.getValue());
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public Entry<K, V> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			last = next;
+			next = null;
+			return last;
+		}
+
+		public void remove() {
+			if (last == null) {
+				throw new IllegalStateException("No entry to remove");
+			}
+			CopyOnWriteContext.this.remove(last.getKey());
+			last = null;
+		}
+
+	}
+
+	/**
+	 * An entry that writes its value back to the map.
+	 */
+	@SuppressWarnings("serial")
+	private class ContextEntry extends SimpleEntry<K, V> {
+
+		public ContextEntry(K key, V value) {
+			super(key, value);
+		}
+
+		@Override
+		public V setValue(V value) {
+			put(getKey(), value);
+			return super.setValue(value);
+		}
+
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.springframework.util.ObjectUtils;
+
+/**
+ * A {@link SplitAdapter} for map contexts that gives each flow a
+ * {@link CopyOnWriteContext} sharing the parent, instead of a copy. When the
+ * flows have finished only their changes are merged back into the parent. If
+ * two flows change the same key (to different values) the
+ * {@link ConflictResolver} decides what to keep. By default a conflict is an
+ * error. A null value is treated the same as a removal.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class CopyOnWriteSplitAdapter<K, V, S> implements SplitAdapter<Map<K, V>, S> {
+
+	private ConflictResolver<K, V> conflictResolver = failOnConflict();
+
+	/**
+	 * Public setter for the conflict resolver.
+	 * @param conflictResolver the conflict resolver to set
+	 */
+	public void setConflictResolver(ConflictResolver<K, V> conflictResolver) {
+		this.conflictResolver = conflictResolver;
+	}
+
+	/**
+	 * @see SplitAdapter#create(Object)
+	 */
+	public Map<K, V> create(Map<K, V> parent) {
+		return new CopyOnWriteContext<K, V>(parent);
+	}
+
+	/**
+	 * Merge the changes from the children and apply them to the parent.
+	 * 
+	 * @see SplitAdapter#aggregate(Object, Collection)
+	 */
+	public void aggregate(Map<K, V> parent, Collection<Map<K, V>> children) {
+
+		Map<K, V> changes = new LinkedHashMap<K, V>();
+		for (Map<K, V> child : children) {
+			if (!(child instanceof CopyOnWriteContext)) {
+				throw new IllegalArgumentException("Child context was not created by this adapter: " + child);
+			}
+			CopyOnWriteContext<K, V> context = (CopyOnWriteContext<K, V>) child;
+			for (Entry<K, V> entry : context.getWrites().entrySet()) {
+				merge(changes, entry.getKey(), entry.getValue());
+			}
+			for (K key : context.getRemovals()) {
+				merge(changes, key, null);
+			}
+		}
+
+		for (Entry<K, V> entry : changes.entrySet()) {
+			if (entry.getValue() == null) {
+				parent.remove(entry.getKey());
+			}
+			else {
+				parent.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+	}
+
+	private void merge(Map<K, V> changes, K key, V value) {
+		if (changes.containsKey(key)) {
+			V first = changes.get(key);
+			if (!ObjectUtils.nullSafeEquals(first, value)) {
+				value = conflictResolver.resolve(key, first, value);
+			}
+		}
+		changes.put(key, value);
+	}
+
+	/**
+	 * @return a resolver that fails with an {@link IllegalStateException}
+	 */
+	public static <K, V> ConflictResolver<K, V> failOnConflict() {
+		return new ConflictResolver<K, V>() {
+			public V resolve(K key, V first, V second) {
+				throw new IllegalStateException("Conflicting changes in split flows for key=" + key + ": " + first
+						+ ", " + second);
+			}
+		};
+	}
+
+	/**
+	 * @return a resolver that keeps the change from the flow that was
+	 * aggregated first
+	 */
+	public static <K, V> ConflictResolver<K, V> firstWins() {
+		return new ConflictResolver<K, V>() {
+			public V resolve(K key, V first, V second) {
+				return first;
+			}
+		};
+	}
+
+	/**
+	 * @return a resolver that keeps the change from the flow that was
+	 * aggregated last
+	 */
+	public static <K, V> ConflictResolver<K, V> lastWins() {
+		return new ConflictResolver<K, V>() {
+			public V resolve(K key, V first, V second) {
+				return second;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Strategy interface for a {@link ForEachSplitState}: finds the work items in
+ * the context and creates a context for each chunk of them, then aggregates
+ * the results back into the parent.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public interface ForEachAdapter<T, I> {
+
+	/**
+	 * @param parent the parent context
+	 * @return the work items (can be empty, but not null)
+	 */
+	Collection<I> getItems(T parent);
+
+	/**
+	 * Factory method for the contexts of the flows that process the items.
+	 * 
+	 * @param parent the parent context
+	 * @param chunk the items for one flow
+	 * @return a new context for the chunk
+	 */
+	T create(T parent, List<I> chunk);
+
+	/**
+	 * Aggregate a collection of contexts into their parent.
+	 * 
+	 * @param parent the parent (output)
+	 * @param children the contexts to aggregate
+	 */
+	void aggregate(T parent, Collection<T> children);
+
+}
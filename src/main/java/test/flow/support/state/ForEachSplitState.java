@@ -0,0 +1,245 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import test.flow.Flow;
+import test.flow.FlowExecutionException;
+import test.flow.FlowResult;
+import test.flow.support.AsyncState;
+import test.flow.support.State;
+import test.flow.support.task.Bulkhead;
+
+/**
+ * A {@link State} implementation that runs the same {@link Flow} once for
+ * each chunk of the work items found in the context (e.g. partitions, files
+ * or customer ids), in parallel. It is a dynamic version of a
+ * {@link SplitState}: each execution splits into as many flows as there are
+ * chunks, and the results are aggregated in the same way (the results with a
+ * {@link SplitAggregator} and the contexts with the
+ * {@link ForEachAdapter}).
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class ForEachSplitState<T, S, I> extends AbstractState<T, S> implements AsyncState<T, S> {
+
+	private final Flow<T, S> flow;
+
+	private final ForEachAdapter<T, I> adapter;
+
+	private TaskExecutor taskExecutor = new SyncTaskExecutor();
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private SplitAggregator<S> aggregator = new MaxValueSplitAggregator();
+
+	private Collection<S> failFastEvents;
+
+	private long timeout;
+
+	private long branchTimeout;
+
+	private S timeoutEvent;
+
+	private int chunkSize = 1;
+
+	private int parallelism;
+
+	/**
+	 * @param name the name of the state
+	 * @param flow the flow to run for each chunk of items
+	 * @param adapter a business adapter to find the items and create the
+	 * contexts
+	 */
+	public ForEachSplitState(String name, Flow<T, S> flow, ForEachAdapter<T, I> adapter) {
+		super(name);
+		this.flow = flow;
+		this.adapter = adapter;
+	}
+
+	/**
+	 * Public setter for the taskExecutor.
+	 * @param taskExecutor the taskExecutor to set
+	 */
+	public void setTaskExecutor(TaskExecutor taskExecutor) {
+		this.taskExecutor = taskExecutor;
+	}
+
+	/**
+	 * The aggregator for the results of the flows (see
+	 * {@link SplitState#setAggregator(SplitAggregator)}). If there might be
+	 * no items, use one that has a result for an empty collection. Default is
+	 * a {@link MaxValueSplitAggregator} with no top value.
+	 * 
+	 * @param aggregator the aggregator to set
+	 */
+	public void setAggregator(SplitAggregator<S> aggregator) {
+		this.aggregator = aggregator;
+	}
+
+	/**
+	 * @param failFastEvents the events that decide the outcome of the split
+	 * 
+	 * @see SplitState#setFailFastEvents(Collection)
+	 */
+	public void setFailFastEvents(Collection<S> failFastEvents) {
+		this.failFastEvents = failFastEvents;
+	}
+
+	/**
+	 * @param timeout the timeout to set
+	 * 
+	 * @see SplitState#setTimeout(long)
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @param branchTimeout the branch timeout to set
+	 * 
+	 * @see SplitState#setBranchTimeout(long)
+	 */
+	public void setBranchTimeout(long branchTimeout) {
+		this.branchTimeout = branchTimeout;
+	}
+
+	/**
+	 * @param timeoutEvent the timeout event to set
+	 * 
+	 * @see SplitState#setTimeoutEvent(Object)
+	 */
+	public void setTimeoutEvent(S timeoutEvent) {
+		this.timeoutEvent = timeoutEvent;
+	}
+
+	/**
+	 * The maximum number of items processed by each flow. Default 1.
+	 * 
+	 * @param chunkSize the chunk size to set
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be positive");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * The maximum number of flows from one execution of this state that run at
+	 * once in the {@link #setTaskExecutor(TaskExecutor) task executor}. The
+	 * others wait in a queue. Default 0 (no limit other than the executor).
+	 * 
+	 * @param parallelism the parallelism to set
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Find the items in the context and process them in chunks, waiting for
+	 * all the chunks to finish.
+	 * 
+	 * @see SplitState#handle(Object)
+	 */
+	@Override
+	public S handle(T context) throws Exception {
+		return createSplit(context).handle(context);
+	}
+
+	/**
+	 * Find the items in the context and process them in chunks, without
+	 * waiting.
+	 * 
+	 * @see SplitState#handleAsync(Object)
+	 */
+	public ListenableFuture<S> handleAsync(T context) throws Exception {
+		return createSplit(context).handleAsync(context);
+	}
+
+	/**
+	 * Create a split for one execution, with a flow for each chunk of items.
+	 * 
+	 * @param context the parent context
+	 * @return a split state
+	 */
+	private SplitState<T, S> createSplit(T context) {
+
+		List<I> items = new ArrayList<I>(adapter.getItems(context));
+		List<Flow<T, S>> flows = new ArrayList<Flow<T, S>>();
+		for (int start = 0; start < items.size(); start += chunkSize) {
+			List<I> chunk = items.subList(start, Math.min(start + chunkSize, items.size()));
+			flows.add(new ChunkFlow(flows.size(), Collections.unmodifiableList(chunk)));
+		}
+
+		SplitState<T, S> split = new SplitState<T, S>(getName(), flows, new SplitAdapter<T, S>() {
+			public T create(T parent) {
+				// The chunk flows create their own contexts
+				return parent;
+			}
+
+			public void aggregate(T parent, Collection<T> children) {
+				adapter.aggregate(parent, children);
+			}
+		});
+		split.setTaskExecutor(parallelism > 0 && parallelism < flows.size() ? new Bulkhead(getName(), taskExecutor,
+				parallelism) : taskExecutor);
+		split.setAggregator(aggregator);
+		split.setFailFastEvents(failFastEvents);
+		split.setTimeout(timeout);
+		split.setBranchTimeout(branchTimeout);
+		split.setTimeoutEvent(timeoutEvent);
+		return split;
+
+	}
+
+	/**
+	 * Runs the flow for one chunk of items, in a new context.
+	 */
+	private class ChunkFlow implements Flow<T, S> {
+
+		private final int index;
+
+		private final List<I> chunk;
+
+		public ChunkFlow(int index, List<I> chunk) {
+			this.index = index;
+			this.chunk = chunk;
+		}
+
+		public String getName() {
+			return flow.getName() + "[" + index + "]";
+		}
+
+		public FlowResult<T, S> start(T parent) throws FlowExecutionException {
+			return flow.start(adapter.create(parent, chunk));
+		}
+
+		public FlowResult<T, S> resume(Object memento, T context, S event) throws FlowExecutionException {
+			return flow.resume(memento, adapter.create(context, chunk), event);
+		}
+
+	}
+
+}
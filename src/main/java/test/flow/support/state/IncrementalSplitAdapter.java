@@ -0,0 +1,39 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+/**
+ * A {@link SplitAdapter} that can aggregate child contexts into their parent
+ * one at a time, as the flows in a split finish, so that the split does not
+ * need to keep all of them until the end. Calls to
+ * {@link #accumulate(Object, Object)} for the same parent are serialized by
+ * the caller, and {@link #aggregate(Object, java.util.Collection)} is not
+ * called.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public interface IncrementalSplitAdapter<T, S> extends SplitAdapter<T, S> {
+
+	/**
+	 * Aggregate a child context into its parent.
+	 * 
+	 * @param parent the parent (output)
+	 * @param child the context of a flow that has finished
+	 */
+	void accumulate(T parent, T child);
+
+}
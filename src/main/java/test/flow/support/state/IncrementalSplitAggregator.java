@@ -0,0 +1,61 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+/**
+ * A {@link SplitAggregator} that can aggregate results one at a time, as the
+ * flows in a split finish, and can tell when the outcome is decided before
+ * all of them have finished. A {@link SplitState} with an incremental
+ * aggregator stops waiting (and cancels the flows that are still running) as
+ * soon as the outcome is final.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public interface IncrementalSplitAggregator<S> extends SplitAggregator<S> {
+
+	/**
+	 * Create an accumulator for the results of one execution of a split.
+	 * 
+	 * @return a new accumulator
+	 */
+	Accumulator<S> createAccumulator();
+
+	/**
+	 * The state of an aggregation in progress. Calls to an accumulator are
+	 * serialized by the caller, so it does not need to be thread safe.
+	 */
+	interface Accumulator<S> {
+
+		/**
+		 * @param result the result of one of the flows
+		 */
+		void accumulate(S result);
+
+		/**
+		 * @return true if the aggregate cannot change, whatever the results of
+		 * the remaining flows
+		 */
+		boolean isFinal();
+
+		/**
+		 * @return the aggregate of the results so far
+		 */
+		S getResult();
+
+	}
+
+}
@@ -16,22 +16,39 @@
 package test.flow.support.state;
 
 import java.util.Collection;
-import java.util.Collections;
 
 /**
+ * Aggregates the results of a split by taking the highest. If the highest
+ * possible value is known it can be provided as the top value, and then the
+ * aggregate is final as soon as one flow returns it. A null result (e.g.
+ * from a flow that ended without an event) is lower than any other, so the
+ * aggregate is only null if all the results are null.
+ * 
  * @author Dave Syer
  * 
  */
-public class MaxValueSplitAggregator<S extends Comparable<S>> implements SplitAggregator<S> {
+public class MaxValueSplitAggregator<S extends Comparable<S>> implements IncrementalSplitAggregator<S> {
 
 	private final S unknown;
 
+	private final S top;
+
 	public MaxValueSplitAggregator() {
 		this(null);
 	}
 
 	public MaxValueSplitAggregator(S unknown) {
+		this(unknown, null);
+	}
+
+	/**
+	 * @param unknown the result if there is nothing to aggregate (if null
+	 * that is an error)
+	 * @param top the highest possible value (or null if not known)
+	 */
+	public MaxValueSplitAggregator(S unknown, S top) {
 		this.unknown = unknown;
+		this.top = top;
 	}
 
 	/**
@@ -48,7 +65,49 @@ public class MaxValueSplitAggregator<S extends Comparable<S>> implements SplitAg
 
 		}
 
-		return Collections.max(executions);
+		S max = null;
+		for (S execution : executions) {
+			max = max(max, execution);
+		}
+		return max;
+
+	}
+
+	/**
+	 * @see IncrementalSplitAggregator#createAccumulator()
+	 */
+	public Accumulator<S> createAccumulator() {
+		return new MaxValueAccumulator();
+	}
+
+	private S max(S max, S result) {
+		if (result == null) {
+			return max;
+		}
+		return max == null || result.compareTo(max) > 0 ? result : max;
+	}
+
+	private class MaxValueAccumulator implements Accumulator<S> {
+
+		private S max;
+
+		private boolean empty = true;
+
+		public void accumulate(S result) {
+			empty = false;
+			max = max(max, result);
+		}
+
+		public boolean isFinal() {
+			return top != null && max != null && max.compareTo(top) >= 0;
+		}
+
+		public S getResult() {
+			if (empty) {
+				return aggregate(null);
+			}
+			return max;
+		}
 
 	}
 
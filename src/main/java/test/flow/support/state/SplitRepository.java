@@ -0,0 +1,55 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+/**
+ * Stores the outcomes of the flows in a {@link SplitState}, so that if the
+ * split is executed again after a failure the flows that already completed
+ * do not have to run again. The context is passed in so that implementations
+ * can store the outcomes with it (e.g. in a batch job execution).
+ * 
+ * @author Dave Syer
+ * 
+ */
+public interface SplitRepository<T, S> {
+
+	/**
+	 * @param context the parent context of the split
+	 * @param split the name of the split
+	 * @param flow the name of the flow (unique in the split)
+	 * @return the outcome recorded for the flow (or null if there is none)
+	 */
+	BranchOutcome<S> getOutcome(T context, String split, String flow);
+
+	/**
+	 * Record the outcome of a flow that completed or paused.
+	 * 
+	 * @param context the parent context of the split
+	 * @param split the name of the split
+	 * @param flow the name of the flow (unique in the split)
+	 * @param outcome the outcome to record
+	 */
+	void saveOutcome(T context, String split, String flow, BranchOutcome<S> outcome);
+
+	/**
+	 * Remove all the outcomes for a split (e.g. because it succeeded).
+	 * 
+	 * @param context the parent context of the split
+	 * @param split the name of the split
+	 */
+	void clear(T context, String split);
+
+}
@@ -17,26 +17,75 @@ package test.flow.support.state;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.springframework.core.task.SyncTaskExecutor;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.util.concurrent.ListenableFutureTask;
+import org.springframework.util.concurrent.SettableListenableFuture;
 
 import test.flow.Flow;
 import test.flow.FlowExecutionException;
 import test.flow.FlowResult;
+import test.flow.support.AsyncState;
+import test.flow.support.Deadline;
 import test.flow.support.State;
+import test.flow.support.state.IncrementalSplitAggregator.Accumulator;
+import test.flow.support.task.Bulkhead;
+import test.flow.support.task.ForkJoinTaskExecutor;
 
 /**
  * A {@link State} implementation that splits a {@link Flow} into multiple
- * parallel subflows.
+ * parallel subflows. It is also an {@link AsyncState}, so an asynchronous flow
+ * can carry on when the subflows finish instead of waiting for them.
  * 
  * @author Dave Syer
  * 
  */
-public class SplitState<T, S> extends AbstractState<T, S> {
+public class SplitState<T, S> extends AbstractState<T, S> implements AsyncState<T, S> {
+
+	/**
+	 * When a split has finished with its flows.
+	 */
+	public enum JoinMode {
+
+		/**
+		 * Wait for all the flows (the default).
+		 */
+		ALL,
+
+		/**
+		 * Finish as soon as one flow ends with an accepted event.
+		 */
+		FIRST_SUCCESS,
+
+		/**
+		 * Finish as soon as a quorum of flows end with an accepted event.
+		 */
+		QUORUM
+
+	}
+
+	private static final ScheduledThreadPoolExecutor scheduler = createScheduler();
 
 	private final Collection<Flow<T, S>> flows;
 
@@ -47,6 +96,22 @@ public class SplitState<T, S> extends AbstractState<T, S> {
 
 	private final SplitAdapter<T, S> adapter;
 
+	private Collection<S> failFastEvents;
+
+	private JoinMode joinMode = JoinMode.ALL;
+
+	private int quorum = 1;
+
+	private Collection<S> acceptedEvents;
+
+	private SplitRepository<T, S> repository;
+
+	private long timeout;
+
+	private long branchTimeout;
+
+	private S timeoutEvent;
+
 	/**
 	 * Create a new {@link SplitState} that can share work amongst a collection
 	 * of flows. The same context is passed to each flow.
@@ -83,65 +148,842 @@ public class SplitState<T, S> extends AbstractState<T, S> {
 		this.taskExecutor = taskExecutor;
 	}
 
+	/**
+	 * The aggregator for the results of the flows. If it is an
+	 * {@link IncrementalSplitAggregator} the results are aggregated as the
+	 * flows finish, and the split stops waiting for the others (cancelling
+	 * them) as soon as the outcome is final. Default is a
+	 * {@link MaxValueSplitAggregator} with no top value.
+	 * 
+	 * @param aggregator the aggregator to set
+	 */
+	public void setAggregator(SplitAggregator<S> aggregator) {
+		this.aggregator = aggregator;
+	}
+
+	/**
+	 * Make the split fail fast: as soon as one of the flows fails, or ends
+	 * with one of these events, the others are cancelled (interrupting them if
+	 * they are running) and the outcome is decided without waiting for them.
+	 * An event should only be in this collection if it decides the aggregate
+	 * outcome on its own, e.g. the highest value for a
+	 * {@link MaxValueSplitAggregator}. The flows that were cancelled are not
+	 * included in the aggregate. Can be empty to fail fast only on an
+	 * exception. Default null (always wait for all the flows).
+	 * 
+	 * @param failFastEvents the events that decide the outcome of the split
+	 */
+	public void setFailFastEvents(Collection<S> failFastEvents) {
+		this.failFastEvents = failFastEvents;
+	}
+
+	/**
+	 * How many flows the split waits for. With {@link JoinMode#FIRST_SUCCESS}
+	 * or {@link JoinMode#QUORUM} the split finishes (cancelling the other
+	 * flows) as soon as enough of them end with one of the
+	 * {@link #setAcceptedEvents(Collection) accepted events}, and only the
+	 * results and contexts of those flows are aggregated. A flow that fails
+	 * with an exception (or returns a failure) just counts as not accepted,
+	 * and the split only fails if none of the flows returned a result. If the
+	 * quorum cannot be reached the results of all the flows that finished are
+	 * aggregated. An {@link IncrementalSplitAggregator} or
+	 * {@link IncrementalSplitAdapter} is treated like a plain one in these
+	 * modes. Default {@link JoinMode#ALL}.
+	 * 
+	 * @param joinMode the join mode to set
+	 */
+	public void setJoinMode(JoinMode joinMode) {
+		this.joinMode = joinMode;
+	}
+
+	/**
+	 * The number of flows that have to end with an accepted event when the
+	 * {@link #setJoinMode(JoinMode) join mode} is {@link JoinMode#QUORUM}.
+	 * Must not be more than the number of flows. Default 1.
+	 * 
+	 * @param quorum the quorum to set
+	 */
+	public void setQuorum(int quorum) {
+		if (quorum < 1) {
+			throw new IllegalArgumentException("Quorum must be positive");
+		}
+		this.quorum = quorum;
+	}
+
+	/**
+	 * The events that count towards the quorum (mandatory unless the
+	 * {@link #setJoinMode(JoinMode) join mode} is {@link JoinMode#ALL}).
+	 * 
+	 * @param acceptedEvents the accepted events to set
+	 */
+	public void setAcceptedEvents(Collection<S> acceptedEvents) {
+		this.acceptedEvents = acceptedEvents;
+	}
+
+	/**
+	 * A repository for the outcomes of the flows, so that a split that is
+	 * executed again after a failure (e.g. in a restarted job) only runs the
+	 * flows that did not complete last time. A flow that completed is
+	 * skipped, and its recorded event is aggregated, with a new child
+	 * context (so anything it needs to remember across a restart should be
+	 * stored somewhere else). A flow that paused is resumed from its
+	 * memento. The outcomes are cleared when the split succeeds. The
+	 * outcomes are recorded by flow name, so the flows must have distinct
+	 * names. Default null (always run all the flows).
+	 * 
+	 * @param repository the repository to set
+	 */
+	public void setRepository(SplitRepository<T, S> repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * The maximum time (milliseconds) to wait for the flows, measured from the
+	 * start of the split. When it expires the flows that have not finished are
+	 * cancelled (interrupting them if they are running), and are treated as
+	 * having ended with the {@link #setTimeoutEvent(Object) timeout event}. If
+	 * the split is itself running inside another one, or inside a
+	 * {@link Deadline#call(Deadline, java.util.concurrent.Callable) call}
+	 * with a deadline, it never waits beyond that deadline either. The
+	 * deadline is passed on to the flows, so nested splits inherit what is
+	 * left of it. Default 0 (no timeout of its own).
+	 * 
+	 * @param timeout the timeout to set
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * The maximum time (milliseconds) that each flow can take, measured from
+	 * when it starts running (so the time spent queueing in the
+	 * {@link TaskExecutor} does not count). A flow that takes longer is
+	 * cancelled and treated as having ended with the
+	 * {@link #setTimeoutEvent(Object) timeout event}. Default 0 (no timeout).
+	 * 
+	 * @param branchTimeout the branch timeout to set
+	 */
+	public void setBranchTimeout(long branchTimeout) {
+		this.branchTimeout = branchTimeout;
+	}
+
+	/**
+	 * The event to aggregate for a flow that timed out. If it is null a
+	 * timeout fails the split in the same way as an exception in one of the
+	 * flows. Default null.
+	 * 
+	 * @param timeoutEvent the timeout event to set
+	 */
+	public void setTimeoutEvent(S timeoutEvent) {
+		this.timeoutEvent = timeoutEvent;
+	}
+
 	/**
 	 * Execute the flows by passing them to the {@link TaskExecutor} and waiting
-	 * for all of them to finish before proceeding. Take care that the business
-	 * context is thread safe if using a multi-threaded executor, or else
-	 * provide a {@link SplitAdapter} to create new instances and aggregate them
-	 * back into the parent.<br/>
+	 * for all of them to finish (or for one of them to fail, if
+	 * {@link #setFailFastEvents(Collection) failing fast}, or for the outcome
+	 * to be final if the aggregator is an {@link IncrementalSplitAggregator},
+	 * or for the {@link #setTimeout(long) timeout}) before proceeding. The
+	 * results are collected in the order that the flows finish. Take care
+	 * that the business context is thread safe if using a multi-threaded
+	 * executor, or else provide a {@link SplitAdapter} to create new instances
+	 * and aggregate them back into the parent.<br/>
 	 * <br/>
 	 * 
 	 * Use of a thread pool is strongly recommended for multi-threaded
-	 * execution. The default is single threaded.
+	 * execution. The default is single threaded. If the flows contain further
+	 * splits, use a {@link ForkJoinTaskExecutor} (or virtual threads), since
+	 * with an ordinary bounded pool the waiting parents can take all the
+	 * threads. To limit the number of flows running at once across many
+	 * splits, share a {@link Bulkhead} between them. If the executor rejects
+	 * a flow it runs in the caller's thread instead.
 	 * 
 	 * @see State#handle(FlowResult, Object)
 	 */
 	@Override
 	public S handle(final T context) throws Exception {
 
-		Collection<FutureTask<FlowResult<T, S>>> tasks = new ArrayList<FutureTask<FlowResult<T, S>>>();
+		final BlockingQueue<Branch> completed = new LinkedBlockingQueue<Branch>();
+		Aggregation aggregation = new Aggregation(context);
+		List<Branch> branches = launch(aggregation);
+		for (final Branch branch : branches) {
+			branch.addCallback(new ListenableFutureCallback<FlowResult<T, S>>() {
+				public void onSuccess(FlowResult<T, S> execution) {
+					completed.add(branch);
+				}
 
-		for (final Flow<T, S> flow : flows) {
+				public void onFailure(Throwable e) {
+					completed.add(branch);
+				}
+			});
+		}
+
+		try {
+			for (int i = 0; i < branches.size(); i++) {
+				Branch branch = take(completed);
+				boolean decisive;
+				try {
+					decisive = isDecisive(branch, branch.getResult(), aggregation);
+				}
+				catch (ExecutionException e) {
+					if (joinMode == JoinMode.ALL) {
+						throw e;
+					}
+					decisive = aggregation.reject(branch, e);
+				}
+				if (decisive) {
+					cancel(branches);
+					break;
+				}
+			}
+		}
+		catch (ExecutionException e) {
+			if (failFastEvents != null) {
+				cancel(branches);
+			}
+			throw e;
+		}
+		catch (InterruptedException e) {
+			cancel(branches);
+			throw e;
+		}
+		finally {
+			aggregation.stopTimer();
+		}
+
+		S result = aggregation.getResult(branches);
+		if (repository != null) {
+			repository.clear(context, getName());
+		}
+		return result;
+
+	}
+
+	/**
+	 * Execute the flows by passing them to the {@link TaskExecutor}, and
+	 * aggregate the results when they have all finished (or one of them fails,
+	 * if {@link #setFailFastEvents(Collection) failing fast}), without waiting
+	 * for them. If one of the flows fails the result fails with the same
+	 * exception.
+	 * 
+	 * @see AsyncState#handleAsync(Object)
+	 */
+	public ListenableFuture<S> handleAsync(final T context) throws Exception {
+
+		final Aggregation aggregation = new Aggregation(context);
+		final List<Branch> branches = launch(aggregation);
+		final AsyncJoin join = new AsyncJoin(aggregation, branches);
+
+		for (final Branch branch : branches) {
+			branch.addCallback(new ListenableFutureCallback<FlowResult<T, S>>() {
+				public void onSuccess(FlowResult<T, S> execution) {
+					join.finished(branch);
+				}
+
+				public void onFailure(Throwable e) {
+					join.finished(branch);
+				}
+			});
+		}
+		if (branches.isEmpty()) {
+			join.decide();
+		}
 
-			final FutureTask<FlowResult<T, S>> task = new FutureTask<FlowResult<T, S>>(
-					new Callable<FlowResult<T, S>>() {
-						public FlowResult<T, S> call() throws Exception {
-							T child = adapter == null ? context : adapter.create(context);
-							FlowResult<T, S> start = flow.start(child);
-							return new FlowResult<T, S>(getName(), start.getContext(), start.getEvent());
-						}
-					});
+		return join.result;
 
-			tasks.add(task);
+	}
 
+	/**
+	 * Start all the flows in the task executor, with the current deadline
+	 * shortened by the {@link #setTimeout(long) timeout}.
+	 * 
+	 * @param aggregation the aggregation for this execution of the split
+	 * @return the branches that were started, in the same order as the flows
+	 */
+	private List<Branch> launch(final Aggregation aggregation) {
+
+		if (joinMode != JoinMode.ALL && acceptedEvents == null) {
+			throw new IllegalStateException("Accepted events are needed for join mode=" + joinMode + " in split="
+					+ getName());
+		}
+		if (repository != null) {
+			Set<String> names = new HashSet<String>();
+			for (Flow<T, S> flow : flows) {
+				if (!names.add(flow.getName())) {
+					throw new IllegalStateException("Duplicate flow=" + flow.getName() + " in split=" + getName()
+							+ " (the repository needs distinct names)");
+				}
+			}
+		}
+		if (joinMode == JoinMode.QUORUM && quorum > flows.size()) {
+			throw new IllegalStateException("Quorum=" + quorum + " is more than the number of flows=" + flows.size()
+					+ " in split=" + getName());
+		}
+
+		final T context = aggregation.context;
+
+		Deadline deadline = Deadline.current();
+		if (timeout > 0) {
+			deadline = Deadline.in(timeout, TimeUnit.MILLISECONDS).min(deadline);
+		}
+
+		List<Branch> branches = new ArrayList<Branch>();
+		for (final Flow<T, S> flow : flows) {
+			branches.add(new Branch(flow, aggregation, deadline, new Callable<FlowResult<T, S>>() {
+				public FlowResult<T, S> call() throws Exception {
+					T child = adapter == null ? context : adapter.create(context);
+					return execute(flow, context, child);
+				}
+			}));
+		}
+
+		aggregation.timer = schedule(deadline, branches);
+
+		for (final Branch branch : branches) {
 			try {
 				taskExecutor.execute(new Runnable() {
 					public void run() {
-						task.run();
+						branch.run();
 					}
 				});
 			}
 			catch (TaskRejectedException e) {
-				throw new FlowExecutionException("TaskExecutor rejected task for flow=" + flow.getName());
+				// Saturated, so degrade to running the flow in this thread
+				branch.run();
 			}
+		}
 
+		return branches;
+
+	}
+
+	/**
+	 * Start the flow, unless it completed or paused in a previous execution
+	 * of the split (according to the {@link #setRepository(SplitRepository)
+	 * repository}), and record the outcome.
+	 * 
+	 * @param flow the flow to execute
+	 * @param context the parent context
+	 * @param child the context for the flow
+	 * @return the result of the flow
+	 */
+	private FlowResult<T, S> execute(Flow<T, S> flow, T context, T child) throws FlowExecutionException {
+		if (repository == null) {
+			return flow.start(child);
 		}
+		BranchOutcome<S> outcome = repository.getOutcome(context, getName(), flow.getName());
+		if (outcome != null && outcome.isComplete()) {
+			return new FlowResult<T, S>(outcome.getMemento(), child, outcome.getEvent(), true);
+		}
+		FlowResult<T, S> result = outcome == null ? flow.start(child) : flow.resume(outcome.getMemento(), child,
+				outcome.getEvent());
+		if (!result.isFailed()) {
+			repository.saveOutcome(context, getName(), flow.getName(), new BranchOutcome<S>(result.getMemento(),
+					result.getEvent(), result.isComplete()));
+		}
+		return result;
+	}
 
-		Collection<S> executions = new ArrayList<S>();
-		Collection<T> contexts = new ArrayList<T>();
+	/**
+	 * Time out the branches when the deadline passes.
+	 * 
+	 * @param deadline the deadline (or null for none)
+	 * @param branches the branches to time out
+	 * @return a handle on the timer (or null if there is no deadline)
+	 */
+	private ScheduledFuture<?> schedule(Deadline deadline, final List<Branch> branches) {
+		if (deadline == null) {
+			return null;
+		}
+		return scheduler.schedule(new Runnable() {
+			public void run() {
+				for (Branch branch : branches) {
+					branch.timeout();
+				}
+			}
+		}, deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Wait for the next task to finish. In a {@link ForkJoinPool} thread (e.g.
+	 * in a nested split) this is a managed block, so the pool can compensate
+	 * for the waiting thread instead of being starved.
+	 * 
+	 * @param completed the queue of finished tasks
+	 * @return the next finished task
+	 */
+	private static <E> E take(BlockingQueue<E> completed) throws InterruptedException {
+		if (!(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+			return completed.take();
+		}
+		QueueBlocker<E> blocker = new QueueBlocker<E>(completed);
+		ForkJoinPool.managedBlock(blocker);
+		return blocker.item;
+	}
 
-		// TODO: could use a CompletionService in Spring 3?
-		for (FutureTask<FlowResult<T, S>> task : tasks) {
-			FlowResult<T, S> FlowExecution = task.get();
-			executions.add(FlowExecution.getEvent());
-			contexts.add(FlowExecution.getContext());
+	/**
+	 * @param branch a branch that has finished
+	 * @param execution the result of the branch
+	 * @param aggregation the aggregation so far
+	 * @return true if the outcome of the split is decided
+	 */
+	private boolean isDecisive(Branch branch, FlowResult<T, S> execution, Aggregation aggregation) {
+		boolean decisive = failFastEvents != null && failFastEvents.contains(execution.getEvent());
+		if (joinMode != JoinMode.ALL) {
+			return aggregation.vote(branch, acceptedEvents.contains(execution.getEvent())) || decisive;
 		}
+		return decisive || aggregation.isFinal();
+	}
 
-		if (adapter != null) {
-			adapter.aggregate(context, contexts);
+	/**
+	 * Cancel the branches that have not finished, interrupting them if they
+	 * are running. Afterwards all the branches are done.
+	 * 
+	 * @param branches the branches to cancel
+	 */
+	private void cancel(List<Branch> branches) {
+		for (Branch branch : branches) {
+			branch.cancel(true);
 		}
+	}
+
+	private static ScheduledThreadPoolExecutor createScheduler() {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("split-timeout-");
+		threadFactory.setDaemon(true);
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, threadFactory);
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
 
-		return aggregator.aggregate(executions);
+	/**
+	 * One of the flows in an execution of the split. It runs with a deadline
+	 * (the split deadline, shortened by the {@link SplitState#setBranchTimeout(long)
+	 * branch timeout} when it starts), and is cancelled if that passes before
+	 * it finishes. Its result is accumulated in the thread that runs it, just
+	 * before the future is set, so it counts either as a result or as a
+	 * timeout, never both.
+	 */
+	private class Branch extends ListenableFutureTask<FlowResult<T, S>> {
+
+		private final Flow<T, S> flow;
+
+		private final Aggregation aggregation;
+
+		private final Deadline deadline;
+
+		// Guarded by the aggregation
+
+		private boolean accumulated;
+
+		private volatile boolean timedOut;
+
+		public Branch(Flow<T, S> flow, Aggregation aggregation, Deadline deadline, Callable<FlowResult<T, S>> callable) {
+			super(callable);
+			this.flow = flow;
+			this.aggregation = aggregation;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public void run() {
+			if (isDone()) {
+				return;
+			}
+			Deadline deadline = this.deadline;
+			ScheduledFuture<?> timer = null;
+			if (branchTimeout > 0) {
+				deadline = Deadline.in(branchTimeout, TimeUnit.MILLISECONDS).min(deadline);
+				timer = schedule(deadline, Collections.singletonList(this));
+			}
+			try {
+				Deadline.run(deadline, new Runnable() {
+					public void run() {
+						Branch.super.run();
+					}
+				});
+			}
+			finally {
+				if (timer != null) {
+					timer.cancel(false);
+				}
+				if (isTimedOut()) {
+					// The interrupt was for this branch only (the thread might
+					// belong to the caller if the executor is synchronous)
+					Thread.interrupted();
+				}
+			}
+		}
+
+		@Override
+		protected void set(FlowResult<T, S> execution) {
+			FlowResult<T, S> result;
+			try {
+				result = aggregation.accumulate(this, execution);
+			}
+			catch (FlowExecutionException e) {
+				setException(e);
+				return;
+			}
+			catch (RuntimeException e) {
+				// From the aggregator or adapter (outside the callable here)
+				setException(e);
+				return;
+			}
+			if (result != null) {
+				super.set(result);
+			}
+		}
+
+		/**
+		 * Cancel the branch if it has not finished (and its result has not
+		 * been accumulated).
+		 */
+		public void timeout() {
+			if (!isDone() && aggregation.timeout(this)) {
+				cancel(true);
+			}
+		}
+
+		/**
+		 * @return true if the branch was cancelled because it timed out
+		 */
+		public boolean isTimedOut() {
+			return timedOut && isCancelled();
+		}
+
+		/**
+		 * The result of a branch that has finished. Should only be called once
+		 * per branch, because a timeout is accumulated here.
+		 * 
+		 * @return the result of the flow
+		 * @throws ExecutionException if the flow failed or timed out (with no
+		 * timeout event)
+		 */
+		public FlowResult<T, S> getResult() throws InterruptedException, ExecutionException {
+			if (isTimedOut()) {
+				if (timeoutEvent == null) {
+					throw new ExecutionException(new FlowExecutionException("Timed out waiting for flow="
+							+ flow.getName() + " in split=" + getName()));
+				}
+				return aggregation.accumulateTimeout();
+			}
+			return get();
+		}
+
+	}
+
+	/**
+	 * Joins the branches of an asynchronous execution as they finish.
+	 */
+	private class AsyncJoin {
+
+		private final SettableListenableFuture<S> result = new SettableListenableFuture<S>();
+
+		private final Aggregation aggregation;
+
+		private final List<Branch> branches;
+
+		private final AtomicInteger remaining;
+
+		private final AtomicBoolean decided = new AtomicBoolean();
+
+		public AsyncJoin(Aggregation aggregation, List<Branch> branches) {
+			this.aggregation = aggregation;
+			this.branches = branches;
+			this.remaining = new AtomicInteger(branches.size());
+		}
+
+		public void finished(Branch branch) {
+			boolean decisive;
+			try {
+				decisive = isDecisive(branch, branch.getResult(), aggregation);
+			}
+			catch (ExecutionException e) {
+				if (joinMode == JoinMode.ALL) {
+					fail(e.getCause());
+					return;
+				}
+				decisive = aggregation.reject(branch, e);
+			}
+			catch (Exception e) {
+				fail(e);
+				return;
+			}
+			if ((remaining.decrementAndGet() == 0 || decisive) && decided.compareAndSet(false, true)) {
+				if (decisive) {
+					cancel(branches);
+				}
+				set();
+			}
+		}
+
+		public void decide() {
+			if (decided.compareAndSet(false, true)) {
+				set();
+			}
+		}
+
+		private void set() {
+			aggregation.stopTimer();
+			try {
+				S value = aggregation.getResult(branches);
+				if (repository != null) {
+					repository.clear(aggregation.context, getName());
+				}
+				result.set(value);
+			}
+			catch (Exception e) {
+				result.setException(e);
+			}
+		}
+
+		private void fail(Throwable e) {
+			if (decided.compareAndSet(false, true)) {
+				aggregation.stopTimer();
+				if (failFastEvents != null) {
+					cancel(branches);
+				}
+				result.setException(e);
+			}
+		}
+
+	}
+
+	/**
+	 * The aggregation for one execution of the split. Results from an
+	 * {@link IncrementalSplitAggregator}, and contexts from an
+	 * {@link IncrementalSplitAdapter}, are accumulated in the threads that
+	 * run the flows, as they finish, and the child contexts are not kept.
+	 * Otherwise everything is aggregated at the end.
+	 */
+	private class Aggregation {
+
+		private final T context;
+
+		private final Accumulator<S> accumulator;
+
+		private final boolean incremental;
+
+		private final int required;
+
+		private final List<Branch> accepted = new ArrayList<Branch>();
+
+		private int rejected;
+
+		private ExecutionException error;
+
+		private boolean finished;
+
+		private volatile ScheduledFuture<?> timer;
+
+		@SuppressWarnings("unchecked")
+		public Aggregation(T context) {
+			this.context = context;
+			boolean all = joinMode == JoinMode.ALL;
+			this.accumulator = all && aggregator instanceof IncrementalSplitAggregator ? ((IncrementalSplitAggregator<S>) aggregator)
+					.createAccumulator() : null;
+			this.incremental = all && adapter instanceof IncrementalSplitAdapter;
+			this.required = joinMode == JoinMode.QUORUM ? quorum : 1;
+		}
+
+		/**
+		 * Accumulate the result of one of the flows, unless the outcome is
+		 * already final (or the results have been collected). A flow that
+		 * returned a failure is treated like one that threw an exception.
+		 * 
+		 * @param branch the branch that ran the flow
+		 * @param execution the result of a flow
+		 * @return the result to keep until the end, or null if the branch
+		 * already timed out
+		 * @throws FlowExecutionException if the flow returned a failure
+		 */
+		@SuppressWarnings("unchecked")
+		public synchronized FlowResult<T, S> accumulate(Branch branch, FlowResult<T, S> execution)
+				throws FlowExecutionException {
+			if (branch.timedOut) {
+				// Counted as a timeout instead
+				return null;
+			}
+			branch.accumulated = true;
+			if (execution.isFailed()) {
+				throw execution.getFailure().toException();
+			}
+			T child = execution.getContext();
+			if (!finished) {
+				if (accumulator != null) {
+					accumulator.accumulate(execution.getEvent());
+					finished = accumulator.isFinal();
+				}
+				if (incremental) {
+					((IncrementalSplitAdapter<T, S>) adapter).accumulate(context, child);
+				}
+			}
+			return new FlowResult<T, S>(getName(), incremental ? null : child, execution.getEvent());
+		}
+
+		/**
+		 * Mark a branch as timed out, unless its result has already been
+		 * accumulated.
+		 * 
+		 * @param branch the branch
+		 * @return true if the branch timed out (and should be cancelled)
+		 */
+		public synchronized boolean timeout(Branch branch) {
+			if (branch.accumulated) {
+				return false;
+			}
+			branch.timedOut = true;
+			return true;
+		}
+
+		/**
+		 * Accumulate the timeout event for one of the flows (there is no
+		 * context to aggregate).
+		 * 
+		 * @return the result of the flow that timed out
+		 */
+		public synchronized FlowResult<T, S> accumulateTimeout() {
+			if (!finished && accumulator != null) {
+				accumulator.accumulate(timeoutEvent);
+				finished = accumulator.isFinal();
+			}
+			return new FlowResult<T, S>(getName(), null, timeoutEvent);
+		}
+
+		/**
+		 * Count a finished branch towards the quorum (or against it).
+		 * 
+		 * @param branch the branch
+		 * @param accept true if the result was accepted
+		 * @return true if the quorum has been reached or cannot be reached
+		 */
+		public synchronized boolean vote(Branch branch, boolean accept) {
+			if (!accept) {
+				rejected++;
+			}
+			else if (accepted.size() < required) {
+				accepted.add(branch);
+			}
+			return accepted.size() >= required || rejected > flows.size() - required;
+		}
+
+		/**
+		 * Count a failed branch against the quorum.
+		 * 
+		 * @param branch the branch
+		 * @param error the failure
+		 * @return true if the quorum cannot be reached
+		 */
+		public synchronized boolean reject(Branch branch, ExecutionException error) {
+			this.error = error;
+			return vote(branch, false);
+		}
+
+		/**
+		 * @return true if the outcome cannot change
+		 */
+		public synchronized boolean isFinal() {
+			return accumulator != null && accumulator.isFinal();
+		}
+
+		/**
+		 * Stop the timer for the split deadline, if there is one.
+		 */
+		public void stopTimer() {
+			ScheduledFuture<?> timer = this.timer;
+			if (timer != null) {
+				timer.cancel(false);
+			}
+		}
+
+		/**
+		 * Aggregate the results of branches that have all finished, ignoring
+		 * any that were cancelled (unless they timed out). If there is a
+		 * quorum only the branches that were accepted are aggregated.
+		 * 
+		 * @param branches the finished branches
+		 * @return the aggregate status
+		 */
+		public synchronized S getResult(List<Branch> branches) throws Exception {
+
+			finished = true;
+			boolean contexts = adapter != null && !incremental;
+
+			Collection<S> executions = new ArrayList<S>();
+			Collection<T> children = new ArrayList<T>();
+
+			if (joinMode != JoinMode.ALL && accepted.size() >= required) {
+				branches = accepted;
+			}
+
+			for (Branch branch : branches) {
+				if (branch.isTimedOut()) {
+					// Without a timeout event it was counted as not accepted
+					if (accumulator == null && timeoutEvent != null) {
+						executions.add(timeoutEvent);
+					}
+					continue;
+				}
+				if (branch.isCancelled()) {
+					continue;
+				}
+				FlowResult<T, S> execution;
+				try {
+					execution = branch.get();
+				}
+				catch (ExecutionException e) {
+					if (joinMode == JoinMode.ALL) {
+						throw e;
+					}
+					// Already counted as not accepted
+					continue;
+				}
+				if (accumulator == null) {
+					executions.add(execution.getEvent());
+				}
+				if (contexts) {
+					children.add(execution.getContext());
+				}
+			}
+
+			if (error != null && executions.isEmpty()) {
+				// None of the flows returned a result
+				throw error;
+			}
+
+			if (contexts) {
+				adapter.aggregate(context, children);
+			}
+
+			return accumulator == null ? aggregator.aggregate(executions) : accumulator.getResult();
+
+		}
+
+	}
+
+	/**
+	 * Takes an item from a queue as a {@link ManagedBlocker}.
+	 */
+	private static class QueueBlocker<E> implements ManagedBlocker {
+
+		private final BlockingQueue<E> queue;
+
+		private E item;
+
+		public QueueBlocker(BlockingQueue<E> queue) {
+			this.queue = queue;
+		}
+
+		public boolean block() throws InterruptedException {
+			if (item == null) {
+				item = queue.take();
+			}
+			return true;
+		}
+
+		public boolean isReleasable() {
+			return item != null || (item = queue.poll()) != null;
+		}
 
 	}
 
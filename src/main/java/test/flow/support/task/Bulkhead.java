@@ -0,0 +1,350 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.task;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import test.flow.support.state.SplitState;
+
+/**
+ * A task executor that limits the number of tasks running at once in another
+ * executor, so that it can be shared by many {@link SplitState splits} (and
+ * many executions of the same split) to cap the total number of flows in
+ * flight. A task is started straight away if a permit is free, otherwise it
+ * waits in a bounded queue and is run by the next thread that gives up a
+ * permit. When the permits are all taken and the queue is full the task is
+ * rejected according to the {@link RejectionPolicy}. A split deals with a
+ * rejection by running the flow in the caller's thread.<br/>
+ * <br/>
+ * 
+ * A task submitted from a thread that already holds a permit (e.g. a flow in
+ * a nested split) is never queued, since it would be waiting for its parent
+ * to finish, while the parent waits for it. If there is no permit free it is
+ * rejected instead.<br/>
+ * <br/>
+ * 
+ * The delegate executor should be able to run as many tasks as there are
+ * permits without rejecting any (the bulkhead does the limiting). The
+ * metrics (queue depth, wait time etc.) are plain properties, so the
+ * bulkhead can be exported as an MBean, or polled.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class Bulkhead implements TaskExecutor {
+
+	/**
+	 * What to do with a task when the permits are all taken and the queue is
+	 * full.
+	 */
+	public enum RejectionPolicy {
+
+		/**
+		 * Throw a {@link TaskRejectedException}.
+		 */
+		ABORT,
+
+		/**
+		 * Run the task in the caller's thread (without a permit).
+		 */
+		CALLER_RUNS
+
+	}
+
+	private final String name;
+
+	private final TaskExecutor taskExecutor;
+
+	private final int permits;
+
+	private int queueCapacity = Integer.MAX_VALUE;
+
+	private RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+
+	private final Queue<Waiting> queue = new ArrayDeque<Waiting>();
+
+	private int active;
+
+	private int maxQueueSize;
+
+	private final ThreadLocal<Boolean> holding = new ThreadLocal<Boolean>();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	private final AtomicLong started = new AtomicLong();
+
+	private final AtomicLong totalWait = new AtomicLong();
+
+	private final AtomicLong maxWait = new AtomicLong();
+
+	/**
+	 * @param name the name of the bulkhead (used in messages)
+	 * @param taskExecutor the executor to run tasks in
+	 * @param permits the maximum number of tasks running at once
+	 */
+	public Bulkhead(String name, TaskExecutor taskExecutor, int permits) {
+		if (permits < 1) {
+			throw new IllegalArgumentException("A bulkhead needs at least one permit");
+		}
+		this.name = name;
+		this.taskExecutor = taskExecutor;
+		this.permits = permits;
+	}
+
+	/**
+	 * The maximum number of tasks waiting for a permit. Default unbounded.
+	 * 
+	 * @param queueCapacity the queue capacity to set (0 for no queue)
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * What to do with a task when the bulkhead is saturated. Default
+	 * {@link RejectionPolicy#ABORT}.
+	 * 
+	 * @param rejectionPolicy the rejection policy to set
+	 */
+	public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+		this.rejectionPolicy = rejectionPolicy;
+	}
+
+	/**
+	 * Run the task in the delegate executor if there is a permit free,
+	 * otherwise queue it if there is room, or else reject it.
+	 * 
+	 * @see TaskExecutor#execute(Runnable)
+	 */
+	public void execute(Runnable task) {
+		boolean callerRuns = false;
+		synchronized (queue) {
+			if (active < permits) {
+				active++;
+			}
+			else if (queue.size() < queueCapacity && holding.get() == null) {
+				queue.add(new Waiting(task));
+				maxQueueSize = Math.max(maxQueueSize, queue.size());
+				return;
+			}
+			else {
+				rejected.incrementAndGet();
+				if (rejectionPolicy == RejectionPolicy.ABORT) {
+					throw new TaskRejectedException("Bulkhead [" + name + "] is saturated (permits=" + permits
+							+ ", queued=" + queue.size() + ") and did not accept task: " + task);
+				}
+				callerRuns = true;
+			}
+		}
+		if (callerRuns) {
+			task.run();
+			return;
+		}
+		try {
+			taskExecutor.execute(new Permit(new Waiting(task)));
+		}
+		catch (TaskRejectedException e) {
+			Waiting next = release();
+			if (next != null) {
+				dispatch(next);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of permits
+	 */
+	public int getPermits() {
+		return permits;
+	}
+
+	/**
+	 * @return the number of permits currently taken
+	 */
+	public int getActiveCount() {
+		synchronized (queue) {
+			return active;
+		}
+	}
+
+	/**
+	 * @return the number of tasks currently waiting for a permit
+	 */
+	public int getQueueSize() {
+		synchronized (queue) {
+			return queue.size();
+		}
+	}
+
+	/**
+	 * @return the largest number of tasks that have been waiting at once
+	 */
+	public int getMaxQueueSize() {
+		synchronized (queue) {
+			return maxQueueSize;
+		}
+	}
+
+	/**
+	 * @return the number of tasks that were rejected (including those that
+	 * ran in the caller's thread)
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return the number of tasks that have started with a permit
+	 */
+	public long getStartedCount() {
+		return started.get();
+	}
+
+	/**
+	 * @param unit the unit to use
+	 * @return the total time that tasks waited between being submitted and
+	 * starting with a permit
+	 */
+	public long getTotalWaitTime(TimeUnit unit) {
+		return unit.convert(totalWait.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param unit the unit to use
+	 * @return the longest time that a task waited before starting
+	 */
+	public long getMaxWaitTime(TimeUnit unit) {
+		return unit.convert(maxWait.get(), TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return "Bulkhead [" + name + "]: permits=" + permits + ", active=" + getActiveCount() + ", queued="
+				+ getQueueSize() + ", rejected=" + getRejectedCount();
+	}
+
+	/**
+	 * Give up a permit, or hand it on to the next waiting task.
+	 * 
+	 * @return the next task to run with the permit (or null if it was given
+	 * up)
+	 */
+	private Waiting release() {
+		synchronized (queue) {
+			Waiting next = queue.poll();
+			if (next == null) {
+				active--;
+			}
+			return next;
+		}
+	}
+
+	/**
+	 * Run a task that already has a permit in the delegate executor, or in
+	 * the current thread if the delegate will not take it.
+	 */
+	private void dispatch(Waiting next) {
+		Permit permit = new Permit(next);
+		try {
+			taskExecutor.execute(permit);
+		}
+		catch (TaskRejectedException e) {
+			permit.run();
+		}
+	}
+
+	/**
+	 * Runs tasks in a thread holding a permit, starting with one and then
+	 * taking the waiting ones off the queue until there are none left.
+	 */
+	private class Permit implements Runnable {
+
+		private final Waiting first;
+
+		public Permit(Waiting first) {
+			this.first = first;
+		}
+
+		public void run() {
+			boolean nested = holding.get() != null;
+			holding.set(Boolean.TRUE);
+			Waiting current = first;
+			try {
+				while (current != null) {
+					Waiting task = current;
+					current = null;
+					try {
+						task.run();
+					}
+					finally {
+						current = release();
+					}
+				}
+			}
+			finally {
+				if (!nested) {
+					holding.remove();
+				}
+				if (current != null) {
+					// A task failed and the next one still needs to run
+					dispatch(current);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * A task and the time that it was submitted.
+	 */
+	private class Waiting implements Runnable {
+
+		private final Runnable task;
+
+		private final long submitted = System.nanoTime();
+
+		public Waiting(Runnable task) {
+			this.task = task;
+		}
+
+		public void run() {
+			long wait = System.nanoTime() - submitted;
+			started.incrementAndGet();
+			totalWait.addAndGet(wait);
+			long max = maxWait.get();
+			while (wait > max && !maxWait.compareAndSet(max, wait)) {
+				max = maxWait.get();
+			}
+			task.run();
+		}
+
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.task;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import test.flow.support.state.SplitState;
+
+/**
+ * A task executor backed by a {@link ForkJoinPool}, for nested
+ * {@link SplitState splits}. A task submitted from one of the pool's own
+ * threads (e.g. a flow in a nested split) is forked onto that thread's queue,
+ * where idle threads can steal it, and a split waiting for its flows in one of
+ * the pool's threads uses managed blocking, so the pool adds a thread to
+ * compensate instead of running out. Deep trees of splits therefore make
+ * progress with a small, fixed parallelism, where a bounded thread pool would
+ * deadlock once the number of waiting splits reached its size.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class ForkJoinTaskExecutor implements TaskExecutor, DisposableBean {
+
+	private final ForkJoinPool pool;
+
+	private final boolean owned;
+
+	/**
+	 * Create an executor with parallelism equal to the number of processors.
+	 */
+	public ForkJoinTaskExecutor() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param parallelism the parallelism of the pool
+	 */
+	public ForkJoinTaskExecutor(int parallelism) {
+		this.pool = new ForkJoinPool(parallelism);
+		this.owned = true;
+	}
+
+	/**
+	 * @param pool the pool to use (not shut down by {@link #destroy()})
+	 */
+	public ForkJoinTaskExecutor(ForkJoinPool pool) {
+		this.pool = pool;
+		this.owned = false;
+	}
+
+	/**
+	 * @return the pool
+	 */
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Fork the task if called from one of the threads in the pool, otherwise
+	 * submit it to the pool.
+	 * 
+	 * @see TaskExecutor#execute(Runnable)
+	 */
+	public void execute(Runnable task) {
+		try {
+			if (ForkJoinTask.getPool() == pool) {
+				ForkJoinTask.adapt(task).fork();
+			}
+			else {
+				pool.execute(task);
+			}
+		}
+		catch (RejectedExecutionException e) {
+			throw new TaskRejectedException("Executor [" + pool + "] did not accept task: " + task, e);
+		}
+	}
+
+	/**
+	 * Shut down the pool, unless it was provided by the caller.
+	 * 
+	 * @see DisposableBean#destroy()
+	 */
+	public void destroy() {
+		if (owned) {
+			pool.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.task;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import test.flow.support.state.SplitState;
+
+/**
+ * A task executor that runs every task in a new virtual thread. Virtual
+ * threads are cheap to create and to block, so this is a good choice for a
+ * {@link SplitState} with a large number of flows that spend most of their
+ * time waiting (e.g. for I/O), or with nested splits, where the parent thread
+ * waits for its children: neither ties up a platform thread.<br/>
+ * <br/>
+ * 
+ * Virtual threads need Java 21 or later (see {@link #isAvailable()}). This
+ * class is compiled against older versions, so it creates them reflectively,
+ * and fails to initialize if they are not available.
+ * 
+ * @author Dave Syer
+ * 
+ */
+@SuppressWarnings("serial")
+public class VirtualThreadTaskExecutor extends SimpleAsyncTaskExecutor {
+
+	/**
+	 * Create a new executor with thread names starting with "virtual-".
+	 */
+	public VirtualThreadTaskExecutor() {
+		this("virtual-");
+	}
+
+	/**
+	 * Create a new executor.
+	 * 
+	 * @param threadNamePrefix the prefix for the names of the threads
+	 * @throws IllegalStateException if virtual threads are not available
+	 */
+	public VirtualThreadTaskExecutor(String threadNamePrefix) {
+		super(threadNamePrefix);
+		setThreadFactory(createThreadFactory(threadNamePrefix));
+	}
+
+	/**
+	 * @return true if virtual threads are available in this JVM
+	 */
+	public static boolean isAvailable() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		}
+		catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private static ThreadFactory createThreadFactory(String prefix) {
+		if (!isAvailable()) {
+			throw new IllegalStateException("Virtual threads are not available (Java 21 or later is needed)");
+		}
+		try {
+			// Thread.ofVirtual().name(prefix, 0).factory()
+			Class<?> type = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method name = type.getMethod("name", String.class, long.class);
+			builder = name.invoke(builder, prefix, 0L);
+			return (ThreadFactory) type.getMethod("factory").invoke(builder);
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("Could not create virtual thread factory", e);
+		}
+	}
+
+}
@@ -2,6 +2,9 @@ package test.issue.tracker;
 
 import test.flow.Flow;
 import test.flow.FlowExecutionException;
+import test.flow.FlowResult;
+import test.flow.support.repository.FlowExecutionRepository;
+import test.flow.support.repository.PausedExecution;
 import test.issue.Action;
 import test.issue.Issue;
 import test.issue.IssueTracker;
@@ -10,15 +13,21 @@ public class FlowIssueTracker implements IssueTracker {
 
 	private Flow<Issue, Action> flow;
 
+	private FlowExecutionRepository<Action> repository;
+
 	public FlowIssueTracker(Flow<Issue, Action> flow) {
+		this(flow, null);
+	}
+
+	public FlowIssueTracker(Flow<Issue, Action> flow, FlowExecutionRepository<Action> repository) {
 		super();
 		this.flow = flow;
+		this.repository = repository;
 	}
 
 	public void open(Issue issue) {
 		try {
-			// Could persist flow execution here.
-			flow.start(issue);
+			save(issue, flow.start(issue));
 		}
 		catch (FlowExecutionException e) {
 			throw new IllegalStateException("Could not open issue.", e);
@@ -26,10 +35,8 @@ public class FlowIssueTracker implements IssueTracker {
 	}
 
 	public void approve(Issue issue) {
-		// In lieu of persisted flow execution, we use a naming convention: the
-		// last state name is the same as the flow status:
 		try {
-			flow.resume(issue.getStatus().name(), issue, Action.APPROVED);
+			save(issue, flow.resume(getMemento(issue), issue, Action.APPROVED));
 		}
 		catch (FlowExecutionException e) {
 			throw new IllegalStateException("Could not approve issue.", e);
@@ -38,11 +45,35 @@ public class FlowIssueTracker implements IssueTracker {
 
 	public void reject(Issue issue) {
 		try {
-			flow.resume(issue.getStatus().name(), issue, Action.REJECTED);
+			save(issue, flow.resume(getMemento(issue), issue, Action.REJECTED));
 		}
 		catch (FlowExecutionException e) {
 			throw new IllegalStateException("Could not reject issue: "+issue, e);
 		}
 	}
 
-}
\ No newline at end of file
+	private Object getMemento(Issue issue) {
+		if (repository != null) {
+			PausedExecution<Action> execution = repository.get(issue.getId());
+			if (execution != null) {
+				return execution.getMemento();
+			}
+		}
+		// In lieu of persisted flow execution, we use a naming convention: the
+		// last state name is the same as the flow status:
+		return issue.getStatus().name();
+	}
+
+	private void save(Issue issue, FlowResult<Issue, Action> result) {
+		if (repository == null) {
+			return;
+		}
+		if (result.isComplete()) {
+			repository.remove(issue.getId());
+		}
+		else {
+			repository.save(issue.getId(), result.getMemento(), result.getEvent());
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.job;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.item.ExecutionContext;
+
+import test.flow.support.state.BranchOutcome;
+import test.flow.support.state.SplitRepository;
+import test.flow.support.state.SplitState;
+
+/**
+ * A {@link SplitRepository} that records the outcomes of the flows in a
+ * {@link SplitState} in the {@link ExecutionContext} of the job execution, so
+ * that when a {@link FlowJob} is restarted after a failure only the flows that
+ * failed (or did not finish) run again. A flow that completed with a FAILED
+ * exit status is not recorded. The outcomes for each split are kept together
+ * in one entry, keyed by the name of the split. If a {@link JobRepository} is
+ * provided the execution context is saved every time an outcome is recorded.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class ExecutionContextSplitRepository implements SplitRepository<JobFlowExecutor, ExitStatus> {
+
+	private static final String PREFIX = FlowJob.class.getName() + ".SPLIT.";
+
+	private JobRepository jobRepository;
+
+	/**
+	 * Public setter for the job repository.
+	 * @param jobRepository the job repository to set
+	 */
+	public void setJobRepository(JobRepository jobRepository) {
+		this.jobRepository = jobRepository;
+	}
+
+	public BranchOutcome<ExitStatus> getOutcome(JobFlowExecutor context, String split, String flow) {
+		Map<String, BranchOutcome<ExitStatus>> outcomes = getOutcomes(context.getJobExecution(), split);
+		return outcomes == null ? null : outcomes.get(flow);
+	}
+
+	public void saveOutcome(JobFlowExecutor context, String split, String flow, BranchOutcome<ExitStatus> outcome) {
+		JobExecution jobExecution = context.getJobExecution();
+		// Flows in a split can finish concurrently
+		synchronized (jobExecution) {
+			Map<String, BranchOutcome<ExitStatus>> outcomes = getOutcomes(jobExecution, split);
+			// Copy and put back, so the execution context knows it changed
+			outcomes = outcomes == null ? new HashMap<String, BranchOutcome<ExitStatus>>()
+					: new HashMap<String, BranchOutcome<ExitStatus>>(outcomes);
+			ExitStatus event = outcome.getEvent();
+			if (event != null && ExitStatus.FAILED.getExitCode().equals(event.getExitCode())) {
+				outcomes.remove(flow);
+			}
+			else {
+				outcomes.put(flow, outcome);
+			}
+			ExecutionContext executionContext = jobExecution.getExecutionContext();
+			if (outcomes.isEmpty()) {
+				executionContext.remove(getKey(split));
+			}
+			else {
+				executionContext.put(getKey(split), outcomes);
+			}
+			update(jobExecution);
+		}
+	}
+
+	public void clear(JobFlowExecutor context, String split) {
+		JobExecution jobExecution = context.getJobExecution();
+		synchronized (jobExecution) {
+			if (jobExecution.getExecutionContext().remove(getKey(split)) != null) {
+				update(jobExecution);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, BranchOutcome<ExitStatus>> getOutcomes(JobExecution jobExecution, String split) {
+		return (Map<String, BranchOutcome<ExitStatus>>) jobExecution.getExecutionContext().get(getKey(split));
+	}
+
+	private void update(JobExecution jobExecution) {
+		if (jobRepository != null) {
+			jobRepository.updateExecutionContext(jobExecution);
+		}
+	}
+
+	private String getKey(String split) {
+		return PREFIX + split;
+	}
+
+}
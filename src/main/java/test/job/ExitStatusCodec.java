@@ -0,0 +1,76 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.job;
+
+import org.springframework.batch.core.ExitStatus;
+
+import test.flow.support.codec.BinaryInput;
+import test.flow.support.codec.BinaryOutput;
+import test.flow.support.codec.EventCodec;
+
+/**
+ * An {@link EventCodec} for the {@link ExitStatus} events of a job flow. The
+ * standard exit codes are interned (written as a single byte), and any other
+ * code is written as a string. The description is written as a string (so
+ * one byte if it is empty, as it usually is).
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class ExitStatusCodec implements EventCodec<ExitStatus> {
+
+	/**
+	 * The interned codes. New ones can only be added at the end.
+	 */
+	private static final ExitStatus[] CODES = { ExitStatus.UNKNOWN, ExitStatus.EXECUTING, ExitStatus.COMPLETED,
+			ExitStatus.NOOP, ExitStatus.FAILED, ExitStatus.STOPPED };
+
+	/**
+	 * Marks a code that is not interned.
+	 */
+	private static final int CUSTOM = 0;
+
+	public void write(ExitStatus event, BinaryOutput output) {
+		String code = event.getExitCode();
+		int index = 0;
+		while (index < CODES.length && !CODES[index].getExitCode().equals(code)) {
+			index++;
+		}
+		if (index < CODES.length) {
+			output.writeVarInt(index + 1);
+		}
+		else {
+			output.writeVarInt(CUSTOM);
+			output.writeString(code);
+		}
+		String description = event.getExitDescription();
+		output.writeString(description == null ? "" : description);
+	}
+
+	public ExitStatus read(BinaryInput input) {
+		int index = input.readVarInt();
+		if (index > CODES.length) {
+			throw new IllegalArgumentException("Unknown exit code index=" + index);
+		}
+		String code = index == CUSTOM ? input.readString() : CODES[index - 1].getExitCode();
+		String description = input.readString();
+		if (description.length() == 0 && index != CUSTOM) {
+			return CODES[index - 1];
+		}
+		return new ExitStatus(code, description);
+	}
+
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import test.flow.Flow;
+import test.flow.FlowResult;
+import test.flow.support.FlowBuilder;
+import test.flow.support.state.AbstractState;
+import test.flow.support.state.PauseAdapter;
+import test.flow.support.state.PauseState;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class FlowProcessorTests {
+
+	private Flow<String, String> flow = createFlow();
+
+	@Test
+	public void testAllResultsDelivered() throws Exception {
+		IterablePublisher<String> publisher = new IterablePublisher<String>(contexts(100));
+		FlowProcessor<String, String> processor = new FlowProcessor<String, String>(flow);
+		processor.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		processor.setConcurrency(4);
+		publisher.subscribe(processor);
+		TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+		assertTrue(subscriber.await());
+		assertNull(subscriber.error);
+		assertEquals(100, subscriber.items.size());
+		Set<String> contexts = new HashSet<String>();
+		for (FlowResult<String, String> result : subscriber.items) {
+			contexts.add(result.getContext());
+		}
+		assertEquals(new HashSet<String>(contexts(100)), contexts);
+	}
+
+	@Test
+	public void testNoDemandNoRequest() throws Exception {
+		IterablePublisher<String> publisher = new IterablePublisher<String>(contexts(10));
+		FlowProcessor<String, String> processor = new FlowProcessor<String, String>(flow);
+		processor.setMaxInFlight(5);
+		publisher.subscribe(processor);
+		TestSubscriber subscriber = new TestSubscriber(0);
+		processor.subscribe(subscriber);
+		assertEquals(0, publisher.getRequested());
+		subscriber.subscription.request(3);
+		assertEquals(3, subscriber.items.size());
+		// Prefetch up to the maximum in flight
+		long requested = publisher.getRequested();
+		assertTrue("Requested too many: " + requested, requested > 3 && requested <= 3 + 5);
+		subscriber.subscription.request(1);
+		assertEquals(4, subscriber.items.size());
+		assertTrue(publisher.getRequested() <= 4 + 5);
+	}
+
+	@Test
+	public void testBoundedInFlight() throws Exception {
+		IterablePublisher<String> publisher = new IterablePublisher<String>(contexts(100));
+		FlowProcessor<String, String> processor = new FlowProcessor<String, String>(flow);
+		processor.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		processor.setConcurrency(4);
+		processor.setMaxInFlight(8);
+		publisher.subscribe(processor);
+		final IterablePublisher<String> source = publisher;
+		final AtomicLong maxInFlight = new AtomicLong();
+		TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE) {
+			@Override
+			public void onNext(FlowResult<String, String> item) {
+				long inFlight = source.getRequested() - items.size();
+				if (inFlight > maxInFlight.get()) {
+					maxInFlight.set(inFlight);
+				}
+				try {
+					// Slow consumer
+					Thread.sleep(1);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.onNext(item);
+			}
+		};
+		processor.subscribe(subscriber);
+		assertTrue(subscriber.await());
+		assertEquals(100, subscriber.items.size());
+		assertTrue("Too many in flight: " + maxInFlight, maxInFlight.get() <= 8);
+	}
+
+	@Test
+	public void testSeparatePaused() throws Exception {
+		List<String> contexts = new ArrayList<String>(contexts(10));
+		contexts.addAll(Collections.nCopies(5, "PAUSE"));
+		IterablePublisher<String> publisher = new IterablePublisher<String>(contexts);
+		FlowProcessor<String, String> processor = new FlowProcessor<String, String>(flow);
+		processor.setSeparatePaused(true);
+		publisher.subscribe(processor);
+		TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+		TestSubscriber paused = new TestSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+		processor.getPaused().subscribe(paused);
+		assertTrue(subscriber.await());
+		assertTrue(paused.await());
+		assertEquals(10, subscriber.items.size());
+		assertEquals(5, paused.items.size());
+		for (FlowResult<String, String> result : paused.items) {
+			assertFalse(result.isComplete());
+			assertEquals("wait", result.getMemento());
+		}
+	}
+
+	@Test
+	public void testPausedResultsHeldUntilConsumed() throws Exception {
+		IterablePublisher<String> publisher = new IterablePublisher<String>(Collections.nCopies(10, "PAUSE"));
+		FlowProcessor<String, String> processor = new FlowProcessor<String, String>(flow);
+		processor.setSeparatePaused(true);
+		processor.setMaxInFlight(4);
+		publisher.subscribe(processor);
+		TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+		// Nobody is consuming the paused results
+		assertEquals(4, publisher.getRequested());
+		TestSubscriber paused = new TestSubscriber(Long.MAX_VALUE);
+		processor.getPaused().subscribe(paused);
+		assertTrue(paused.await());
+		assertEquals(10, paused.items.size());
+		assertTrue(subscriber.await());
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		IterablePublisher<String> publisher = new IterablePublisher<String>(contexts(3));
+		FlowProcessor<String, String> processor = new FlowProcessor<String, String>(new FlowBuilder<String, String>() {
+			{
+				end(new AbstractState<String, String>("fail") {
+					public String handle(String context) throws Exception {
+						throw new IllegalStateException("Planned");
+					}
+				});
+			}
+		}.build());
+		publisher.subscribe(processor);
+		TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+		assertTrue(subscriber.await());
+		assertTrue(subscriber.error.getMessage().contains("state=fail"));
+		assertTrue(publisher.isCancelled());
+		assertEquals(0, subscriber.items.size());
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		IterablePublisher<String> publisher = new IterablePublisher<String>(contexts(10));
+		FlowProcessor<String, String> processor = new FlowProcessor<String, String>(flow);
+		publisher.subscribe(processor);
+		TestSubscriber subscriber = new TestSubscriber(2);
+		processor.subscribe(subscriber);
+		subscriber.subscription.cancel();
+		assertTrue(publisher.isCancelled());
+		assertEquals(2, subscriber.items.size());
+	}
+
+	@Test
+	public void testOnlyOneSubscriber() throws Exception {
+		FlowProcessor<String, String> processor = new FlowProcessor<String, String>(flow);
+		processor.subscribe(new TestSubscriber(0));
+		TestSubscriber second = new TestSubscriber(0);
+		processor.subscribe(second);
+		assertTrue(second.error instanceof IllegalStateException);
+	}
+
+	@Test
+	public void testRefusedSubscriberCannotCancel() throws Exception {
+		IterablePublisher<String> publisher = new IterablePublisher<String>(contexts(10));
+		FlowProcessor<String, String> processor = new FlowProcessor<String, String>(flow);
+		publisher.subscribe(processor);
+		TestSubscriber subscriber = new TestSubscriber(0);
+		processor.subscribe(subscriber);
+		TestSubscriber second = new TestSubscriber(0);
+		processor.subscribe(second);
+		second.subscription.request(0);
+		second.subscription.cancel();
+		assertFalse(publisher.isCancelled());
+		subscriber.subscription.request(2);
+		assertEquals(2, subscriber.items.size());
+		assertNull(subscriber.error);
+	}
+
+	@Test
+	public void testBadRequest() throws Exception {
+		IterablePublisher<String> publisher = new IterablePublisher<String>(contexts(10));
+		FlowProcessor<String, String> processor = new FlowProcessor<String, String>(flow);
+		publisher.subscribe(processor);
+		TestSubscriber subscriber = new TestSubscriber(0);
+		processor.subscribe(subscriber);
+		subscriber.subscription.request(0);
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+	}
+
+	private static List<String> contexts(int count) {
+		List<String> contexts = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			contexts.add("context" + i);
+		}
+		return contexts;
+	}
+
+	private static Flow<String, String> createFlow() {
+		FlowBuilder<String, String> builder = new FlowBuilder<String, String>("stream");
+		AbstractState<String, String> decision = new AbstractState<String, String>("decision") {
+			public String handle(String context) throws Exception {
+				return context;
+			}
+		};
+		builder.from(decision).on("PAUSE").end(new PauseState<String, String>("wait",
+				new PauseAdapter<String, String>() {
+					public String pause(String context) {
+						return "PAUSED";
+					}
+				}));
+		builder.from(decision).end(new AbstractState<String, String>("end") {
+			public String handle(String context) throws Exception {
+				return "COMPLETED";
+			}
+		});
+		return builder.build();
+	}
+
+	private static class TestSubscriber implements Subscriber<FlowResult<String, String>> {
+
+		protected final List<FlowResult<String, String>> items = Collections
+				.synchronizedList(new ArrayList<FlowResult<String, String>>());
+
+		private final long initial;
+
+		private final CountDownLatch latch = new CountDownLatch(1);
+
+		private volatile Subscription subscription;
+
+		private volatile Throwable error;
+
+		public TestSubscriber(long initial) {
+			this.initial = initial;
+		}
+
+		public boolean await() throws InterruptedException {
+			return latch.await(10, TimeUnit.SECONDS);
+		}
+
+		public void onSubscribe(Subscription subscription) {
+			this.subscription = subscription;
+			if (initial > 0) {
+				subscription.request(initial);
+			}
+		}
+
+		public void onNext(FlowResult<String, String> item) {
+			items.add(item);
+		}
+
+		public void onError(Throwable throwable) {
+			error = throwable;
+			latch.countDown();
+		}
+
+		public void onComplete() {
+			latch.countDown();
+		}
+
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.stream;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Simple synchronous publisher for a single subscriber, with some counters so
+ * tests can check the demand.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public class IterablePublisher<T> implements Publisher<T> {
+
+	private final Iterable<T> source;
+
+	private final AtomicLong requested = new AtomicLong();
+
+	private final AtomicLong published = new AtomicLong();
+
+	private final AtomicBoolean cancelled = new AtomicBoolean();
+
+	public IterablePublisher(Iterable<T> source) {
+		this.source = source;
+	}
+
+	public long getRequested() {
+		return requested.get();
+	}
+
+	public long getPublished() {
+		return published.get();
+	}
+
+	public boolean isCancelled() {
+		return cancelled.get();
+	}
+
+	public void subscribe(final Subscriber<? super T> subscriber) {
+
+		final Iterator<T> iterator = source.iterator();
+		final AtomicLong demand = new AtomicLong();
+		final AtomicInteger wip = new AtomicInteger();
+
+		subscriber.onSubscribe(new Subscription() {
+
+			private boolean done;
+
+			public void request(long n) {
+				requested.addAndGet(n);
+				demand.addAndGet(n);
+				if (wip.getAndIncrement() != 0) {
+					return;
+				}
+				do {
+					while (!done && !cancelled.get() && demand.get() > 0 && iterator.hasNext()) {
+						demand.decrementAndGet();
+						published.incrementAndGet();
+						subscriber.onNext(iterator.next());
+					}
+					if (!done && !cancelled.get() && !iterator.hasNext()) {
+						done = true;
+						subscriber.onComplete();
+					}
+				}
+				while (wip.decrementAndGet() != 0);
+			}
+
+			public void cancel() {
+				cancelled.set(true);
+			}
+
+		});
+
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import test.flow.FlowExecutionException;
+import test.flow.FlowResult;
+import test.flow.support.state.AbstractState;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class BulkResumerTests {
+
+	private CompiledFlow<Integer, String> flow;
+
+	private BulkResumer<Integer, String> resumer;
+
+	private final ConcurrentMap<Object, AtomicInteger> counts = new ConcurrentHashMap<Object, AtomicInteger>();
+
+	private final List<Integer> failures = Collections.synchronizedList(new ArrayList<Integer>());
+
+	private final AtomicInteger active = new AtomicInteger();
+
+	private volatile int maxActive;
+
+	private FlowResultCallback<Integer, String> callback = new FlowResultCallback<Integer, String>() {
+		public void onResult(FlowResult<Integer, String> result) {
+			AtomicInteger count = counts.get(result.getMemento());
+			if (count == null) {
+				counts.putIfAbsent(result.getMemento(), new AtomicInteger());
+				count = counts.get(result.getMemento());
+			}
+			count.incrementAndGet();
+		}
+
+		public void onFailure(Integer context, FlowExecutionException e) {
+			failures.add(context);
+		}
+	};
+
+	@Before
+	public void setUp() {
+		FlowBuilder<Integer, String> builder = new FlowBuilder<Integer, String>("issues");
+		WaitState resolved = new WaitState("resolved");
+		WaitState accepted = new WaitState("accepted");
+		builder.from(new WaitState("created")).on("APPROVED").to(accepted).on("APPROVED").to(resolved)
+				.on("APPROVED").to(new CloseState("closed"));
+		flow = builder.build();
+		resumer = new BulkResumer<Integer, String>(flow);
+		resumer.setChunkSize(10);
+	}
+
+	@Test
+	public void testResumeSameState() throws Exception {
+		assertEquals(1000, resumer.resume("resolved", range(0, 1000), "APPROVED", callback));
+		assertEquals(990, counts.get("closed").get());
+		assertEquals(10, failures.size());
+	}
+
+	@Test
+	public void testResumeInParallel() throws Exception {
+		resumer.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		resumer.setParallelism(4);
+		assertEquals(1000, resumer.resume("resolved", range(0, 1000), "APPROVED", callback));
+		assertEquals(990, counts.get("closed").get());
+		assertEquals(10, failures.size());
+		assertEquals(true, maxActive <= 4);
+	}
+
+	@Test
+	public void testResumeMixedStates() throws Exception {
+		List<FlowResult<Integer, String>> paused = new ArrayList<FlowResult<Integer, String>>();
+		for (int i = 1; i <= 30; i++) {
+			paused.add(new FlowResult<Integer, String>(i % 3 == 0 ? "created" : "resolved", i, null, false));
+		}
+		assertEquals(30, resumer.resume(paused.iterator(), "APPROVED", callback));
+		assertEquals(10, counts.get("accepted").get());
+		assertEquals(20, counts.get("closed").get());
+	}
+
+	@Test(expected = FlowExecutionException.class)
+	public void testUnknownMemento() throws Exception {
+		resumer.resume("unknown", Arrays.asList(1, 2, 3).iterator(), "APPROVED", callback);
+	}
+
+	private Iterator<Integer> range(final int from, final int to) {
+		return new Iterator<Integer>() {
+
+			private int next = from;
+
+			public boolean hasNext() {
+				return next < to;
+			}
+
+			public Integer next() {
+				return next++;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+		};
+	}
+
+	private static class WaitState extends AbstractState<Integer, String> {
+
+		public WaitState(String name) {
+			super(name, true);
+		}
+
+		public String handle(Integer context) throws Exception {
+			return null;
+		}
+
+	}
+
+	/**
+	 * Fails for every hundredth context.
+	 */
+	private class CloseState extends AbstractState<Integer, String> {
+
+		public CloseState(String name) {
+			super(name);
+		}
+
+		public String handle(Integer context) throws Exception {
+			int current = active.incrementAndGet();
+			try {
+				if (current > maxActive) {
+					maxActive = current;
+				}
+				if (context % 100 == 0) {
+					throw new IllegalStateException("Planned");
+				}
+				return "COMPLETED";
+			}
+			finally {
+				active.decrementAndGet();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,794 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import test.flow.FlowExecutionException;
+import test.flow.FlowFailure;
+import test.flow.FlowResult;
+import test.flow.support.match.EqualsMatcher;
+import test.flow.support.match.PatternMatcher;
+import test.flow.support.state.AbstractState;
+import test.flow.support.state.PauseAdapter;
+import test.flow.support.state.PauseState;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class CompiledFlowTests {
+
+	private SimpleFlow<String, String> flow = new SimpleFlow<String, String>("job");
+
+	private String executor = "data";
+
+	@Test
+	public void testOneStep() throws Exception {
+		flow.setTransitions(Collections.singletonList(Transition.createEnd(new StubState("step1"))));
+		CompiledFlow<String, String> compiled = flow.compile();
+		assertEquals("job", compiled.getName());
+		FlowResult<String, String> execution = compiled.start(executor);
+		assertEquals("COMPLETED", execution.getEvent());
+		assertEquals("step1", execution.getMemento());
+		assertTrue(execution.isComplete());
+	}
+
+	@Test
+	public void testCompiledOnce() throws Exception {
+		flow.setTransitions(Collections.singletonList(Transition.createEnd(new StubState("step1"))));
+		flow.afterPropertiesSet();
+		assertTrue(flow.compile() == flow.compile());
+	}
+
+	@Test
+	public void testTwoSteps() throws Exception {
+		flow.setTransitions(collect(Transition.create(new StubState("step1"), "step2"),
+				Transition.createEnd(new StubState("step2"))));
+		FlowResult<String, String> execution = flow.compile().start(executor);
+		assertEquals("COMPLETED", execution.getEvent());
+		assertEquals("step2", execution.getMemento());
+	}
+
+	@Test
+	public void testBranching() throws Exception {
+		flow.setTransitions(collect(Transition.create(new StubState("step1"), "step2"),
+				Transition.create(new StubState("step1"), "COMPLETED", "step3"),
+				Transition.createEnd(new StubState("step2")), Transition.createEnd(new StubState("step3"))));
+		FlowResult<String, String> execution = flow.compile().start(executor);
+		assertEquals("COMPLETED", execution.getEvent());
+		assertEquals("step3", execution.getMemento());
+	}
+
+	@Test
+	public void testPrecedenceOfPatterns() throws Exception {
+		StubState state = new StubState("step1", "COMPLETED WITH SKIPS");
+		flow.setTransitions(collect(Transition.create(state, "step2"), Transition.create(state, "COMPLETED*", "step3"),
+				Transition.create(state, "COMPLETED", "step2"), Transition.createEnd(new StubState("step2")),
+				Transition.createEnd(new StubState("step3"))));
+		FlowResult<String, String> execution = flow.compile().start(executor);
+		assertEquals("step3", execution.getMemento());
+		assertEquals(flow.start(executor).getMemento(), execution.getMemento());
+	}
+
+	@Test
+	public void testCycle() throws Exception {
+		final List<String> results = new ArrayList<String>(Collections.nCopies(3, "AGAIN"));
+		results.add("DONE");
+		StubState state = new StubState("step1") {
+			public String handle(String context) throws Exception {
+				return results.remove(0);
+			}
+		};
+		flow.setTransitions(collect(Transition.create(state, "AGAIN", "step1"), Transition.create(state, "DONE", "step2"),
+				Transition.createEnd(new StubState("step2"))));
+		FlowResult<String, String> execution = flow.compile().start(executor);
+		assertEquals("step2", execution.getMemento());
+		assertTrue(results.isEmpty());
+	}
+
+	@Test
+	public void testNoMatchForNextStep() throws Exception {
+		flow.setTransitions(collect(Transition.create(new StubState("step1"), "FOO", "step2"),
+				Transition.createEnd(new StubState("step2"))));
+		try {
+			flow.compile().start(executor);
+			fail("Expected FlowExecutionException");
+		}
+		catch (FlowExecutionException e) {
+			// expected
+			String message = e.getMessage();
+			assertTrue("Wrong message: " + message, message.toLowerCase().contains("next state not found"));
+		}
+	}
+
+	@Test
+	public void testExceptionInState() throws Exception {
+		flow.setTransitions(Collections.singletonList(Transition.createEnd(new StubState("step1") {
+			public String handle(String context) throws Exception {
+				throw new IllegalStateException("Planned");
+			}
+		})));
+		try {
+			flow.compile().start(executor);
+			fail("Expected FlowExecutionException");
+		}
+		catch (FlowExecutionException e) {
+			// expected
+			assertTrue("Wrong message: " + e.getMessage(), e.getMessage().contains("state=step1"));
+			assertEquals("Planned", e.getCause().getMessage());
+		}
+	}
+
+	@Test(expected = FlowExecutionException.class)
+	public void testResumeWrongMemento() throws Exception {
+		flow.setTransitions(Collections.singletonList(Transition.createEnd(new StubState("step1"))));
+		flow.compile().resume("step2", executor, "COMPLETED");
+	}
+
+	@Test
+	public void testResumeAtEnd() throws Exception {
+		flow.setTransitions(Collections.singletonList(Transition.createEnd(new StubState("step1"))));
+		FlowResult<String, String> execution = flow.compile().resume("step1", executor, "COMPLETED");
+		assertEquals("COMPLETED", execution.getEvent());
+		assertEquals("step1", execution.getMemento());
+		assertTrue(execution.isComplete());
+	}
+
+	@Test
+	public void testCompactMemento() throws Exception {
+		flow.setCompactMementos(true);
+		flow.setTransitions(collect(Transition.create(new StubState("step1"), "step2"),
+				Transition.create(new PauseState<String, String>("step2", new PauseAdapter<String, String>() {
+					public String pause(String context) {
+						return "PAUSED";
+					}
+				}), "step3"), Transition.createEnd(new StubState("step3"))));
+		CompiledFlow<String, String> compiled = flow.compile();
+		assertTrue(compiled.isCompactMementos());
+		FlowResult<String, String> execution = compiled.start(executor);
+		assertFalse(execution.isComplete());
+		assertTrue(execution.getMemento() instanceof Long);
+		execution = compiled.resume(execution.getMemento(), executor, "COMPLETED");
+		assertTrue(execution.isComplete());
+		assertTrue(execution.getMemento() instanceof Long);
+		// State names are still accepted
+		assertEquals(execution.getMemento(), compiled.resume("step3", executor, "COMPLETED").getMemento());
+	}
+
+	@Test
+	public void testResumeAll() throws Exception {
+		flow.setTransitions(collect(Transition.create(new StubState("step1"), "wait"),
+				Transition.create(new PauseState<String, String>("wait", new PauseAdapter<String, String>() {
+					public String pause(String context) {
+						return "PAUSED";
+					}
+				}), "COMPLETED", "step2"), Transition.createEnd(new AbstractState<String, String>("step2") {
+					public String handle(String context) throws Exception {
+						if ("bad".equals(context)) {
+							throw new IllegalStateException("Planned");
+						}
+						return "COMPLETED";
+					}
+				})));
+		CompiledFlow<String, String> compiled = flow.compile();
+		final List<String> results = new ArrayList<String>();
+		FlowResultCallback<String, String> callback = new FlowResultCallback<String, String>() {
+			public void onResult(FlowResult<String, String> result) {
+				results.add(result.getContext() + "=" + result.getMemento() + (result.isComplete() ? "" : "*"));
+			}
+
+			public void onFailure(String context, FlowExecutionException e) {
+				results.add(context + "!");
+			}
+		};
+		assertEquals(3, compiled.resumeAll("wait", Arrays.asList("foo", "bad", "bar").iterator(), "COMPLETED",
+				callback));
+		assertEquals("[foo=step2, bad!, bar=step2]", results.toString());
+		results.clear();
+		// No transition for the event
+		compiled.resumeAll("wait", Arrays.asList("foo").iterator(), "UNKNOWN", callback);
+		assertEquals("[foo!]", results.toString());
+	}
+
+	@Test
+	public void testCompactMementoStableAcrossBuilds() throws Exception {
+		flow.setCompactMementos(true);
+		flow.setTransitions(collect(Transition.create(new StubState("step1"), "step2"),
+				Transition.createEnd(new StubState("step2"))));
+		Object memento = flow.compile().start(executor).getMemento();
+		SimpleFlow<String, String> other = new SimpleFlow<String, String>("job");
+		other.setCompactMementos(true);
+		other.setTransitions(collect(Transition.createEnd(new StubState("step2")),
+				Transition.create(new StubState("step1"), "step2")));
+		assertEquals(memento, other.compile().start(executor).getMemento());
+		assertTrue(other.compile().resume(memento, executor, "COMPLETED").isComplete());
+	}
+
+	@Test
+	public void testCompactMementoFromDifferentFlow() throws Exception {
+		flow.setCompactMementos(true);
+		flow.setTransitions(collect(Transition.create(new StubState("step1"), "step2"),
+				Transition.createEnd(new StubState("step2"))));
+		Object memento = flow.compile().start(executor).getMemento();
+		SimpleFlow<String, String> other = new SimpleFlow<String, String>("job");
+		other.setCompactMementos(true);
+		other.setTransitions(collect(Transition.create(new StubState("step1"), "FAILED", "step2"),
+				Transition.create(new StubState("step1"), "step2"), Transition.createEnd(new StubState("step2"))));
+		try {
+			other.compile().resume(memento, executor, "COMPLETED");
+			fail("Expected FlowExecutionException");
+		}
+		catch (FlowExecutionException e) {
+			assertTrue("Wrong message: " + e.getMessage(), e.getMessage().contains("not from this version"));
+		}
+	}
+
+	@Test
+	public void testPause() throws Exception {
+		flow.setTransitions(collect(Transition.create(new StubState("step1"), "step2"),
+				Transition.create(new PauseState<String, String>("step2", new PauseAdapter<String, String>() {
+					public String pause(String context) {
+						return "COMPLETED";
+					}
+				}), "step3"), Transition.createEnd(new StubState("step3"))));
+		CompiledFlow<String, String> compiled = flow.compile();
+		FlowResult<String, String> execution = compiled.start(executor);
+		assertFalse(execution.isComplete());
+		assertEquals("step2", execution.getMemento());
+		execution = compiled.resume(execution.getMemento(), executor, "COMPLETED");
+		assertTrue(execution.isComplete());
+		assertEquals("step3", execution.getMemento());
+	}
+
+	@Test
+	public void testStateLocator() throws Exception {
+		flow.setTransitions(collect(Transition.create(new StubState("step1"), "step2"),
+				Transition.create(new StubState("step1"), "FAILED", "step3"),
+				Transition.createEnd(new StubState("step2")), Transition.createEnd(new StubState("step3"))));
+		CompiledFlow<String, String> compiled = flow.compile();
+		List<String> names = new ArrayList<String>(compiled.getStateNames());
+		Collections.sort(names);
+		assertEquals("[step1, step2, step3]", names.toString());
+		assertEquals("step2", compiled.getState("step2").getName());
+		assertNull(compiled.getState("foo"));
+		assertEquals(flow.getTriggers("step1"), compiled.getTriggers("step1"));
+		assertEquals("[COMPLETED]", compiled.getTriggers("step3").toString());
+		assertEquals("step2", compiled.getStateName("step2"));
+		assertEquals("step2", flow.getStateName("step2"));
+	}
+
+	@Test
+	public void testStateNameFromCompactMemento() throws Exception {
+		flow.setCompactMementos(true);
+		flow.setTransitions(collect(Transition.create(new StubState("step1"), "step2"),
+				Transition.createEnd(new StubState("step2"))));
+		CompiledFlow<String, String> compiled = flow.compile();
+		FlowResult<String, String> result = compiled.start("foo");
+		assertEquals("step2", compiled.getStateName(result.getMemento()));
+	}
+
+	@Test(expected = FlowDefinitionException.class)
+	public void testStateNameFromUnknownMemento() throws Exception {
+		flow.setTransitions(collect(Transition.createEnd(new StubState("step1"))));
+		flow.compile().getStateName("foo");
+	}
+
+	@Test
+	public void testEnumDispatch() throws Exception {
+		SimpleFlow<String, Code> flow = new SimpleFlow<String, Code>("codes");
+		List<Transition<String, Code>> transitions = new ArrayList<Transition<String, Code>>();
+		CodeState decision = new CodeState("decision", Code.C);
+		for (Code code : Code.values()) {
+			transitions.add(Transition.create(decision, code, code.name()));
+			transitions.add(Transition.createEnd(new CodeState(code.name(), code)));
+		}
+		flow.setTransitions(transitions);
+		FlowResult<String, Code> execution = flow.compile().start(executor);
+		assertEquals("C", execution.getMemento());
+		assertEquals("E", flow.compile().resume("decision", executor, Code.E).getMemento());
+	}
+
+	@Test
+	public void testExactDispatchWithWildcard() throws Exception {
+		SimpleFlow<String, Number> flow = new SimpleFlow<String, Number>("numbers");
+		List<Transition<String, Number>> transitions = new ArrayList<Transition<String, Number>>();
+		State<String, Number> decision = new NumberState("decision", 42);
+		transitions.add(Transition.create(decision, (Number) 41, "lower"));
+		transitions.add(Transition.create(decision, (Number) 42, "integer"));
+		transitions.add(Transition.create(decision, "other"));
+		transitions.add(Transition.createEnd(new NumberState("lower", null)));
+		transitions.add(Transition.createEnd(new NumberState("integer", null)));
+		transitions.add(Transition.createEnd(new NumberState("other", null)));
+		flow.setTransitions(transitions);
+		CompiledFlow<String, Number> compiled = flow.compile();
+		assertEquals("integer", compiled.start(executor).getMemento());
+		assertEquals("lower", compiled.resume("decision", executor, 41).getMemento());
+		assertEquals("other", compiled.resume("decision", executor, 42L).getMemento());
+		assertEquals("other", compiled.resume("decision", executor, null).getMemento());
+	}
+
+	@Test
+	public void testExactDispatchPrecedence() throws Exception {
+		// A pattern that is matched by the template of an exact matcher sorts
+		// ahead of it, so it has to win even though the exact match is indexed
+		StubState state = new StubState("step1", "FOO");
+		flow.setTransitions(collect(Transition.create(state, new EqualsMatcher<String>("FOO"), "step2"),
+				Transition.create(state, new EqualsMatcher<String>("BAR"), "step2"),
+				Transition.create(state, new PatternMatcher("FOO"), "step3"), Transition.createEnd(new StubState("step2")),
+				Transition.createEnd(new StubState("step3"))));
+		assertEquals(flow.start(executor).getMemento(), flow.compile().start(executor).getMemento());
+		assertEquals("step3", flow.compile().start(executor).getMemento());
+		assertEquals("step2", flow.compile().resume("step1", executor, "BAR").getMemento());
+	}
+
+	@Test
+	public void testPatternDispatchSameAsSimpleFlow() throws Exception {
+		StubState state = new StubState("decision");
+		String[] patterns = { "COMPLETED", "COMPLETED*", "*FAIL*", "?", "C*S", "*ED", "A.B" };
+		List<Transition<String, String>> transitions = new ArrayList<Transition<String, String>>();
+		for (int i = 0; i < patterns.length; i++) {
+			transitions.add(Transition.create(state, patterns[i], "step" + i));
+			transitions.add(Transition.createEnd(new StubState("step" + i)));
+		}
+		transitions.add(Transition.create(state, "other"));
+		transitions.add(Transition.createEnd(new StubState("other")));
+		flow.setTransitions(transitions);
+		CompiledFlow<String, String> compiled = flow.compile();
+		for (String event : new String[] { "COMPLETED", "COMPLETED WITH SKIPS", "FAILED", "X", "CS", "STOPPED",
+				"AXB", "UNKNOWN", "", "COMPLETED\nFAILED" }) {
+			assertEquals("Wrong state for " + event, flow.resume("decision", executor, event).getMemento(),
+					compiled.resume("decision", executor, event).getMemento());
+		}
+	}
+
+	@Test(expected = FlowDefinitionException.class)
+	public void testNoTriggers() throws Exception {
+		flow.setTransitions(Collections.singletonList(Transition.createEnd(new StubState("step1"))));
+		flow.compile().getTriggers("foo");
+	}
+
+	@SafeVarargs
+	private static List<Transition<String, String>> collect(Transition<String, String>... transitions) {
+		List<Transition<String, String>> list = new ArrayList<Transition<String, String>>();
+		for (Transition<String, String> transition : transitions) {
+			list.add(transition);
+		}
+		return list;
+	}
+
+	private static enum Code {
+		A, B, C, D, E, F, G, H;
+	}
+
+	@Test
+	public void testStartAllSameAsStart() throws Exception {
+		StubState decision = new StubState("decision") {
+			public String handle(String context) throws Exception {
+				if (context.startsWith("X")) {
+					throw new IllegalStateException("Planned");
+				}
+				return context;
+			}
+		};
+		StubState step1 = new StubState("step1");
+		StubState loop = new StubState("loop") {
+			public String handle(String context) throws Exception {
+				return context.length() > 2 ? "AGAIN" : "DONE";
+			}
+		};
+		flow.setTransitions(collect(Transition.create(step1, "decision"), Transition.create(decision, "A*", "a"),
+				Transition.create(decision, "B*", "wait"), Transition.create(decision, "L*", "loop"),
+				Transition.create(decision, "C*", "c"), Transition.create(loop, "AGAIN", "a"),
+				Transition.create(loop, "DONE", "c"), Transition.create(new PauseState<String, String>("wait",
+						new PauseAdapter<String, String>() {
+							public String pause(String context) {
+								return "PAUSED";
+							}
+						}), "c"), Transition.createEnd(new StubState("a")), Transition.createEnd(new StubState("c"))));
+		CompiledFlow<String, String> compiled = flow.compile();
+
+		List<String> contexts = Arrays.asList("A1", "B1", "C1", "X1", "L12", "L1", "D1", "A2", "B2", "X2");
+		FlowResults<String, String> results = compiled.startAll(contexts);
+		assertEquals(contexts.size(), results.size());
+
+		for (int i = 0; i < contexts.size(); i++) {
+			String context = contexts.get(i);
+			FlowResult<String, String> expected;
+			try {
+				expected = flow.start(context);
+			}
+			catch (FlowExecutionException e) {
+				assertEquals(e.getMessage(), results.getException(i).getMessage());
+				try {
+					results.get(i);
+					fail("Expected FlowExecutionException");
+				}
+				catch (FlowExecutionException actual) {
+					assertTrue(actual == results.getException(i));
+				}
+				continue;
+			}
+			FlowResult<String, String> actual = results.get(i);
+			assertNull(results.getException(i));
+			assertEquals(context, expected.getMemento(), actual.getMemento());
+			assertEquals(context, expected.getEvent(), actual.getEvent());
+			assertEquals(context, expected.isComplete(), actual.isComplete());
+			assertTrue(context == actual.getContext());
+		}
+		assertEquals("a", results.getMemento(4));
+		assertEquals("c", results.getMemento(5));
+		assertEquals("wait", results.getMemento(1));
+		assertFalse(results.isComplete(1));
+		assertEquals("decision", results.getMemento(6));
+	}
+
+	@Test
+	public void testStartAllEmpty() throws Exception {
+		flow.setTransitions(Collections.singletonList(Transition.createEnd(new StubState("step1"))));
+		assertEquals(0, flow.compile().startAll(Collections.<String> emptyList()).size());
+	}
+
+	@Test
+	public void testFailureResultForNoTransition() throws Exception {
+		flow.setFailureResults(true);
+		flow.setTransitions(collect(Transition.create(new StubState("step1"), "FOO", "step2"),
+				Transition.createEnd(new StubState("step2"))));
+		CompiledFlow<String, String> compiled = flow.compile();
+		assertTrue(compiled.isFailureResults());
+		FlowResult<String, String> execution = compiled.start(executor);
+		assertTrue(execution.isFailed());
+		assertFalse(execution.isComplete());
+		assertEquals("step1", execution.getMemento());
+		assertEquals("COMPLETED", execution.getEvent());
+		FlowFailure failure = execution.getFailure();
+		assertEquals(FlowFailure.Kind.NO_TRANSITION, failure.getKind());
+		assertEquals("step1", failure.getStateName());
+		assertEquals("COMPLETED", failure.getEvent());
+		assertNull(failure.getCause());
+		assertTrue("Wrong message: " + failure.getMessage(), failure.getMessage().toLowerCase().contains(
+				"next state not found"));
+		try {
+			// The same as the exception from the flow that was compiled
+			flow.start(executor);
+			fail("Expected FlowExecutionException");
+		}
+		catch (FlowExecutionException e) {
+			assertEquals(failure.getMessage(), e.getMessage());
+		}
+		// The failed state can be resumed with a different event
+		execution = compiled.resume(execution.getMemento(), executor, "FOO");
+		assertTrue(execution.isComplete());
+		assertFalse(execution.isFailed());
+	}
+
+	@Test
+	public void testFailureResultForExceptionInState() throws Exception {
+		flow.setFailureResults(true);
+		flow.setTransitions(Collections.singletonList(Transition.createEnd(new StubState("step1") {
+			public String handle(String context) throws Exception {
+				throw new IllegalStateException("Planned");
+			}
+		})));
+		FlowResult<String, String> execution = flow.compile().start(executor);
+		FlowFailure failure = execution.getFailure();
+		assertEquals(FlowFailure.Kind.STATE_EXCEPTION, failure.getKind());
+		assertNull(execution.getEvent());
+		assertEquals("Planned", failure.getCause().getMessage());
+		FlowExecutionException e = failure.toException();
+		assertTrue("Wrong message: " + e.getMessage(), e.getMessage().contains("state=step1"));
+		assertTrue(e.getCause() == failure.getCause());
+	}
+
+	@Test(expected = FlowExecutionException.class)
+	public void testFailureResultWrongMemento() throws Exception {
+		flow.setFailureResults(true);
+		flow.setTransitions(Collections.singletonList(Transition.createEnd(new StubState("step1"))));
+		flow.compile().resume("step2", executor, "COMPLETED");
+	}
+
+	@Test
+	public void testStartAllWithFailureResults() throws Exception {
+		flow.setFailureResults(true);
+		StubState decision = new StubState("decision") {
+			public String handle(String context) throws Exception {
+				if (context.startsWith("X")) {
+					throw new IllegalStateException("Planned");
+				}
+				return context;
+			}
+		};
+		flow.setTransitions(collect(Transition.create(decision, "A*", "a"), Transition.createEnd(new StubState("a"))));
+		FlowResults<String, String> results = flow.compile().startAll(
+				new LinkedList<String>(Arrays.asList("A1", "B1", "X1")));
+		assertNull(results.getFailure(0));
+		assertTrue(results.get(0).isComplete());
+		assertEquals(FlowFailure.Kind.NO_TRANSITION, results.getFailure(1).getKind());
+		// The event with no transition is recorded
+		assertEquals("B1", results.getEvent(1));
+		assertEquals(FlowFailure.Kind.STATE_EXCEPTION, results.getFailure(2).getKind());
+		assertNull(results.getEvent(2));
+		assertNull(results.getException(2));
+		assertTrue(results.get(2).isFailed());
+		assertEquals("decision", results.get(2).getMemento());
+	}
+
+	@Test
+	public void testStartAsyncWithFailureResults() throws Exception {
+		flow.setFailureResults(true);
+		final SettableListenableFuture<String> outcome = new SettableListenableFuture<String>();
+		flow.setTransitions(collect(Transition.create(new StubAsyncState("step1", outcome), "step2"),
+				Transition.createEnd(new StubState("step2"))));
+		ListenableFuture<FlowResult<String, String>> future = flow.compile().startAsync(executor);
+		outcome.setException(new IllegalStateException("Planned"));
+		FlowResult<String, String> execution = future.get();
+		assertEquals(FlowFailure.Kind.STATE_EXCEPTION, execution.getFailure().getKind());
+		assertEquals("Planned", execution.getFailure().getCause().getMessage());
+	}
+
+	@Test
+	public void testStartAsyncWithSynchronousStates() throws Exception {
+		flow.setTransitions(collect(Transition.create(new StubState("step1"), "step2"),
+				Transition.createEnd(new StubState("step2"))));
+		ListenableFuture<FlowResult<String, String>> future = flow.compile().startAsync(executor);
+		assertTrue(future.isDone());
+		assertEquals("step2", future.get().getMemento());
+		assertTrue(future.get().isComplete());
+	}
+
+	@Test
+	public void testStartAsyncWithAsyncState() throws Exception {
+		final SettableListenableFuture<String> outcome = new SettableListenableFuture<String>();
+		flow.setTransitions(collect(Transition.create(new StubAsyncState("step1", outcome), "step2"),
+				Transition.createEnd(new StubState("step2"))));
+		ListenableFuture<FlowResult<String, String>> future = flow.compile().startAsync(executor);
+		assertFalse(future.isDone());
+		outcome.set("COMPLETED");
+		assertEquals("step2", future.get().getMemento());
+	}
+
+	@Test
+	public void testStartAsyncWithFailedAsyncState() throws Exception {
+		final SettableListenableFuture<String> outcome = new SettableListenableFuture<String>();
+		flow.setTransitions(collect(Transition.create(new StubAsyncState("step1", outcome), "step2"),
+				Transition.createEnd(new StubState("step2"))));
+		ListenableFuture<FlowResult<String, String>> future = flow.compile().startAsync(executor);
+		outcome.setException(new IllegalStateException("Planned"));
+		try {
+			future.get();
+			fail("Expected ExecutionException");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof FlowExecutionException);
+			assertTrue("Wrong message: " + e.getCause().getMessage(), e.getCause().getMessage().contains("state=step1"));
+			assertEquals("Planned", e.getCause().getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void testResumeAsync() throws Exception {
+		final SettableListenableFuture<String> outcome = new SettableListenableFuture<String>();
+		flow.setTransitions(collect(Transition.create(new PauseState<String, String>("step1",
+				new PauseAdapter<String, String>() {
+					public String pause(String context) {
+						return "PAUSED";
+					}
+				}), "step2"), Transition.create(new StubAsyncState("step2", outcome), "step3"),
+				Transition.createEnd(new StubState("step3"))));
+		CompiledFlow<String, String> compiled = flow.compile();
+		FlowResult<String, String> execution = compiled.startAsync(executor).get();
+		assertFalse(execution.isComplete());
+		assertEquals("step1", execution.getMemento());
+		ListenableFuture<FlowResult<String, String>> future = compiled.resumeAsync(execution.getMemento(), executor,
+				"COMPLETED");
+		assertFalse(future.isDone());
+		outcome.set("COMPLETED");
+		assertEquals("step3", future.get().getMemento());
+		assertTrue(future.get().isComplete());
+	}
+
+	@Test
+	public void testResumeAsyncWrongMemento() throws Exception {
+		flow.setTransitions(Collections.singletonList(Transition.createEnd(new StubState("step1"))));
+		try {
+			flow.compile().resumeAsync("step2", executor, "COMPLETED").get();
+			fail("Expected ExecutionException");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof FlowExecutionException);
+		}
+	}
+
+	@Test
+	public void testManyAsyncExecutionsOnSmallPool() throws Exception {
+		final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+		StubState wait = new StubAsyncState("wait", null) {
+			@Override
+			public ListenableFuture<String> handleAsync(String context) {
+				final SettableListenableFuture<String> result = new SettableListenableFuture<String>();
+				scheduler.schedule(new Runnable() {
+					public void run() {
+						result.set("COMPLETED");
+					}
+				}, 50, TimeUnit.MILLISECONDS);
+				return result;
+			}
+		};
+		flow.setTransitions(collect(Transition.create(new StubState("step1"), "wait"),
+				Transition.create(wait, "step2"), Transition.createEnd(new StubState("step2"))));
+		CompiledFlow<String, String> compiled = flow.compile();
+		try {
+			List<ListenableFuture<FlowResult<String, String>>> futures = new ArrayList<ListenableFuture<FlowResult<String, String>>>();
+			for (int i = 0; i < 1000; i++) {
+				futures.add(compiled.startAsync(executor));
+			}
+			for (ListenableFuture<FlowResult<String, String>> future : futures) {
+				assertEquals("step2", future.get(10, TimeUnit.SECONDS).getMemento());
+			}
+		}
+		finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testConcurrentExecution() throws Exception {
+		FlowBuilder<String, String> builder = new FlowBuilder<String, String>("concurrent");
+		StubState decision = new StubState("decision") {
+			public String handle(String context) throws Exception {
+				return context;
+			}
+		};
+		PauseState<String, String> wait = new PauseState<String, String>("wait", new PauseAdapter<String, String>() {
+			public String pause(String context) {
+				return "PAUSED";
+			}
+		});
+		builder.from(new StubState("step1")).to(decision);
+		builder.from(decision).on("A*").end(new StubState("a"));
+		builder.from(decision).on("B*").to(wait).on("DONE").end(new StubState("b"));
+		builder.from(decision).end(new StubState("other"));
+		final CompiledFlow<String, String> flow = builder.build();
+
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		final CountDownLatch latch = new CountDownLatch(1);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		try {
+			for (int i = 0; i < 16; i++) {
+				final int thread = i;
+				results.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						latch.await();
+						int count = 0;
+						for (int j = 0; j < 5000; j++) {
+							String context = "ABC".charAt((thread + j) % 3) + "-" + thread + "-" + j;
+							FlowResult<String, String> result = flow.start(context);
+							if (context.startsWith("A")) {
+								assertEquals("a", result.getMemento());
+							}
+							else if (context.startsWith("B")) {
+								assertEquals("wait", result.getMemento());
+								assertFalse(result.isComplete());
+								result = flow.resume(result.getMemento(), context, "DONE");
+								assertEquals("b", result.getMemento());
+							}
+							else {
+								assertEquals("other", result.getMemento());
+							}
+							assertTrue(result.isComplete());
+							count++;
+						}
+						return count;
+					}
+				}));
+			}
+			latch.countDown();
+			for (Future<Integer> result : results) {
+				assertEquals(5000, result.get().intValue());
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	private static class CodeState extends AbstractState<String, Code> {
+
+		private final Code result;
+
+		public CodeState(String name, Code result) {
+			super(name);
+			this.result = result;
+		}
+
+		public Code handle(String context) throws Exception {
+			return result;
+		}
+
+	}
+
+	private static class NumberState extends AbstractState<String, Number> {
+
+		private final Number result;
+
+		public NumberState(String name, Number result) {
+			super(name);
+			this.result = result;
+		}
+
+		public Number handle(String context) throws Exception {
+			return result;
+		}
+
+	}
+
+	private static class StubAsyncState extends StubState implements AsyncState<String, String> {
+
+		private final ListenableFuture<String> outcome;
+
+		public StubAsyncState(String name, ListenableFuture<String> outcome) {
+			super(name);
+			this.outcome = outcome;
+		}
+
+		public ListenableFuture<String> handleAsync(String context) {
+			return outcome;
+		}
+
+	}
+
+	private static class StubState extends AbstractState<String, String> {
+
+		private final String result;
+
+		public StubState(String name, String result) {
+			super(name);
+			this.result = result;
+		}
+
+		public StubState(String name) {
+			this(name, "COMPLETED");
+		}
+
+		public String handle(String context) throws Exception {
+			return result;
+		}
+
+	}
+
+}
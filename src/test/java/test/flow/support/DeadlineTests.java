@@ -0,0 +1,68 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class DeadlineTests {
+
+	@Test
+	public void testMin() throws Exception {
+		Deadline early = Deadline.in(1, TimeUnit.SECONDS);
+		Deadline late = Deadline.in(1, TimeUnit.HOURS);
+		assertSame(early, early.min(late));
+		assertSame(early, late.min(early));
+		assertSame(late, late.min(null));
+	}
+
+	@Test
+	public void testExpired() throws Exception {
+		assertTrue(Deadline.in(-1, TimeUnit.MILLISECONDS).isExpired());
+		assertFalse(Deadline.in(1, TimeUnit.HOURS).isExpired());
+	}
+
+	@Test
+	public void testCallRestoresPrevious() throws Exception {
+		final Deadline outer = Deadline.in(1, TimeUnit.HOURS);
+		final Deadline inner = Deadline.in(1, TimeUnit.SECONDS);
+		Deadline result = Deadline.call(outer, new Callable<Deadline>() {
+			public Deadline call() throws Exception {
+				assertEquals(inner, Deadline.call(inner, new Callable<Deadline>() {
+					public Deadline call() throws Exception {
+						return Deadline.current();
+					}
+				}));
+				return Deadline.current();
+			}
+		});
+		assertSame(outer, result);
+		assertNull(Deadline.current());
+	}
+
+}
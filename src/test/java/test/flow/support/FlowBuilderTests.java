@@ -63,6 +63,19 @@ public class FlowBuilderTests {
 
 	}
 
+	@Test
+	public void testBuildWithCompactMementos() throws Exception {
+
+		builder.compactMementos(true);
+		builder.end(new StubState("foo"));
+		Flow<String, String> flow = builder.build();
+
+		FlowResult<String,String> execution = flow.start("FOO");
+		assertEquals(Long.class, execution.getMemento().getClass());
+		assertEquals("COMPLETED", flow.resume(execution.getMemento(), "FOO", "COMPLETED").getEvent());
+
+	}
+
 	@Test
 	public void testBuildWithFinalEnd() throws Exception {
 
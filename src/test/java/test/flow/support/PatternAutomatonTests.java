@@ -0,0 +1,151 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import test.flow.support.match.PatternAutomaton;
+import test.flow.support.match.PatternMatcher;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class PatternAutomatonTests {
+
+	@Test
+	public void testFirstMatchWins() {
+		PatternAutomaton automaton = create("COMPLETED", "COMPLETED*", "*FAIL*", "?", "*");
+		assertEquals(0, automaton.match("COMPLETED"));
+		assertEquals(1, automaton.match("COMPLETED WITH SKIPS"));
+		assertEquals(2, automaton.match("FAILED"));
+		assertEquals(1, automaton.match("COMPLETED BUT FAILED"));
+		assertEquals(2, automaton.match("NOT COMPLETED: FAILED"));
+		assertEquals(3, automaton.match("X"));
+		assertEquals(4, automaton.match(""));
+		assertEquals(4, automaton.match("UNKNOWN"));
+	}
+
+	@Test
+	public void testNoMatch() {
+		PatternAutomaton automaton = create("COMPLETED", "FAILED");
+		assertEquals(-1, automaton.match("COMPLETE"));
+		assertEquals(-1, automaton.match("COMPLETED "));
+		assertEquals(-1, automaton.match(""));
+	}
+
+	@Test
+	public void testWildcardsDoNotMatchLineTerminators() {
+		PatternAutomaton automaton = create("A*", "?B");
+		assertEquals(-1, automaton.match("A\nB"));
+		assertEquals(-1, automaton.match("\nB"));
+		assertEquals(0, automaton.match("AB"));
+	}
+
+	@Test
+	public void testNonAsciiLiterals() {
+		PatternAutomaton automaton = create("\u00e9T\u00e9*", "*\u00e9");
+		assertEquals(0, automaton.match("\u00e9T\u00e9 FINI"));
+		assertEquals(1, automaton.match("CAF\u00e9"));
+		assertEquals(-1, automaton.match("CAFE"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotGlob() {
+		create("A.B");
+	}
+
+	@Test
+	public void testTooManyStates() {
+		List<String> patterns = new ArrayList<String>();
+		for (int i = 0; i < 16; i++) {
+			patterns.add("*" + (char) ('A' + i) + "*" + (char) ('a' + i) + "?" + (char) ('A' + i));
+		}
+		assertNull(create(patterns.toArray(new String[0])));
+	}
+
+	@Test
+	public void testManyContainsPatterns() {
+		List<String> patterns = new ArrayList<String>();
+		for (int i = 0; i < 32; i++) {
+			patterns.add("*FAIL" + i + "*");
+		}
+		patterns.add("*");
+		PatternAutomaton automaton = create(patterns.toArray(new String[0]));
+		assertNotNull(automaton);
+		assertEquals(9, automaton.match("STEP FAIL9"));
+		assertEquals(2, automaton.match("FAIL29 AND FAIL3"));
+		assertEquals(32, automaton.match("COMPLETED"));
+	}
+
+	@Test
+	public void testSameAsPatternMatcher() {
+		Random random = new Random(1234);
+		String alphabet = "AB*?";
+		for (int round = 0; round < 200; round++) {
+			List<PatternMatcher> matchers = new ArrayList<PatternMatcher>();
+			for (int i = 0; i < 1 + random.nextInt(6); i++) {
+				matchers.add(new PatternMatcher(randomString(random, alphabet, 1 + random.nextInt(5))));
+			}
+			Collections.sort(matchers, new Comparator<PatternMatcher>() {
+				public int compare(PatternMatcher o1, PatternMatcher o2) {
+					return o1.compareTo(o2);
+				}
+			});
+			PatternAutomaton automaton = PatternAutomaton.create(matchers);
+			assertNotNull(automaton);
+			for (int value = 0; value < 20; value++) {
+				String input = randomString(random, "ABC", random.nextInt(7));
+				int expected = -1;
+				for (int k = 0; k < matchers.size(); k++) {
+					String regex = matchers.get(k).getPattern().replace("?", ".").replace("*", ".*?");
+					if (input.matches(regex)) {
+						expected = k;
+						break;
+					}
+				}
+				assertEquals("Wrong match for " + input + " in " + matchers, expected, automaton.match(input));
+			}
+		}
+	}
+
+	private String randomString(Random random, String alphabet, int length) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return builder.toString();
+	}
+
+	private PatternAutomaton create(String... patterns) {
+		List<PatternMatcher> matchers = new ArrayList<PatternMatcher>();
+		for (String pattern : patterns) {
+			matchers.add(new PatternMatcher(pattern));
+		}
+		return PatternAutomaton.create(matchers);
+	}
+
+}
@@ -112,6 +112,31 @@ public class PatternMatcherTests {
 		assertTrue(matcher.match("CONTINUABLE"));
 	}
 
+	@Test
+	public void testMatchWildcardNotLineTerminator() {
+		assertFalse(new PatternMatcher("A*C").match("A\nC"));
+		assertFalse(new PatternMatcher("A?C").match("A\rC"));
+	}
+
+	@Test
+	public void testMatchBacktrack() {
+		assertTrue(new PatternMatcher("*AB").match("AAAB"));
+		assertFalse(new PatternMatcher("*AB*C").match("AABABD"));
+	}
+
+	@Test
+	public void testGlob() {
+		assertTrue(new PatternMatcher("COMPLETED*").isGlob());
+		assertFalse(new PatternMatcher("COMPLETED.").isGlob());
+	}
+
+	@Test
+	public void testMatchRegexCharacters() {
+		// Not a glob so regex semantics apply (as they always did)
+		assertTrue(new PatternMatcher("A.C").match("ABC"));
+		assertTrue(new PatternMatcher("A[BD]*").match("AD"));
+	}
+
 	@Test
 	public void testSimpleOrderingEqual() {
 		PatternMatcher matcher = new PatternMatcher("CONTIN???LE");
@@ -21,9 +21,15 @@ import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
@@ -151,6 +157,21 @@ public class SimpleFlowTests {
 		assertEquals("[COMPLETED]", flow.getTriggers("step1").toString());
 	}
 
+	@Test
+	public void testCustomWildcardTriggers() throws Exception {
+		flow = new SimpleFlow<String, String>("job") {
+			@Override
+			protected String getConcretePatternForWildcard(Collection<String> triggers) {
+				return "CUSTOM";
+			}
+		};
+		flow.setTransitions(collect(Transition.create(new StubState("step1"), "step2"), Transition
+				.createEnd(new StubState("step2"))));
+		flow.afterPropertiesSet();
+		assertEquals("[CUSTOM]", flow.getTriggers("step1").toString());
+		assertEquals("[CUSTOM]", flow.compile().getTriggers("step1").toString());
+	}
+
 	@Test
 	public void testAnythingTriggers() throws Exception {
 		flow.setTransitions(collect(Transition.create(new StubState("step1"), "step2"), Transition
@@ -237,6 +258,35 @@ public class SimpleFlowTests {
 		assertEquals("step3", execution.getMemento());
 	}
 
+	@Test
+	public void testConcurrentInitialization() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			for (int round = 0; round < 50; round++) {
+				final SimpleFlow<String, String> flow = new SimpleFlow<String, String>("job");
+				flow.setTransitions(collect(Transition.create(new StubState("step1"), "step2"), Transition.create(
+						new StubState("step2"), "step3"), Transition.createEnd(new StubState("step3"))));
+				final CountDownLatch latch = new CountDownLatch(1);
+				List<Future<FlowResult<String, String>>> results = new ArrayList<Future<FlowResult<String, String>>>();
+				for (int i = 0; i < 8; i++) {
+					results.add(executor.submit(new Callable<FlowResult<String, String>>() {
+						public FlowResult<String, String> call() throws Exception {
+							latch.await();
+							return flow.start("data");
+						}
+					}));
+				}
+				latch.countDown();
+				for (Future<FlowResult<String, String>> result : results) {
+					assertEquals("step3", result.get().getMemento());
+				}
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
 	private List<Transition<String, String>> collect(Transition<String, String> s1, Transition<String, String> s2) {
 		List<Transition<String, String>> list = new ArrayList<Transition<String, String>>();
 		list.add(s1);
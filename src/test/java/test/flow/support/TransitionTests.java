@@ -22,6 +22,7 @@ import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 import test.flow.support.match.AlwaysMatcher;
+import test.flow.support.match.Matcher;
 import test.flow.support.match.PatternMatcher;
 
 /**
@@ -32,7 +33,7 @@ public class TransitionTests {
 
 	@Test
 	public void testIsEnd() {
-		Transition<String, String> transition = Transition.createEnd(null, new AlwaysMatcher<String>());
+		Transition<String, String> transition = Transition.<String, String> createEnd(null, new AlwaysMatcher<String>());
 		assertTrue(transition.isEnd());
 		assertNull(transition.getNext());
 	}
@@ -47,13 +48,13 @@ public class TransitionTests {
 
 	@Test
 	public void testMatchesStar() {
-		Transition<String, String> transition = Transition.create(null, new PatternMatcher("*"), "start");
+		Transition<String, String> transition = Transition.<String, String> create(null, new PatternMatcher("*"), "start");
 		assertTrue(transition.matches("CONTINUABLE"));
 	}
 
 	@Test
 	public void testMatchesNull() {
-		Transition<String, String> transition = Transition.create(null, null, "start");
+		Transition<String, String> transition = Transition.<String, String> create(null, (Matcher<String>) null, "start");
 		assertTrue(transition.matches("CONTINUABLE"));
 	}
 
@@ -72,13 +73,13 @@ public class TransitionTests {
 	@Test
 	public void testEquals() {
 		Transition<String, String> transition = Transition.create(null, "*", "start");
-		Transition<String, String> other = Transition.create(null, new PatternMatcher("*"), "start");
+		Transition<String, String> other = Transition.<String, String> create(null, new PatternMatcher("*"), "start");
 		assertTrue(transition.equals(other));
 	}
 
 	@Test
 	public void testToString() {
-		Transition<String, String> transition = Transition.create(null, new PatternMatcher("CONTIN???LE"), "start");
+		Transition<String, String> transition = Transition.<String, String> create(null, new PatternMatcher("CONTIN???LE"), "start");
 		String string = transition.toString();
 		assertTrue("Wrong string: " + string, string.contains("Transition"));
 		assertTrue("Wrong string: " + string, string.contains("start"));
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.codec;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class BinaryOutputTests {
+
+	private BinaryOutput output = new BinaryOutput(4);
+
+	@Test
+	public void testVarInts() {
+		int[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE };
+		for (int value : values) {
+			output.writeVarInt(value);
+		}
+		output.writeVarLong(Long.MAX_VALUE).writeVarLong(-1L).writeVarLong(300L);
+		BinaryInput input = new BinaryInput(output.toByteBuffer());
+		for (int value : values) {
+			assertEquals(value, input.readVarInt());
+		}
+		assertEquals(Long.MAX_VALUE, input.readVarLong());
+		assertEquals(-1L, input.readVarLong());
+		assertEquals(300L, input.readVarLong());
+		assertEquals(0, input.getBuffer().remaining());
+	}
+
+	@Test
+	public void testVarIntSize() {
+		output.writeVarInt(127);
+		assertEquals(1, output.size());
+		output.writeVarInt(128);
+		assertEquals(3, output.size());
+		output.writeVarInt(-1);
+		assertEquals(8, output.size());
+	}
+
+	@Test
+	public void testStrings() {
+		String[] values = { "", "COMPLETED", "caf\u00e9", longString() };
+		for (String value : values) {
+			output.writeString(value);
+		}
+		assertStrings(values, output.toByteBuffer());
+		// Reading from outside the heap (e.g. a mapped file)
+		ByteBuffer direct = ByteBuffer.allocateDirect(output.size());
+		direct.put(output.toByteBuffer()).flip();
+		assertStrings(values, direct);
+	}
+
+	@Test
+	public void testReset() {
+		output.writeString("foo").writeInt(123).writeByte(7);
+		assertEquals(9, output.size());
+		output.reset();
+		output.writeBytes(new byte[] { 1, 2 });
+		BinaryInput input = new BinaryInput(ByteBuffer.wrap(output.toByteArray()));
+		assertEquals(2, input.readBytes().length);
+	}
+
+	private void assertStrings(String[] values, ByteBuffer buffer) {
+		BinaryInput input = new BinaryInput(buffer);
+		for (String value : values) {
+			assertEquals(value, input.readString());
+		}
+		assertEquals(0, buffer.remaining());
+	}
+
+	private String longString() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			builder.append("step").append(i);
+		}
+		return builder.toString();
+	}
+
+}
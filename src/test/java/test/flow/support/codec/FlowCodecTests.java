@@ -0,0 +1,145 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import test.flow.FlowFailure;
+import test.flow.FlowFailure.Kind;
+import test.flow.FlowResult;
+import test.flow.support.CompiledFlow;
+import test.flow.support.FlowBuilder;
+import test.issue.Action;
+import test.issue.Issue;
+import test.issue.Status;
+import test.issue.tracker.IssueState;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class FlowCodecTests {
+
+	private FlowCodec<Action> codec = new FlowCodec<Action>(new EnumCodec<Action>(Action.class));
+
+	private Issue issue = new Issue(123L, "Not working");
+
+	@Test
+	public void testStateName() throws Exception {
+		FlowResult<Issue, Action> result = roundTrip(new FlowResult<Issue, Action>("CREATED", issue,
+				Action.APPROVED, false));
+		assertEquals("CREATED", result.getMemento());
+		assertEquals(Action.APPROVED, result.getEvent());
+		assertEquals(issue, result.getContext());
+		assertFalse(result.isComplete());
+		// Version, flags, type, length, name and ordinal
+		assertEquals(12, codec.encode(result).length);
+	}
+
+	@Test
+	public void testCompactMemento() throws Exception {
+		FlowBuilder<Issue, Action> builder = new FlowBuilder<Issue, Action>("issues");
+		builder.compactMementos(true);
+		builder.from(new IssueState(Status.CREATED)).on(Action.APPROVED).to(new IssueState(Status.ACCEPTED));
+		CompiledFlow<Issue, Action> flow = builder.build();
+		FlowResult<Issue, Action> result = roundTrip(flow.start(issue));
+		assertEquals(6, codec.encode(result).length - 2);
+		result = flow.resume(result.getMemento(), issue, Action.APPROVED);
+		assertEquals(Status.ACCEPTED, issue.getStatus());
+		assertEquals(result.getMemento(), roundTrip(result).getMemento());
+	}
+
+	@Test
+	public void testNegativeLong() throws Exception {
+		assertEquals(-1L, roundTrip(new FlowResult<Issue, Action>(-1L, issue, null)).getMemento());
+		assertEquals(Long.MIN_VALUE, roundTrip(new FlowResult<Issue, Action>(Long.MIN_VALUE, issue, null))
+				.getMemento());
+	}
+
+	@Test
+	public void testNulls() throws Exception {
+		FlowResult<Issue, Action> result = roundTrip(new FlowResult<Issue, Action>(issue, null));
+		assertNull(result.getMemento());
+		assertNull(result.getEvent());
+		assertTrue(result.isComplete());
+	}
+
+	@Test
+	public void testOtherMemento() throws Exception {
+		assertEquals(12, roundTrip(new FlowResult<Issue, Action>(12, issue, null)).getMemento());
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		FlowFailure failure = new FlowFailure(Kind.NO_TRANSITION, "issues", "UNCLEAR", 3, Action.REJECTED, null);
+		FlowResult<Issue, Action> result = roundTrip(new FlowResult<Issue, Action>("UNCLEAR", issue,
+				Action.REJECTED, failure));
+		assertTrue(result.isFailed());
+		assertEquals(Kind.NO_TRANSITION, result.getFailure().getKind());
+		assertEquals("UNCLEAR", result.getFailure().getStateName());
+		assertEquals(3, result.getFailure().getStateIndex());
+		assertEquals(failure.getMessage(), result.getFailure().getMessage());
+	}
+
+	@Test
+	public void testFailureFromUnnamedFlow() throws Exception {
+		FlowFailure failure = new FlowFailure(Kind.STATE_EXCEPTION, null, "CREATED", 0, null, null);
+		FlowResult<Issue, Action> result = roundTrip(new FlowResult<Issue, Action>("CREATED", issue, null, failure));
+		assertTrue(result.isFailed());
+		assertNull(result.getFailure().getFlowName());
+		assertEquals("CREATED", result.getFailure().getStateName());
+		assertEquals(failure.getMessage(), result.getFailure().getMessage());
+	}
+
+	@Test
+	public void testSmallerThanJavaSerialization() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream stream = new ObjectOutputStream(bytes);
+		stream.writeObject(new Object[] { "CREATED", Action.APPROVED, false });
+		stream.close();
+		int encoded = codec.encode(new FlowResult<Issue, Action>("CREATED", issue, Action.APPROVED, false)).length;
+		assertTrue("Expected less than a tenth of " + bytes.size() + " but was " + encoded,
+				10 * encoded < bytes.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownVersion() throws Exception {
+		byte[] bytes = codec.encode(new FlowResult<Issue, Action>(issue, null));
+		bytes[0] = 2;
+		codec.decode(ByteBuffer.wrap(bytes), issue);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownOrdinal() throws Exception {
+		byte[] bytes = codec.encode(new FlowResult<Issue, Action>(null, issue, Action.APPROVED));
+		bytes[bytes.length - 1] = 100;
+		codec.decode(ByteBuffer.wrap(bytes), issue);
+	}
+
+	private FlowResult<Issue, Action> roundTrip(FlowResult<Issue, Action> result) {
+		return codec.decode(ByteBuffer.wrap(codec.encode(result)), issue);
+	}
+
+}
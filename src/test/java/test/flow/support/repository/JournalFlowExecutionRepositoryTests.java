@@ -0,0 +1,312 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.task.SyncTaskExecutor;
+
+import test.flow.support.codec.FlowCodec;
+import test.flow.support.codec.StringCodec;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class JournalFlowExecutionRepositoryTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	private JournalFlowExecutionRepository<String> repository;
+
+	@Before
+	public void setUp() throws Exception {
+		file = new File(folder.getRoot(), "flows.journal");
+		repository = new JournalFlowExecutionRepository<String>(file, 4096);
+	}
+
+	@After
+	public void tearDown() {
+		repository.close();
+	}
+
+	@Test
+	public void testSaveAndGet() throws Exception {
+		repository.save(1L, "step1", "PAUSED");
+		repository.save(2L, "step2", "WAITING");
+		assertEquals(2, repository.size());
+		PausedExecution<String> execution = repository.get(1L);
+		assertEquals(1L, execution.getId());
+		assertEquals("step1", execution.getMemento());
+		assertEquals("PAUSED", execution.getEvent());
+		assertNull(repository.get(3L));
+	}
+
+	@Test
+	public void testSaveReplaces() throws Exception {
+		repository.save(1L, "step1", "PAUSED");
+		repository.save(1L, "step2", "WAITING");
+		assertEquals(1, repository.size());
+		assertEquals("step2", repository.get(1L).getMemento());
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		repository.save(1L, "step1", "PAUSED");
+		repository.remove(1L);
+		repository.remove(2L);
+		assertEquals(0, repository.size());
+		assertNull(repository.get(1L));
+	}
+
+	@Test
+	public void testRecover() throws Exception {
+		repository.save(1L, "step1", "PAUSED");
+		repository.save(2L, 123L, "WAITING");
+		repository.save(1L, "step2", "PAUSED");
+		repository.remove(2L);
+		repository.save(0L, "step3", null);
+		repository.close();
+		repository = new JournalFlowExecutionRepository<String>(file);
+		assertEquals(2, repository.size());
+		assertEquals("step2", repository.get(1L).getMemento());
+		assertNull(repository.get(2L));
+		assertEquals("step3", repository.get(0L).getMemento());
+		assertNull(repository.get(0L).getEvent());
+	}
+
+	@Test
+	public void testRecoverAcrossRegions() throws Exception {
+		for (long i = 0; i < 500; i++) {
+			repository.save(i, "step" + i, "PAUSED");
+		}
+		assertEquals("step7", repository.get(7L).getMemento());
+		repository.close();
+		assertEquals(0, repository.getFile().length() % 4096);
+		repository = new JournalFlowExecutionRepository<String>(file, 4096);
+		assertEquals(500, repository.size());
+		assertEquals("step7", repository.get(7L).getMemento());
+		assertEquals("step499", repository.get(499L).getMemento());
+	}
+
+	@Test
+	public void testRecoverTornRecord() throws Exception {
+		repository.save(1L, "step1", "PAUSED");
+		repository.save(2L, "step2", "PAUSED");
+		repository.close();
+		File journal = repository.getFile();
+		long length = journal.length();
+		// Corrupt the last byte of the second record
+		RandomAccessFile raw = new RandomAccessFile(journal, "rw");
+		try {
+			long end = 16;
+			for (int i = 0; i < 2; i++) {
+				raw.seek(end);
+				end += 8 + raw.readInt();
+			}
+			raw.seek(end - 1);
+			int value = raw.read();
+			raw.seek(end - 1);
+			raw.write(value ^ 0xff);
+		}
+		finally {
+			raw.close();
+		}
+		repository = new JournalFlowExecutionRepository<String>(file, 4096);
+		assertEquals(1, repository.size());
+		assertNull(repository.get(2L));
+		repository.save(3L, "step3", "PAUSED");
+		repository.close();
+		assertEquals(length, journal.length());
+		repository = new JournalFlowExecutionRepository<String>(file, 4096);
+		assertEquals(2, repository.size());
+		assertEquals("step3", repository.get(3L).getMemento());
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+		for (int round = 0; round < 3; round++) {
+			for (long i = 0; i < 100; i++) {
+				repository.save(i, "step" + round, "PAUSED");
+			}
+		}
+		for (long i = 0; i < 50; i++) {
+			repository.remove(i);
+		}
+		File old = repository.getFile();
+		repository.compact();
+		assertFalse(old.exists());
+		assertEquals(50, repository.size());
+		assertEquals("step2", repository.get(99L).getMemento());
+		assertEquals("[flows.journal.000001.journal, flows.journal.000002.snapshot]", files());
+		repository.save(100L, "step3", "PAUSED");
+		repository.remove(99L);
+		repository.close();
+		repository = new JournalFlowExecutionRepository<String>(file, 4096);
+		assertEquals(50, repository.size());
+		assertNull(repository.get(99L));
+		assertEquals("step2", repository.get(98L).getMemento());
+		assertEquals("step3", repository.get(100L).getMemento());
+		// Compact again: the old snapshot is replaced
+		repository.compact();
+		assertEquals("[flows.journal.000003.journal, flows.journal.000004.snapshot]", files());
+		assertEquals(50, repository.size());
+		assertEquals("step3", repository.get(100L).getMemento());
+	}
+
+	@Test
+	public void testCompactWithConcurrentChanges() throws Exception {
+		for (long i = 0; i < 1000; i++) {
+			repository.save(i, "step0", "PAUSED");
+		}
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Void> future = executor.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					for (long i = 0; i < 1000; i++) {
+						if (i % 2 == 0) {
+							repository.remove(i);
+						}
+						else {
+							repository.save(i, "step1", "PAUSED");
+						}
+					}
+					return null;
+				}
+			});
+			repository.compact();
+			future.get();
+		}
+		finally {
+			executor.shutdown();
+		}
+		assertEquals(500, repository.size());
+		assertEquals("step1", repository.get(999L).getMemento());
+		repository.close();
+		repository = new JournalFlowExecutionRepository<String>(file, 4096);
+		assertEquals(500, repository.size());
+		assertNull(repository.get(998L));
+		assertEquals("step1", repository.get(999L).getMemento());
+	}
+
+	@Test
+	public void testAutomaticCompaction() throws Exception {
+		repository.setTaskExecutor(new SyncTaskExecutor());
+		repository.setCompactionThreshold(3 * 4096);
+		for (int round = 0; round < 10; round++) {
+			for (long i = 0; i < 100; i++) {
+				repository.save(i, "step" + round, "PAUSED");
+			}
+		}
+		assertTrue(repository.getFile().length() <= 4 * 4096);
+		assertEquals(2, folder.getRoot().list().length);
+		repository.close();
+		repository = new JournalFlowExecutionRepository<String>(file, 4096);
+		assertEquals(100, repository.size());
+		assertEquals("step9", repository.get(0L).getMemento());
+	}
+
+	@Test
+	public void testRecoverIgnoresIncompleteSnapshot() throws Exception {
+		repository.save(1L, "step1", "PAUSED");
+		repository.close();
+		File tmp = new File(folder.getRoot(), "flows.journal.000005.snapshot.tmp");
+		assertTrue(tmp.createNewFile());
+		repository = new JournalFlowExecutionRepository<String>(file, 4096);
+		assertFalse(tmp.exists());
+		assertEquals("step1", repository.get(1L).getMemento());
+	}
+
+	private String files() {
+		String[] names = folder.getRoot().list();
+		Arrays.sort(names);
+		return Arrays.asList(names).toString();
+	}
+
+	@Test
+	public void testCodec() throws Exception {
+		repository.save(1L, "step1", "PAUSED");
+		repository.setCodec(new FlowCodec<String>(new StringCodec()));
+		repository.save(2L, "step2", "WAITING");
+		repository.save(3L, 123L, null);
+		// Written before the codec was set
+		assertEquals("PAUSED", repository.get(1L).getEvent());
+		assertEquals("WAITING", repository.get(2L).getEvent());
+		repository.close();
+		repository = new JournalFlowExecutionRepository<String>(file, 4096);
+		repository.setCodec(new FlowCodec<String>(new StringCodec()));
+		assertEquals("step1", repository.get(1L).getMemento());
+		assertEquals("step2", repository.get(2L).getMemento());
+		assertEquals(123L, repository.get(3L).getMemento());
+		assertNull(repository.get(3L).getEvent());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRecordTooLarge() throws Exception {
+		repository.save(1L, new byte[4096], "PAUSED");
+	}
+
+	@Test
+	public void testConcurrentSaves() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < 4; t++) {
+				final long base = t * 1000;
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						for (long i = base; i < base + 100; i++) {
+							repository.save(i, "step" + i, "PAUSED");
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		repository.close();
+		repository = new JournalFlowExecutionRepository<String>(file, 4096);
+		assertEquals(400, repository.size());
+		assertEquals("step3099", repository.get(3099L).getMemento());
+	}
+
+}
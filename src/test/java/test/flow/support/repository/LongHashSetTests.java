@@ -0,0 +1,69 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class LongHashSetTests {
+
+	private LongHashSet set = new LongHashSet();
+
+	@Test
+	public void testAddAndRemove() {
+		assertTrue(set.add(0L));
+		assertTrue(set.add(5L));
+		assertFalse(set.add(5L));
+		assertEquals("[0, 5]", set.toString());
+		assertTrue(set.remove(0L));
+		assertFalse(set.remove(0L));
+		assertEquals(1, set.size());
+	}
+
+	@Test
+	public void testRandomOperations() {
+		Set<Long> expected = new HashSet<Long>();
+		Random random = new Random(0);
+		for (int i = 0; i < 100000; i++) {
+			long value = random.nextInt(2000) - 1000;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(value), set.remove(value));
+			}
+			else {
+				assertEquals(expected.add(value), set.add(value));
+			}
+		}
+		assertEquals(expected.size(), set.size());
+		assertEquals(expected.size(), set.toArray().length);
+		for (long value : set.toArray()) {
+			assertTrue(expected.contains(value));
+		}
+		set.clear();
+		assertTrue(set.isEmpty());
+	}
+
+}
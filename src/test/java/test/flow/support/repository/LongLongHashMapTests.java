@@ -0,0 +1,80 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class LongLongHashMapTests {
+
+	private LongLongHashMap map = new LongLongHashMap(-1);
+
+	@Test
+	public void testPutAndGet() {
+		assertEquals(-1, map.put(1L, 10L));
+		assertEquals(10, map.put(1L, 11L));
+		assertEquals(11, map.get(1L));
+		assertEquals(-1, map.get(2L));
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	public void testZeroKey() {
+		map.put(0L, 5L);
+		assertTrue(map.containsKey(0L));
+		assertEquals(5, map.get(0L));
+		assertEquals(1, map.size());
+		assertEquals(5, map.remove(0L));
+		assertFalse(map.containsKey(0L));
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	public void testRandomOperations() {
+		Map<Long, Long> expected = new HashMap<Long, Long>();
+		Random random = new Random(0);
+		for (int i = 0; i < 100000; i++) {
+			// A small key space so that there are lots of collisions
+			long key = random.nextInt(2000) - 1000;
+			if (random.nextInt(3) == 0) {
+				Long old = expected.remove(key);
+				assertEquals(old == null ? -1 : old, map.remove(key));
+			}
+			else {
+				Long old = expected.put(key, (long) i);
+				assertEquals(old == null ? -1 : old, map.put(key, i));
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		for (long key = -1000; key < 1000; key++) {
+			assertEquals(expected.containsKey(key), map.containsKey(key));
+		}
+		map.clear();
+		assertEquals(0, map.size());
+	}
+
+}
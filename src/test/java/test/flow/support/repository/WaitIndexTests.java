@@ -0,0 +1,199 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static test.issue.Action.APPROVED;
+import static test.issue.Action.REJECTED;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import test.flow.FlowResult;
+import test.flow.support.CompiledFlow;
+import test.flow.support.FlowBuilder;
+import test.flow.support.FlowDefinitionException;
+import test.issue.Action;
+import test.issue.Issue;
+import test.issue.Status;
+import test.issue.tracker.IssueState;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class WaitIndexTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CompiledFlow<Issue, Action> flow;
+
+	private WaitIndex index;
+
+	@Before
+	public void setUp() {
+		flow = createFlow(false);
+		index = new WaitIndex(flow);
+	}
+
+	@Test
+	public void testWaiting() throws Exception {
+		index.paused(1L, "CREATED");
+		index.paused(2L, "CREATED");
+		index.paused(3L, "UNCLEAR");
+		assertEquals("[1, 2]", sort(index.getWaiting("CREATED", "APPROVED")));
+		assertEquals("[1, 2]", sort(index.getWaiting("CREATED", "REJECTED")));
+		assertEquals("[3]", sort(index.getWaiting("UNCLEAR", "APPROVED")));
+		// An unclear issue cannot be rejected
+		assertEquals("[]", sort(index.getWaiting("UNCLEAR", "REJECTED")));
+		assertEquals("[]", sort(index.getWaiting("ACCEPTED", "APPROVED")));
+		assertEquals(2, index.getWaitingCount("CREATED", "APPROVED"));
+		assertTrue(index.isWaiting(3L, "UNCLEAR", "APPROVED"));
+		assertFalse(index.isWaiting(3L, "CREATED", "APPROVED"));
+	}
+
+	@Test
+	public void testMoveAndRemove() throws Exception {
+		index.paused(1L, "CREATED");
+		index.paused(2L, "CREATED");
+		index.paused(1L, "ACCEPTED");
+		assertEquals("[2]", sort(index.getWaiting("CREATED", "APPROVED")));
+		assertEquals("[1]", sort(index.getWaiting("ACCEPTED", "REJECTED")));
+		index.removed(1L);
+		index.removed(3L);
+		assertEquals(0, index.getWaitingCount("ACCEPTED", "REJECTED"));
+		assertEquals(1, index.getWaitingCount("CREATED", "APPROVED"));
+	}
+
+	@Test
+	public void testNoTransitions() throws Exception {
+		index.paused(1L, "CLOSED");
+		assertEquals(0, index.getWaitingCount("CLOSED", "APPROVED"));
+		index.paused(1L, "CREATED");
+		assertEquals(1, index.getWaitingCount("CREATED", "APPROVED"));
+	}
+
+	@Test
+	public void testCompactMementos() throws Exception {
+		flow = createFlow(true);
+		index = new WaitIndex(flow);
+		FlowResult<Issue, Action> result = flow.start(new Issue(1L, "Not working"));
+		index.paused(1L, result.getMemento());
+		assertEquals("[1]", sort(index.getWaiting("CREATED", "REJECTED")));
+	}
+
+	@Test(expected = FlowDefinitionException.class)
+	public void testUnknownState() throws Exception {
+		index.paused(1L, "UNKNOWN");
+	}
+
+	@Test
+	public void testConcurrentChanges() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < 4; t++) {
+				final long base = t * 10000;
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						for (long id = base; id < base + 1000; id++) {
+							index.paused(id, "CREATED");
+							index.paused(id, "ACCEPTED");
+							if (id % 2 == 0) {
+								index.paused(id, "RESOLVED");
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		assertEquals(0, index.getWaitingCount("CREATED", "APPROVED"));
+		assertEquals(2000, index.getWaitingCount("ACCEPTED", "APPROVED"));
+		assertEquals(2000, index.getWaitingCount("RESOLVED", "APPROVED"));
+	}
+
+	@Test
+	public void testRepositoryIndexedOnStartup() throws Exception {
+		File file = new File(folder.getRoot(), "issues.journal");
+		JournalFlowExecutionRepository<Action> journal = new JournalFlowExecutionRepository<Action>(file, 4096);
+		IndexedFlowExecutionRepository<Action> repository = new IndexedFlowExecutionRepository<Action>(journal,
+				flow);
+		repository.save(1L, "CREATED", null);
+		repository.save(2L, "CREATED", null);
+		repository.save(2L, "REVISED", APPROVED);
+		repository.save(3L, "REVISED", APPROVED);
+		repository.remove(3L);
+		assertEquals("[2]", sort(repository.getWaiting("REVISED", "APPROVED")));
+		journal.close();
+		journal = new JournalFlowExecutionRepository<Action>(file, 4096);
+		try {
+			repository = new IndexedFlowExecutionRepository<Action>(journal, flow);
+			assertEquals("[1]", sort(repository.getWaiting("CREATED", "APPROVED")));
+			assertEquals("[2]", sort(repository.getWaiting("REVISED", "APPROVED")));
+		}
+		finally {
+			journal.close();
+		}
+	}
+
+	private CompiledFlow<Issue, Action> createFlow(boolean compactMementos) {
+
+		IssueState created = new IssueState(Status.CREATED);
+		IssueState accepted = new IssueState(Status.ACCEPTED);
+		IssueState resolved = new IssueState(Status.RESOLVED);
+		IssueState revised = new IssueState(Status.REVISED);
+		IssueState unclear = new IssueState(Status.UNCLEAR);
+
+		FlowBuilder<Issue, Action> builder = new FlowBuilder<Issue, Action>("issues");
+		builder.from(created).on(APPROVED).to(accepted).on(APPROVED).to(resolved)
+				.on(APPROVED).to(new IssueState(Status.CLOSED));
+		builder.from(created).on(REJECTED).to(unclear).on(APPROVED).to(revised)
+				.on(APPROVED).to(accepted);
+		builder.from(accepted).on(REJECTED).to(unclear);
+		builder.from(resolved).on(REJECTED).to(unclear);
+		builder.from(revised).on(REJECTED).to(unclear);
+		builder.compactMementos(compactMementos);
+		return builder.build();
+
+	}
+
+	private String sort(long[] values) {
+		Arrays.sort(values);
+		return Arrays.toString(values);
+	}
+
+}
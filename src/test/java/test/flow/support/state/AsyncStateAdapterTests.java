@@ -0,0 +1,96 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import test.flow.FlowResult;
+import test.flow.support.CompiledFlow;
+import test.flow.support.FlowBuilder;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class AsyncStateAdapterTests {
+
+	private SimpleAsyncTaskExecutor taskExecutor = new SimpleAsyncTaskExecutor("async-");
+
+	@Test
+	public void testNameAndPause() throws Exception {
+		AsyncStateAdapter<String, String> state = new AsyncStateAdapter<String, String>(new ThreadState("foo", true),
+				taskExecutor);
+		assertEquals("foo", state.getName());
+		assertTrue(state.isPause());
+	}
+
+	@Test
+	public void testHandleInCurrentThread() throws Exception {
+		AsyncStateAdapter<String, String> state = new AsyncStateAdapter<String, String>(new ThreadState("foo", false),
+				taskExecutor);
+		assertEquals(Thread.currentThread().getName(), state.handle("bar"));
+	}
+
+	@Test
+	public void testHandleAsyncInExecutor() throws Exception {
+		AsyncStateAdapter<String, String> state = new AsyncStateAdapter<String, String>(new ThreadState("foo", false),
+				taskExecutor);
+		assertTrue(state.handleAsync("bar").get().startsWith("async-"));
+	}
+
+	@Test
+	public void testAsyncFlow() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		FlowBuilder<String, String> builder = new FlowBuilder<String, String>();
+		builder.from(new AsyncStateAdapter<String, String>(new ThreadState("step1", false) {
+			@Override
+			public String handle(String context) throws Exception {
+				// Make sure the flow has to wait for this state
+				latch.await();
+				return super.handle(context);
+			}
+		}, taskExecutor)).on("async-*").end(new ThreadState("step2", false));
+		CompiledFlow<String, String> flow = builder.build();
+		ListenableFuture<FlowResult<String, String>> future = flow.startAsync("bar");
+		latch.countDown();
+		FlowResult<String, String> result = future.get();
+		assertEquals("step2", result.getMemento());
+		// The flow carried on in the executor thread
+		assertTrue(result.getEvent().startsWith("async-"));
+		assertFalse(result.getEvent().equals(Thread.currentThread().getName()));
+	}
+
+	private static class ThreadState extends AbstractState<String, String> {
+
+		public ThreadState(String name, boolean pause) {
+			super(name, pause);
+		}
+
+		public String handle(String context) throws Exception {
+			return Thread.currentThread().getName();
+		}
+
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class CopyOnWriteContextTests {
+
+	private Map<String, Integer> parent = new HashMap<String, Integer>();
+
+	private CopyOnWriteContext<String, Integer> context;
+
+	@Before
+	public void setUp() {
+		parent.put("a", 1);
+		parent.put("b", 2);
+		context = new CopyOnWriteContext<String, Integer>(parent);
+	}
+
+	@Test
+	public void testReadThrough() throws Exception {
+		assertEquals(2, context.size());
+		assertEquals(1, context.get("a").intValue());
+		assertEquals(parent, context);
+		assertTrue(context.getWrites().isEmpty());
+	}
+
+	@Test
+	public void testWriteDoesNotChangeParent() throws Exception {
+		assertEquals(1, context.put("a", 10).intValue());
+		context.put("c", 3);
+		assertEquals(10, context.get("a").intValue());
+		assertEquals(3, context.size());
+		assertEquals(1, parent.get("a").intValue());
+		assertFalse(parent.containsKey("c"));
+		assertEquals(2, context.getWrites().size());
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		assertEquals(1, context.remove("a").intValue());
+		assertNull(context.remove("a"));
+		assertFalse(context.containsKey("a"));
+		assertEquals(1, context.size());
+		assertEquals(Collections.singletonMap("b", 2), context);
+		assertEquals(Collections.singleton("a"), context.getRemovals());
+		assertTrue(parent.containsKey("a"));
+		context.put("a", 5);
+		assertTrue(context.getRemovals().isEmpty());
+		assertEquals(2, context.size());
+	}
+
+	@Test
+	public void testRemoveWithIterator() throws Exception {
+		context.put("a", 10);
+		context.put("c", 3);
+		for (Iterator<Entry<String, Integer>> iterator = context.entrySet().iterator(); iterator.hasNext();) {
+			if (!iterator.next().getKey().equals("b")) {
+				iterator.remove();
+			}
+		}
+		assertEquals(Collections.singletonMap("b", 2), context);
+		assertEquals(1, context.size());
+		assertEquals(2, parent.size());
+		context.keySet().remove("b");
+		assertTrue(context.isEmpty());
+	}
+
+	@Test
+	public void testSetValue() throws Exception {
+		context.put("c", 3);
+		for (Entry<String, Integer> entry : context.entrySet()) {
+			entry.setValue(entry.getValue() * 10);
+		}
+		assertEquals(10, context.get("a").intValue());
+		assertEquals(20, context.get("b").intValue());
+		assertEquals(30, context.get("c").intValue());
+		assertEquals(3, context.size());
+		assertEquals(1, parent.get("a").intValue());
+	}
+
+	@Test
+	public void testClear() throws Exception {
+		context.put("c", 3);
+		context.clear();
+		assertTrue(context.isEmpty());
+		assertFalse(context.entrySet().iterator().hasNext());
+		assertEquals(2, parent.size());
+	}
+
+}
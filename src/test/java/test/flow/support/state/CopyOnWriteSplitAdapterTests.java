@@ -0,0 +1,123 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import test.flow.Flow;
+import test.flow.support.FlowBuilder;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class CopyOnWriteSplitAdapterTests {
+
+	private CopyOnWriteSplitAdapter<String, Integer, String> adapter = new CopyOnWriteSplitAdapter<String, Integer, String>();
+
+	private Map<String, Integer> parent = new HashMap<String, Integer>();
+
+	@Test
+	public void testMergeChanges() throws Exception {
+		parent.put("a", 1);
+		parent.put("b", 2);
+		Map<String, Integer> first = adapter.create(parent);
+		first.put("c", 3);
+		Map<String, Integer> second = adapter.create(parent);
+		second.remove("a");
+		second.put("b", 20);
+		adapter.aggregate(parent, children(first, second));
+		assertFalse(parent.containsKey("a"));
+		assertEquals(20, parent.get("b").intValue());
+		assertEquals(3, parent.get("c").intValue());
+	}
+
+	@Test
+	public void testSameChangeIsNotConflict() throws Exception {
+		Map<String, Integer> first = adapter.create(parent);
+		first.put("a", 1);
+		Map<String, Integer> second = adapter.create(parent);
+		second.put("a", 1);
+		adapter.aggregate(parent, children(first, second));
+		assertEquals(1, parent.get("a").intValue());
+	}
+
+	@Test
+	public void testConflict() throws Exception {
+		Map<String, Integer> first = adapter.create(parent);
+		first.put("a", 1);
+		Map<String, Integer> second = adapter.create(parent);
+		second.put("a", 2);
+		try {
+			adapter.aggregate(parent, children(first, second));
+			fail("Expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("key=a"));
+		}
+		assertTrue(parent.isEmpty());
+		adapter.setConflictResolver(CopyOnWriteSplitAdapter.<String, Integer> lastWins());
+		adapter.aggregate(parent, children(first, second));
+		assertEquals(2, parent.get("a").intValue());
+		adapter.setConflictResolver(CopyOnWriteSplitAdapter.<String, Integer> firstWins());
+		adapter.aggregate(parent, children(first, second));
+		assertEquals(1, parent.get("a").intValue());
+	}
+
+	@Test
+	public void testSplit() throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			parent.put("key" + i, i);
+		}
+		Collection<Flow<Map<String, Integer>, String>> flows = new ArrayList<Flow<Map<String, Integer>, String>>();
+		for (int i = 0; i < 4; i++) {
+			final String key = "flow" + i;
+			FlowBuilder<Map<String, Integer>, String> builder = new FlowBuilder<Map<String, Integer>, String>();
+			builder.end(new AbstractState<Map<String, Integer>, String>("step") {
+				public String handle(Map<String, Integer> context) throws Exception {
+					context.put(key, context.get("key999"));
+					context.remove("key0");
+					return "COMPLETED";
+				}
+			});
+			flows.add(builder.build());
+		}
+		SplitState<Map<String, Integer>, String> state = new SplitState<Map<String, Integer>, String>("split",
+				flows, adapter);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		assertEquals("COMPLETED", state.handle(parent));
+		assertEquals(1003, parent.size());
+		assertEquals(999, parent.get("flow3").intValue());
+		assertFalse(parent.containsKey("key0"));
+	}
+
+	private Collection<Map<String, Integer>> children(Map<String, Integer> first, Map<String, Integer> second) {
+		return Arrays.asList(first, second);
+	}
+
+}
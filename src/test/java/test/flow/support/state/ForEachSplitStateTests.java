@@ -0,0 +1,161 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static test.flow.support.state.TestFlows.createFlow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class ForEachSplitStateTests {
+
+	private ForEachAdapter<List<Integer>, Integer> adapter = new ForEachAdapter<List<Integer>, Integer>() {
+
+		public Collection<Integer> getItems(List<Integer> parent) {
+			return parent;
+		}
+
+		public List<Integer> create(List<Integer> parent, List<Integer> chunk) {
+			return new ArrayList<Integer>(chunk);
+		}
+
+		public void aggregate(List<Integer> parent, Collection<List<Integer>> children) {
+			parent.clear();
+			for (List<Integer> child : children) {
+				parent.addAll(child);
+			}
+		}
+
+	};
+
+	@Test
+	public void testChunks() throws Exception {
+		ForEachSplitState<List<Integer>, String, Integer> state = new ForEachSplitState<List<Integer>, String, Integer>(
+				"foreach", createFlow(new SumState("sum", null)), adapter);
+		state.setChunkSize(3);
+		List<Integer> context = new ArrayList<Integer>(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+		assertEquals("COMPLETED", state.handle(context));
+		// One sum per chunk
+		assertEquals(Arrays.asList(6, 15, 24, 10), context);
+	}
+
+	@Test
+	public void testParallelism() throws Exception {
+		SumState sum = new SumState("sum", null);
+		ForEachSplitState<List<Integer>, String, Integer> state = new ForEachSplitState<List<Integer>, String, Integer>(
+				"foreach", createFlow(sum), adapter);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		state.setParallelism(2);
+		List<Integer> context = new ArrayList<Integer>(Collections.nCopies(8, 1));
+		assertEquals("COMPLETED", state.handle(context));
+		assertEquals(8, context.size());
+		assertTrue("Too many running: " + sum.max, sum.max.get() <= 2);
+	}
+
+	@Test
+	public void testAsync() throws Exception {
+		ForEachSplitState<List<Integer>, String, Integer> state = new ForEachSplitState<List<Integer>, String, Integer>(
+				"foreach", createFlow(new SumState("sum", 3)), adapter);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		List<Integer> context = new ArrayList<Integer>(Arrays.asList(1, 2, 3, 4));
+		assertEquals("FAILED", state.handleAsync(context).get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testBranchTimeout() throws Exception {
+		ForEachSplitState<List<Integer>, String, Integer> state = new ForEachSplitState<List<Integer>, String, Integer>(
+				"foreach", createFlow(new AbstractState<List<Integer>, String>("slow") {
+					public String handle(List<Integer> context) throws Exception {
+						if (context.contains(2)) {
+							Thread.sleep(5000);
+						}
+						return "COMPLETED";
+					}
+				}), adapter);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		state.setBranchTimeout(100);
+		state.setTimeoutEvent("TIMEOUT");
+		List<Integer> context = new ArrayList<Integer>(Arrays.asList(1, 2));
+		assertEquals("TIMEOUT", state.handleAsync(context).get(2, TimeUnit.SECONDS));
+		// The chunk that timed out is not aggregated
+		assertEquals(Arrays.asList(1), context);
+	}
+
+	@Test
+	public void testNoItems() throws Exception {
+		ForEachSplitState<List<Integer>, String, Integer> state = new ForEachSplitState<List<Integer>, String, Integer>(
+				"foreach", createFlow(new SumState("sum", null)), adapter);
+		state.setAggregator(new MaxValueSplitAggregator<String>("COMPLETED"));
+		List<Integer> context = new ArrayList<Integer>();
+		assertEquals("COMPLETED", state.handle(context));
+		assertTrue(context.isEmpty());
+	}
+
+	/**
+	 * Replaces the items in the context with their sum, and fails if one of
+	 * them has a bad value.
+	 */
+	private static class SumState extends AbstractState<List<Integer>, String> {
+
+		private final Integer bad;
+
+		private final AtomicInteger running = new AtomicInteger();
+
+		private final AtomicInteger max = new AtomicInteger();
+
+		public SumState(String name, Integer bad) {
+			super(name);
+			this.bad = bad;
+		}
+
+		public String handle(List<Integer> context) throws Exception {
+			int count = running.incrementAndGet();
+			synchronized (max) {
+				max.set(Math.max(max.get(), count));
+			}
+			try {
+				Thread.sleep(10);
+				boolean failed = bad != null && context.contains(bad);
+				int sum = 0;
+				for (Integer item : context) {
+					sum += item;
+				}
+				context.clear();
+				context.add(sum);
+				return failed ? "FAILED" : "COMPLETED";
+			}
+			finally {
+				running.decrementAndGet();
+			}
+		}
+
+	}
+
+}
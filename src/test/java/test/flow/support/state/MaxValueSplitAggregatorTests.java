@@ -16,6 +16,8 @@
 package test.flow.support.state;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
@@ -55,4 +57,43 @@ public class MaxValueSplitAggregatorTests {
 		assertEquals(Status.UNKNOWN, aggregator.aggregate(Collections.<Status> emptySet()));
 	}
 
+	@Test
+	public void testAccumulate() throws Exception {
+		IncrementalSplitAggregator.Accumulator<Status> accumulator = aggregator.createAccumulator();
+		assertEquals(Status.UNKNOWN, accumulator.getResult());
+		accumulator.accumulate(Status.COMPLETED);
+		accumulator.accumulate(Status.FAILED);
+		accumulator.accumulate(Status.COMPLETED);
+		assertEquals(Status.FAILED, accumulator.getResult());
+		// No top value
+		assertFalse(accumulator.isFinal());
+	}
+
+	@Test
+	public void testAccumulateTopValue() throws Exception {
+		aggregator = new MaxValueSplitAggregator<Status>(Status.UNKNOWN, Status.FAILED);
+		IncrementalSplitAggregator.Accumulator<Status> accumulator = aggregator.createAccumulator();
+		accumulator.accumulate(Status.COMPLETED);
+		assertFalse(accumulator.isFinal());
+		accumulator.accumulate(Status.FAILED);
+		assertTrue(accumulator.isFinal());
+		assertEquals(Status.FAILED, accumulator.getResult());
+	}
+
+	@Test
+	public void testNullResult() throws Exception {
+		assertEquals(Status.COMPLETED, aggregator.aggregate(Arrays.asList(null, Status.COMPLETED, null)));
+		assertNull(aggregator.aggregate(Collections.<Status> singletonList(null)));
+	}
+
+	@Test
+	public void testAccumulateNullResult() throws Exception {
+		IncrementalSplitAggregator.Accumulator<Status> accumulator = aggregator.createAccumulator();
+		accumulator.accumulate(null);
+		assertNull(accumulator.getResult());
+		accumulator.accumulate(Status.COMPLETED);
+		accumulator.accumulate(null);
+		assertEquals(Status.COMPLETED, accumulator.getResult());
+	}
+
 }
@@ -16,16 +16,37 @@
 package test.flow.support.state;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static test.flow.support.state.TestFlows.createFailureResultsFlow;
+import static test.flow.support.state.TestFlows.createFlow;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.easymock.EasyMock;
 import org.junit.Test;
 import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.util.concurrent.ListenableFuture;
 
 import test.flow.Flow;
+import test.flow.FlowExecutionException;
 import test.flow.FlowResult;
+import test.flow.support.Deadline;
+import test.flow.support.FlowBuilder;
+import test.flow.support.state.IncrementalSplitAggregator.Accumulator;
+import test.flow.support.state.SplitState.JoinMode;
 
 /**
  * @author Dave Syer
@@ -82,4 +103,670 @@ public class SplitStateTests {
 
 	}
 
+	@Test
+	public void testAsyncHandling() throws Exception {
+
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		@SuppressWarnings("unchecked")
+		Flow<Object, String> flow1 = EasyMock.createMock(Flow.class);
+		@SuppressWarnings("unchecked")
+		Flow<Object, String> flow2 = EasyMock.createMock(Flow.class);
+		flows.add(flow1);
+		flows.add(flow2);
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+
+		EasyMock.expect(flow1.start(null)).andReturn(new FlowResult<Object, String>("step1", null, "COMPLETED"));
+		EasyMock.expect(flow2.start(null)).andReturn(new FlowResult<Object, String>("step1", null, "FAILED"));
+		EasyMock.replay(flow1, flow2);
+
+		ListenableFuture<String> result = state.handleAsync(null);
+		assertEquals("FAILED", result.get());
+
+		EasyMock.verify(flow1, flow2);
+
+	}
+
+	@Test
+	public void testAsyncHandlingWithFailure() throws Exception {
+
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		@SuppressWarnings("unchecked")
+		Flow<Object, String> flow1 = EasyMock.createMock(Flow.class);
+		flows.add(flow1);
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+
+		EasyMock.expect(flow1.start(null)).andThrow(new FlowExecutionException("Planned"));
+		EasyMock.replay(flow1);
+
+		ListenableFuture<String> result = state.handleAsync(null);
+		try {
+			result.get();
+			fail("Expected ExecutionException");
+		}
+		catch (ExecutionException e) {
+			assertEquals("Planned", e.getCause().getMessage());
+		}
+
+		EasyMock.verify(flow1);
+
+	}
+
+	@Test
+	public void testFailFastOnEvent() throws Exception {
+
+		CountDownLatch interrupted = new CountDownLatch(1);
+		SlowState slow = new SlowState("slow", interrupted);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(slow));
+		flows.add(createFlow(new EventState("fast", "FAILED", slow.started)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		state.setFailFastEvents(Collections.singleton("FAILED"));
+
+		assertEquals("FAILED", state.handle(null));
+		assertTrue("Slow flow not interrupted", interrupted.await(5, TimeUnit.SECONDS));
+
+	}
+
+	@Test
+	public void testFailureInCompletionOrder() throws Exception {
+
+		CountDownLatch interrupted = new CountDownLatch(1);
+		SlowState slow = new SlowState("slow", interrupted);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(slow));
+		flows.add(createFlow(new EventState("fail", null, slow.started)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+
+		try {
+			state.handle(null);
+			fail("Expected ExecutionException");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause().getMessage().contains("state=fail"));
+		}
+		// Not failing fast, so the slow flow is still running
+		assertEquals(1, interrupted.getCount());
+		slow.release();
+
+	}
+
+	@Test
+	public void testAsyncFailFastOnException() throws Exception {
+
+		CountDownLatch interrupted = new CountDownLatch(1);
+		SlowState slow = new SlowState("slow", interrupted);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(slow));
+		flows.add(createFlow(new EventState("fail", null, slow.started)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		state.setFailFastEvents(Collections.<String> emptySet());
+
+		ListenableFuture<String> result = state.handleAsync(null);
+		try {
+			result.get(5, TimeUnit.SECONDS);
+			fail("Expected ExecutionException");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause().getMessage().contains("state=fail"));
+		}
+		assertTrue("Slow flow not interrupted", interrupted.await(5, TimeUnit.SECONDS));
+
+	}
+
+	@Test
+	public void testStopWaitingWhenFinal() throws Exception {
+
+		CountDownLatch interrupted = new CountDownLatch(1);
+		SlowState slow = new SlowState("slow", interrupted);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(new EventState("completed", "COMPLETED", slow.started)));
+		flows.add(createFlow(slow));
+		flows.add(createFlow(new EventState("failed", "FAILED", slow.started)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		state.setAggregator(new MaxValueSplitAggregator<String>("UNKNOWN", "FAILED"));
+
+		assertEquals("FAILED", state.handle(null));
+		assertTrue("Slow flow not interrupted", interrupted.await(5, TimeUnit.SECONDS));
+
+	}
+
+	@Test(timeout = 10000)
+	public void testAggregatorFailsInBranch() throws Exception {
+
+		CountDownLatch none = new CountDownLatch(0);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(new EventState("done", "COMPLETED", none)));
+		flows.add(createFlow(new EventState("bad", "BAD", none)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		state.setAggregator(new MaxValueSplitAggregator<String>() {
+			@Override
+			public Accumulator<String> createAccumulator() {
+				final Accumulator<String> accumulator = super.createAccumulator();
+				return new Accumulator<String>() {
+					public void accumulate(String result) {
+						if ("BAD".equals(result)) {
+							throw new IllegalStateException("Planned");
+						}
+						accumulator.accumulate(result);
+					}
+
+					public boolean isFinal() {
+						return accumulator.isFinal();
+					}
+
+					public String getResult() {
+						return accumulator.getResult();
+					}
+				};
+			}
+		});
+
+		try {
+			state.handle(null);
+			fail("Expected ExecutionException");
+		}
+		catch (ExecutionException e) {
+			assertEquals("Planned", e.getCause().getMessage());
+		}
+		try {
+			state.handleAsync(null).get(5, TimeUnit.SECONDS);
+			fail("Expected ExecutionException");
+		}
+		catch (ExecutionException e) {
+			assertEquals("Planned", e.getCause().getMessage());
+		}
+
+	}
+
+	@Test
+	public void testIncrementalAdapter() throws Exception {
+
+		Collection<Flow<List<String>, String>> flows = new ArrayList<Flow<List<String>, String>>();
+		for (int i = 0; i < 10; i++) {
+			FlowBuilder<List<String>, String> builder = new FlowBuilder<List<String>, String>();
+			builder.end(new AbstractState<List<String>, String>("step" + i) {
+				public String handle(List<String> context) throws Exception {
+					context.add(getName());
+					return "COMPLETED";
+				}
+			});
+			flows.add(builder.build());
+		}
+
+		final List<List<String>> created = new ArrayList<List<String>>();
+		SplitState<List<String>, String> state = new SplitState<List<String>, String>("foo", flows,
+				new IncrementalSplitAdapter<List<String>, String>() {
+					public List<String> create(List<String> parent) {
+						List<String> child = new ArrayList<String>();
+						synchronized (created) {
+							created.add(child);
+						}
+						return child;
+					}
+
+					public void accumulate(List<String> parent, List<String> child) {
+						parent.addAll(child);
+						synchronized (created) {
+							created.remove(child);
+						}
+					}
+
+					public void aggregate(List<String> parent, Collection<List<String>> children) {
+						fail("Should not be called");
+					}
+				});
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+
+		List<String> context = new ArrayList<String>();
+		assertEquals("COMPLETED", state.handle(context));
+		assertEquals(10, context.size());
+		assertTrue(created.isEmpty());
+
+	}
+
+	@Test
+	public void testTimeoutWithEvent() throws Exception {
+
+		CountDownLatch interrupted = new CountDownLatch(1);
+		SlowState slow = new SlowState("slow", interrupted);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(slow));
+		flows.add(createFlow(new EventState("fast", "COMPLETED", slow.started)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		state.setTimeout(100);
+		state.setTimeoutEvent("UNKNOWN");
+
+		assertEquals("UNKNOWN", state.handle(null));
+		assertTrue("Slow flow not interrupted", interrupted.await(5, TimeUnit.SECONDS));
+
+	}
+
+	@Test
+	public void testTimeoutWithoutEvent() throws Exception {
+
+		CountDownLatch interrupted = new CountDownLatch(1);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(new SlowState("slow", interrupted)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		state.setTimeout(100);
+
+		try {
+			state.handle(null);
+			fail("Expected ExecutionException");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause().getMessage().contains("Timed out"));
+		}
+		assertTrue("Slow flow not interrupted", interrupted.await(5, TimeUnit.SECONDS));
+
+	}
+
+	@Test
+	public void testTimeoutWithSyncExecutor() throws Exception {
+
+		CountDownLatch interrupted = new CountDownLatch(1);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(new SlowState("slow", interrupted)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setTimeout(100);
+		state.setTimeoutEvent("UNKNOWN");
+
+		assertEquals("UNKNOWN", state.handle(null));
+		assertEquals(0, interrupted.getCount());
+		// The interrupt was only for the flow that timed out
+		assertFalse(Thread.currentThread().isInterrupted());
+
+	}
+
+	@Test
+	public void testAsyncBranchTimeout() throws Exception {
+
+		CountDownLatch interrupted = new CountDownLatch(1);
+		SlowState slow = new SlowState("slow", interrupted);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(slow));
+		flows.add(createFlow(new EventState("fast", "COMPLETED", slow.started)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		state.setBranchTimeout(100);
+		state.setTimeoutEvent("UNKNOWN");
+
+		assertEquals("UNKNOWN", state.handleAsync(null).get(5, TimeUnit.SECONDS));
+		assertTrue("Slow flow not interrupted", interrupted.await(5, TimeUnit.SECONDS));
+
+	}
+
+	@Test
+	public void testNestedSplitInheritsDeadline() throws Exception {
+
+		final List<Deadline> deadlines = new ArrayList<Deadline>();
+		Collection<Flow<Object, String>> inner = new ArrayList<Flow<Object, String>>();
+		inner.add(createFlow(new AbstractState<Object, String>("inner") {
+			public String handle(Object context) throws Exception {
+				deadlines.add(Deadline.current());
+				return "COMPLETED";
+			}
+		}));
+		SplitState<Object, String> nested = new SplitState<Object, String>("nested", inner);
+		nested.setTaskExecutor(new SimpleAsyncTaskExecutor());
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", Collections.singleton(createFlow(nested)));
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		state.setTimeout(1000);
+
+		assertEquals("COMPLETED", state.handle(null));
+		assertEquals(1, deadlines.size());
+		assertNotNull(deadlines.get(0));
+		assertTrue(deadlines.get(0).remaining(TimeUnit.MILLISECONDS) <= 1000);
+		assertNull(Deadline.current());
+
+	}
+
+	@Test
+	public void testFirstSuccess() throws Exception {
+
+		CountDownLatch interrupted = new CountDownLatch(1);
+		SlowState slow = new SlowState("slow", interrupted);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(slow));
+		flows.add(createFlow(new EventState("fail", null, slow.started)));
+		flows.add(createFlow(new EventState("fast", "COMPLETED", slow.started)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		state.setJoinMode(JoinMode.FIRST_SUCCESS);
+		state.setAcceptedEvents(Collections.singleton("COMPLETED"));
+
+		assertEquals("COMPLETED", state.handle(null));
+		assertTrue("Slow flow not interrupted", interrupted.await(5, TimeUnit.SECONDS));
+
+	}
+
+	@Test
+	public void testAsyncQuorum() throws Exception {
+
+		CountDownLatch interrupted = new CountDownLatch(1);
+		SlowState slow = new SlowState("slow", interrupted);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(new EventState("fast1", "COMPLETED", slow.started)));
+		flows.add(createFlow(slow));
+		flows.add(createFlow(new EventState("fast2", "COMPLETED", slow.started)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		state.setJoinMode(JoinMode.QUORUM);
+		state.setQuorum(2);
+		state.setAcceptedEvents(Collections.singleton("COMPLETED"));
+
+		assertEquals("COMPLETED", state.handleAsync(null).get(5, TimeUnit.SECONDS));
+		assertTrue("Slow flow not interrupted", interrupted.await(5, TimeUnit.SECONDS));
+
+	}
+
+	@Test
+	public void testQuorumNotReached() throws Exception {
+
+		CountDownLatch none = new CountDownLatch(0);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(new EventState("fail", null, none)));
+		flows.add(createFlow(new EventState("failed", "FAILED", none)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setJoinMode(JoinMode.FIRST_SUCCESS);
+		state.setAcceptedEvents(Collections.singleton("COMPLETED"));
+
+		assertEquals("FAILED", state.handle(null));
+
+	}
+
+	@Test
+	public void testQuorumTimeoutWithoutEvent() throws Exception {
+
+		CountDownLatch none = new CountDownLatch(0);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(new SlowState("slow", none)));
+		flows.add(createFlow(new EventState("failed", "FAILED", none)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setTaskExecutor(new SimpleAsyncTaskExecutor());
+		state.setJoinMode(JoinMode.FIRST_SUCCESS);
+		state.setAcceptedEvents(Collections.singleton("COMPLETED"));
+		state.setTimeout(200);
+		state.setAggregator(new SplitAggregator<String>() {
+			public String aggregate(Collection<String> executions) {
+				return executions.toString();
+			}
+		});
+
+		// The flow that timed out is not aggregated
+		assertEquals("[FAILED]", state.handle(null));
+		assertEquals("[FAILED]", state.handleAsync(null).get(5, TimeUnit.SECONDS));
+
+	}
+
+	@Test
+	public void testQuorumAllFailed() throws Exception {
+
+		CountDownLatch none = new CountDownLatch(0);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(new EventState("fail1", null, none)));
+		flows.add(createFlow(new EventState("fail2", null, none)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setJoinMode(JoinMode.FIRST_SUCCESS);
+		state.setAcceptedEvents(Collections.singleton("COMPLETED"));
+
+		try {
+			state.handle(null);
+			fail("Expected ExecutionException");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause().getMessage().contains("state=fail"));
+		}
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testQuorumNotPositive() throws Exception {
+		SplitState<Object, String> state = new SplitState<Object, String>("foo",
+				new ArrayList<Flow<Object, String>>());
+		state.setQuorum(0);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testQuorumMoreThanFlows() throws Exception {
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(new EventState("done", "COMPLETED", new CountDownLatch(0))));
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setJoinMode(JoinMode.QUORUM);
+		state.setQuorum(2);
+		state.setAcceptedEvents(Collections.singleton("COMPLETED"));
+		state.handle(null);
+	}
+
+	@Test
+	public void testFailureResults() throws Exception {
+
+		CountDownLatch none = new CountDownLatch(0);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFailureResultsFlow(new EventState("done", "COMPLETED", none)));
+		flows.add(createFailureResultsFlow(new EventState("fail", null, none)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+
+		try {
+			state.handle(null);
+			fail("Expected ExecutionException");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof FlowExecutionException);
+			assertTrue(e.getCause().getMessage().contains("state=fail"));
+		}
+
+	}
+
+	@Test
+	public void testNoTransitionFailureResult() throws Exception {
+
+		CountDownLatch none = new CountDownLatch(0);
+		FlowBuilder<Object, String> builder = new FlowBuilder<Object, String>("unknown");
+		builder.failureResults(true);
+		builder.from(new EventState("unknown", "UNKNOWN", none)).on("COMPLETED")
+				.end(new EventState("end", "COMPLETED", none));
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFailureResultsFlow(new EventState("done", "COMPLETED", none)));
+		flows.add(builder.build());
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+
+		try {
+			state.handleAsync(null).get(5, TimeUnit.SECONDS);
+			fail("Expected ExecutionException");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof FlowExecutionException);
+			assertTrue(e.getCause().getMessage().contains("UNKNOWN"));
+		}
+
+	}
+
+	@Test
+	public void testQuorumWithFailureResults() throws Exception {
+
+		CountDownLatch none = new CountDownLatch(0);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFailureResultsFlow(new EventState("fail", null, none)));
+		flows.add(createFailureResultsFlow(new EventState("done", "COMPLETED", none)));
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setJoinMode(JoinMode.QUORUM);
+		state.setAcceptedEvents(Collections.singleton("COMPLETED"));
+
+		assertEquals("COMPLETED", state.handle(null));
+
+		flows.clear();
+		flows.add(createFailureResultsFlow(new EventState("fail1", null, none)));
+		flows.add(createFailureResultsFlow(new EventState("fail2", null, none)));
+
+		try {
+			state.handle(null);
+			fail("Expected ExecutionException");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause().getMessage().contains("state=fail"));
+		}
+
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testRepositoryWithDuplicateFlowNames() throws Exception {
+		CountDownLatch none = new CountDownLatch(0);
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(new EventState("step", "COMPLETED", none)));
+		flows.add(createFlow(new EventState("step", "FAILED", none)));
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		@SuppressWarnings("unchecked")
+		SplitRepository<Object, String> repository = EasyMock.createMock(SplitRepository.class);
+		state.setRepository(repository);
+		state.handle(null);
+	}
+
+	@Test
+	public void testRepository() throws Exception {
+
+		final Map<String, BranchOutcome<String>> outcomes = new HashMap<String, BranchOutcome<String>>();
+		SplitRepository<Object, String> repository = new SplitRepository<Object, String>() {
+			public BranchOutcome<String> getOutcome(Object context, String split, String flow) {
+				return outcomes.get(split + "." + flow);
+			}
+
+			public void saveOutcome(Object context, String split, String flow, BranchOutcome<String> outcome) {
+				outcomes.put(split + "." + flow, outcome);
+			}
+
+			public void clear(Object context, String split) {
+				outcomes.clear();
+			}
+		};
+
+		final AtomicInteger attempts = new AtomicInteger();
+		FlowBuilder<Object, String> builder = new FlowBuilder<Object, String>("pausing");
+		builder.from(new PauseState<Object, String>("pause", new PauseAdapter<Object, String>() {
+			public String pause(Object context) {
+				return "PAUSED";
+			}
+		})).end(new EventState("end", "COMPLETED", new CountDownLatch(0)));
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(builder.build());
+		builder = new FlowBuilder<Object, String>("failing");
+		builder.end(new AbstractState<Object, String>("fail") {
+			public String handle(Object context) throws Exception {
+				if (attempts.incrementAndGet() == 1) {
+					throw new IllegalStateException("Planned");
+				}
+				return "COMPLETED";
+			}
+		});
+		flows.add(builder.build());
+
+		SplitState<Object, String> state = new SplitState<Object, String>("foo", flows);
+		state.setRepository(repository);
+
+		try {
+			state.handle(null);
+			fail("Expected ExecutionException");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause().getMessage().contains("state=fail"));
+		}
+		assertEquals(1, outcomes.size());
+		assertFalse(outcomes.get("foo.pausing").isComplete());
+
+		// The paused flow is resumed and the failed one runs again
+		assertEquals("COMPLETED", state.handle(null));
+		assertEquals(2, attempts.get());
+		assertTrue(outcomes.isEmpty());
+
+	}
+
+	/**
+	 * Waits for another state to start, then returns an event, or throws an
+	 * exception if the event is null.
+	 */
+	private static class EventState extends AbstractState<Object, String> {
+
+		private final String event;
+
+		private final CountDownLatch other;
+
+		public EventState(String name, String event, CountDownLatch other) {
+			super(name);
+			this.event = event;
+			this.other = other;
+		}
+
+		public String handle(Object context) throws Exception {
+			other.await(5, TimeUnit.SECONDS);
+			if (event == null) {
+				throw new IllegalStateException("Planned");
+			}
+			return event;
+		}
+
+	}
+
+	/**
+	 * Waits until released or interrupted.
+	 */
+	private static class SlowState extends AbstractState<Object, String> {
+
+		private final CountDownLatch started = new CountDownLatch(1);
+
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		private final CountDownLatch interrupted;
+
+		public SlowState(String name, CountDownLatch interrupted) {
+			super(name);
+			this.interrupted = interrupted;
+		}
+
+		public void release() {
+			release.countDown();
+		}
+
+		public String handle(Object context) throws Exception {
+			started.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				interrupted.countDown();
+				throw e;
+			}
+			return "COMPLETED";
+		}
+
+	}
+
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.state;
+
+import test.flow.Flow;
+import test.flow.support.FlowBuilder;
+import test.flow.support.State;
+
+/**
+ * Creates simple flows for tests of states that run other flows.
+ * 
+ * @author Dave Syer
+ * 
+ */
+public abstract class TestFlows {
+
+	/**
+	 * @param state the only state in the flow
+	 * @return a flow that runs the state and ends
+	 */
+	public static <T, S> Flow<T, S> createFlow(State<T, S> state) {
+		FlowBuilder<T, S> builder = new FlowBuilder<T, S>();
+		builder.end(state);
+		return builder.build();
+	}
+
+	/**
+	 * @param state the only state in the flow
+	 * @return a flow that runs the state and ends, returning failures as
+	 * results
+	 */
+	public static <T, S> Flow<T, S> createFailureResultsFlow(State<T, S> state) {
+		FlowBuilder<T, S> builder = new FlowBuilder<T, S>();
+		builder.failureResults(true);
+		builder.end(state);
+		return builder.build();
+	}
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static test.flow.support.state.TestFlows.createFlow;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import test.flow.Flow;
+import test.flow.support.state.AbstractState;
+import test.flow.support.state.SplitState;
+import test.flow.support.task.Bulkhead.RejectionPolicy;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class BulkheadTests {
+
+	private CountDownLatch release = new CountDownLatch(1);
+
+	@Test
+	public void testLimitsConcurrency() throws Exception {
+		Bulkhead bulkhead = new Bulkhead("test", new SimpleAsyncTaskExecutor(), 2);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger max = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch done = new CountDownLatch(10);
+		for (int i = 0; i < 10; i++) {
+			bulkhead.execute(new Runnable() {
+				public void run() {
+					int count = running.incrementAndGet();
+					synchronized (max) {
+						max.set(Math.max(max.get(), count));
+					}
+					started.countDown();
+					await(release);
+					running.decrementAndGet();
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertEquals(8, bulkhead.getQueueSize());
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(2, max.get());
+		assertEquals(8, bulkhead.getMaxQueueSize());
+		assertEquals(10, bulkhead.getStartedCount());
+		assertTrue(bulkhead.getMaxWaitTime(TimeUnit.NANOSECONDS) > 0);
+	}
+
+	@Test
+	public void testRejectWhenQueueFull() throws Exception {
+		Bulkhead bulkhead = new Bulkhead("test", new SimpleAsyncTaskExecutor(), 1);
+		bulkhead.setQueueCapacity(1);
+		CountDownLatch done = new CountDownLatch(2);
+		bulkhead.execute(new Waiter(done));
+		bulkhead.execute(new Waiter(done));
+		try {
+			bulkhead.execute(new Waiter(done));
+			fail("Expected TaskRejectedException");
+		}
+		catch (TaskRejectedException e) {
+			assertTrue(e.getMessage().contains("[test]"));
+		}
+		assertEquals(1, bulkhead.getRejectedCount());
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testCallerRuns() throws Exception {
+		Bulkhead bulkhead = new Bulkhead("test", new SimpleAsyncTaskExecutor(), 1);
+		bulkhead.setQueueCapacity(0);
+		bulkhead.setRejectionPolicy(RejectionPolicy.CALLER_RUNS);
+		bulkhead.execute(new Waiter(new CountDownLatch(1)));
+		final List<Thread> threads = new ArrayList<Thread>();
+		bulkhead.execute(new Runnable() {
+			public void run() {
+				threads.add(Thread.currentThread());
+			}
+		});
+		assertSame(Thread.currentThread(), threads.get(0));
+		release.countDown();
+	}
+
+	@Test
+	public void testNestedTaskNotQueued() throws Exception {
+		final Bulkhead bulkhead = new Bulkhead("test", new SimpleAsyncTaskExecutor(), 1);
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		final CountDownLatch done = new CountDownLatch(1);
+		bulkhead.execute(new Runnable() {
+			public void run() {
+				try {
+					bulkhead.execute(new Waiter(done));
+				}
+				catch (TaskRejectedException e) {
+					errors.add(e);
+				}
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(1, errors.size());
+		assertEquals(0, bulkhead.getQueueSize());
+	}
+
+	@Test
+	public void testSaturatedSplitRunsInline() throws Exception {
+		Bulkhead bulkhead = new Bulkhead("test", new SimpleAsyncTaskExecutor(), 1);
+		bulkhead.setQueueCapacity(0);
+		final CountDownLatch others = new CountDownLatch(2);
+		final List<Thread> threads = new ArrayList<Thread>();
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		flows.add(createFlow(new AbstractState<Object, String>("first") {
+			public String handle(Object context) throws Exception {
+				others.await(5, TimeUnit.SECONDS);
+				return "COMPLETED";
+			}
+		}));
+		for (int i = 0; i < 2; i++) {
+			flows.add(createFlow(new AbstractState<Object, String>("other" + i) {
+				public String handle(Object context) throws Exception {
+					threads.add(Thread.currentThread());
+					others.countDown();
+					return "COMPLETED";
+				}
+			}));
+		}
+		SplitState<Object, String> state = new SplitState<Object, String>("split", flows);
+		state.setTaskExecutor(bulkhead);
+		assertEquals("COMPLETED", state.handle(null));
+		assertEquals(2, threads.size());
+		assertSame(Thread.currentThread(), threads.get(0));
+		assertSame(Thread.currentThread(), threads.get(1));
+		assertEquals(2, bulkhead.getRejectedCount());
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private class Waiter implements Runnable {
+
+		private final CountDownLatch done;
+
+		public Waiter(CountDownLatch done) {
+			this.done = done;
+		}
+
+		public void run() {
+			await(release);
+			done.countDown();
+		}
+
+	}
+
+}
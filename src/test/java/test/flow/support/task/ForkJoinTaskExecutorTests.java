@@ -0,0 +1,103 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import test.flow.Flow;
+import test.flow.FlowResult;
+import test.flow.support.CompiledFlow;
+import test.flow.support.FlowBuilder;
+import test.flow.support.state.AbstractState;
+import test.flow.support.state.SplitState;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class ForkJoinTaskExecutorTests {
+
+	private ForkJoinTaskExecutor executor = new ForkJoinTaskExecutor(2);
+
+	private AtomicInteger count = new AtomicInteger();
+
+	@After
+	public void close() {
+		executor.destroy();
+	}
+
+	@Test
+	public void testExecute() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		executor.execute(new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test(timeout = 10000)
+	public void testNestedSplits() throws Exception {
+		// 4 levels of splits, each 3 wide, waiting in every leaf: far more
+		// waiting splits (40) than threads in the pool (2)
+		CompiledFlow<Object, String> flow = createFlow(4, 3);
+		FlowResult<Object, String> result = flow.start(null);
+		assertEquals("COMPLETED", result.getEvent());
+		assertEquals(81, count.get());
+	}
+
+	@Test(timeout = 10000)
+	public void testNestedSplitsAsync() throws Exception {
+		CompiledFlow<Object, String> flow = createFlow(4, 3);
+		FlowResult<Object, String> result = flow.startAsync(null).get();
+		assertEquals("COMPLETED", result.getEvent());
+		assertEquals(81, count.get());
+	}
+
+	private CompiledFlow<Object, String> createFlow(int depth, int width) {
+		FlowBuilder<Object, String> builder = new FlowBuilder<Object, String>();
+		if (depth == 0) {
+			builder.end(new AbstractState<Object, String>("leaf") {
+				public String handle(Object context) throws Exception {
+					Thread.sleep(10);
+					count.incrementAndGet();
+					return "COMPLETED";
+				}
+			});
+			return builder.build();
+		}
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		for (int i = 0; i < width; i++) {
+			flows.add(createFlow(depth - 1, width));
+		}
+		SplitState<Object, String> split = new SplitState<Object, String>("split" + depth, flows);
+		split.setTaskExecutor(executor);
+		builder.end(split);
+		return builder.build();
+	}
+
+}
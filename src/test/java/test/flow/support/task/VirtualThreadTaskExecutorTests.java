@@ -0,0 +1,66 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.flow.support.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.junit.Test;
+
+import test.flow.Flow;
+import test.flow.support.FlowBuilder;
+import test.flow.support.state.AbstractState;
+import test.flow.support.state.SplitState;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class VirtualThreadTaskExecutorTests {
+
+	@Test(expected = IllegalStateException.class)
+	public void testNotAvailable() throws Exception {
+		assumeTrue(!VirtualThreadTaskExecutor.isAvailable());
+		new VirtualThreadTaskExecutor();
+	}
+
+	@Test
+	public void testWideSplit() throws Exception {
+		assumeTrue(VirtualThreadTaskExecutor.isAvailable());
+		Collection<Flow<Object, String>> flows = new ArrayList<Flow<Object, String>>();
+		for (int i = 0; i < 500; i++) {
+			FlowBuilder<Object, String> builder = new FlowBuilder<Object, String>();
+			builder.end(new AbstractState<Object, String>("step" + i) {
+				public String handle(Object context) throws Exception {
+					Thread.sleep(50);
+					return Thread.currentThread().getName().startsWith("virtual-") ? "COMPLETED" : "FAILED";
+				}
+			});
+			flows.add(builder.build());
+		}
+		SplitState<Object, String> state = new SplitState<Object, String>("split", flows);
+		state.setTaskExecutor(new VirtualThreadTaskExecutor());
+		long start = System.currentTimeMillis();
+		assertEquals("COMPLETED", state.handle(null));
+		// All the flows wait at the same time
+		assertTrue(System.currentTimeMillis() - start < 5000);
+	}
+
+}
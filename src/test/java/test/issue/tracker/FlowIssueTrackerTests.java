@@ -19,18 +19,22 @@ import static org.junit.Assert.assertEquals;
 import static test.issue.Action.APPROVED;
 import static test.issue.Action.REJECTED;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import test.flow.Flow;
 import test.flow.support.FlowBuilder;
 import test.flow.support.State;
 import test.flow.support.StateLocator;
+import test.flow.support.repository.JournalFlowExecutionRepository;
 import test.issue.Action;
 import test.issue.Issue;
 import test.issue.Status;
@@ -41,6 +45,9 @@ import test.issue.Status;
  */
 public class FlowIssueTrackerTests {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	private FlowIssueTracker tracker;
 	private Flow<Issue, Action> flow;
 	
@@ -155,6 +162,32 @@ public class FlowIssueTrackerTests {
 		assertEquals(Status.ACCEPTED, issue.getStatus());
 	}
 
+	@Test
+	public void testResumeFromJournal() throws Throwable {
+		File file = new File(folder.getRoot(), "issues.journal");
+		JournalFlowExecutionRepository<Action> repository = new JournalFlowExecutionRepository<Action>(file);
+		tracker = new FlowIssueTracker(flow, repository);
+		Issue issue = new Issue(123L, "Not working");
+		tracker.open(issue);
+		tracker.approve(issue);
+		repository.close();
+		// The status is not used to find the state after a restart
+		issue.setStatus(null);
+		repository = new JournalFlowExecutionRepository<Action>(file);
+		try {
+			tracker = new FlowIssueTracker(flow, repository);
+			assertEquals("ACCEPTED", repository.get(123L).getMemento());
+			tracker.approve(issue);
+			assertEquals(Status.RESOLVED, issue.getStatus());
+			tracker.approve(issue);
+			assertEquals(Status.CLOSED, issue.getStatus());
+			assertEquals("CLOSED", repository.get(123L).getMemento());
+		}
+		finally {
+			repository.close();
+		}
+	}
+
 	@Test(expected=IllegalStateException.class)
 	public void testBadTriggerNoPathOnReject() throws Throwable {
 
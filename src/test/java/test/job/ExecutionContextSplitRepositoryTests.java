@@ -0,0 +1,87 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+
+import test.flow.support.state.BranchOutcome;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class ExecutionContextSplitRepositoryTests {
+
+	private ExecutionContextSplitRepository repository = new ExecutionContextSplitRepository();
+
+	private JobExecution jobExecution = new JobExecution(11L);
+
+	private JobFlowExecutor context;
+
+	@Before
+	public void setUp() {
+		context = EasyMock.createMock(JobFlowExecutor.class);
+		EasyMock.expect(context.getJobExecution()).andReturn(jobExecution).anyTimes();
+		EasyMock.replay(context);
+	}
+
+	@Test
+	public void testSaveAndGet() throws Exception {
+		repository.saveOutcome(context, "split", "flow", new BranchOutcome<ExitStatus>("end", ExitStatus.COMPLETED,
+				true));
+		assertEquals(ExitStatus.COMPLETED, repository.getOutcome(context, "split", "flow").getEvent());
+		assertNull(repository.getOutcome(context, "split", "other"));
+		assertNull(repository.getOutcome(context, "other", "flow"));
+	}
+
+	@Test
+	public void testFailedNotRecorded() throws Exception {
+		repository.saveOutcome(context, "split", "flow", new BranchOutcome<ExitStatus>("pause", ExitStatus.EXECUTING,
+				false));
+		repository.saveOutcome(context, "split", "flow", new BranchOutcome<ExitStatus>("end", ExitStatus.FAILED,
+				true));
+		assertNull(repository.getOutcome(context, "split", "flow"));
+		assertEquals(0, jobExecution.getExecutionContext().size());
+	}
+
+	@Test
+	public void testNullEventRecorded() throws Exception {
+		repository.saveOutcome(context, "split", "flow", new BranchOutcome<ExitStatus>("end", null, true));
+		assertNotNull(repository.getOutcome(context, "split", "flow"));
+		assertNull(repository.getOutcome(context, "split", "flow").getEvent());
+	}
+
+	@Test
+	public void testClearOnlyMatchingSplit() throws Exception {
+		repository.saveOutcome(context, "a", "b.flow", new BranchOutcome<ExitStatus>("end", ExitStatus.COMPLETED,
+				true));
+		repository.saveOutcome(context, "a.b", "flow", new BranchOutcome<ExitStatus>("end", ExitStatus.COMPLETED,
+				true));
+		assertEquals(2, jobExecution.getExecutionContext().size());
+		repository.clear(context, "a");
+		assertNull(repository.getOutcome(context, "a", "b.flow"));
+		assertNotNull(repository.getOutcome(context, "a.b", "flow"));
+	}
+
+}
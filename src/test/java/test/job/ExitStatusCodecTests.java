@@ -0,0 +1,73 @@
+/*
+ * Copyright 2006-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.springframework.batch.core.ExitStatus;
+
+import test.flow.FlowResult;
+import test.flow.support.codec.BinaryInput;
+import test.flow.support.codec.BinaryOutput;
+import test.flow.support.codec.FlowCodec;
+
+/**
+ * @author Dave Syer
+ * 
+ */
+public class ExitStatusCodecTests {
+
+	private ExitStatusCodec codec = new ExitStatusCodec();
+
+	private BinaryOutput output = new BinaryOutput();
+
+	@Test
+	public void testStandardCode() {
+		codec.write(ExitStatus.COMPLETED, output);
+		assertEquals(2, output.size());
+		assertSame(ExitStatus.COMPLETED, codec.read(new BinaryInput(output.toByteBuffer())));
+	}
+
+	@Test
+	public void testStandardCodeWithDescription() {
+		ExitStatus status = ExitStatus.FAILED.addExitDescription("Planned");
+		codec.write(status, output);
+		assertEquals(status, codec.read(new BinaryInput(output.toByteBuffer())));
+	}
+
+	@Test
+	public void testCustomCode() {
+		ExitStatus status = new ExitStatus("COMPLETED WITH SKIPS");
+		codec.write(status, output);
+		ExitStatus result = codec.read(new BinaryInput(output.toByteBuffer()));
+		assertEquals(status, result);
+		assertEquals("", result.getExitDescription());
+	}
+
+	@Test
+	public void testFlowResult() {
+		FlowCodec<ExitStatus> flows = new FlowCodec<ExitStatus>(codec);
+		FlowResult<String, ExitStatus> result = flows.decode(ByteBuffer.wrap(flows.encode(new FlowResult<String, ExitStatus>(
+				"step1", "foo", ExitStatus.STOPPED, false))), "foo");
+		assertEquals("step1", result.getMemento());
+		assertEquals(ExitStatus.STOPPED, result.getEvent());
+	}
+
+}
@@ -16,8 +16,12 @@
 package test.job;
 
 import static org.junit.Assert.assertEquals;
+import static test.flow.support.state.TestFlows.createFlow;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -31,9 +35,12 @@ import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.batch.core.repository.support.MapJobRepositoryFactoryBean;
 import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
 
+import test.flow.Flow;
 import test.flow.support.FlowBuilder;
 import test.flow.support.State;
+import test.flow.support.state.AbstractState;
 import test.flow.support.state.PauseState;
+import test.flow.support.state.SplitState;
 
 /**
  * @author Dave Syer
@@ -169,6 +176,54 @@ public class FlowJobTests {
 
 	}
 
+	@Test
+	public void testSplitRestart() throws Throwable {
+
+		FlowJob job = new FlowJob();
+		job.setJobRepository(jobRepository);
+
+		final AtomicInteger completed = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		Collection<Flow<JobFlowExecutor, ExitStatus>> flows = new ArrayList<Flow<JobFlowExecutor, ExitStatus>>();
+		flows.add(createFlow(new AbstractState<JobFlowExecutor, ExitStatus>("completed") {
+			public ExitStatus handle(JobFlowExecutor context) throws Exception {
+				completed.incrementAndGet();
+				return ExitStatus.COMPLETED;
+			}
+		}));
+		flows.add(createFlow(new AbstractState<JobFlowExecutor, ExitStatus>("failed") {
+			public ExitStatus handle(JobFlowExecutor context) throws Exception {
+				if (failed.incrementAndGet() == 1) {
+					throw new IllegalStateException("Planned");
+				}
+				return ExitStatus.COMPLETED;
+			}
+		}));
+		SplitState<JobFlowExecutor, ExitStatus> split = new SplitState<JobFlowExecutor, ExitStatus>("split", flows);
+		ExecutionContextSplitRepository repository = new ExecutionContextSplitRepository();
+		repository.setJobRepository(jobRepository);
+		split.setRepository(repository);
+
+		FlowBuilder<JobFlowExecutor, ExitStatus> builder = new FlowBuilder<JobFlowExecutor, ExitStatus>("job");
+		builder.from(split).end(new EndState("end", ExitStatus.COMPLETED));
+		job.setFlow(builder.build());
+
+		job.execute(jobExecution);
+		assertEquals(BatchStatus.FAILED, jobExecution.getStatus());
+		assertEquals(1, completed.get());
+
+		// Restart: a new execution of the same job instance
+		JobExecution restart = jobRepository.createJobExecution("job", new JobParameters());
+		assertEquals(jobExecution.getJobId(), restart.getJobId());
+		job.execute(restart);
+		assertEquals(BatchStatus.COMPLETED, restart.getStatus());
+		// Only the flow that failed ran again
+		assertEquals(1, completed.get());
+		assertEquals(2, failed.get());
+		assertEquals(1, restart.getExecutionContext().size());
+
+	}
+
 	/**
 	 * @author Dave Syer
 	 * 